@@ -0,0 +1,101 @@
+package com.scoopit.weedfs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.scoopit.weedfs.client.fake.FakeWeedFSCluster;
+
+/**
+ * Assign, write and read through the whole client stack against a {@link FakeWeedFSCluster} without any injected fault,
+ * so the numbers are dominated by the client and the loopback connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(4)
+public class EndToEndBenchmark {
+
+    @Param({ "1024" })
+    public int size;
+
+    private FakeWeedFSCluster cluster;
+
+    private WeedFSClient client;
+
+    private byte[] content;
+
+    private Assignation stored;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = FakeWeedFSCluster.createBuilder().build();
+        client = WeedFSClientBuilder.createBuilder().setMasterUrl(cluster.getMasterUrl()).setMaxConnectionsPerRoute(64).build();
+        content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        stored = client.assign(new AssignParams());
+        client.writeRaw(stored.weedFSFile, stored.location, ByteBuffer.wrap(content), "file", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        cluster.close();
+    }
+
+    @Benchmark
+    public Assignation assign() throws IOException {
+        return client.assign(new AssignParams());
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return client.writeRaw(stored.weedFSFile, stored.location, ByteBuffer.wrap(content), "file", null);
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) throws IOException {
+        consume(client.read(stored.weedFSFile), bh);
+    }
+
+    @Benchmark
+    public void assignWriteReadDelete(Blackhole bh) throws IOException {
+        Assignation a = client.assign(new AssignParams());
+        bh.consume(client.writeRaw(a.weedFSFile, a.location, ByteBuffer.wrap(content), "file", null));
+        consume(client.read(a.weedFSFile, a.location), bh);
+        client.delete(a.weedFSFile, a.location);
+    }
+
+    private static void consume(InputStream in, Blackhole bh) throws IOException {
+        byte[] buf = new byte[8192];
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bh.consume(n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
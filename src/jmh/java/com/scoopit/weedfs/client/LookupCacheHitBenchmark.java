@@ -0,0 +1,94 @@
+package com.scoopit.weedfs.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scoopit.weedfs.client.caching.BoundedLookupCache;
+import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.caching.MapLookupCache;
+import com.scoopit.weedfs.client.caching.TimeBasedLookupCache;
+
+/**
+ * Lookup cache hits from 1 to 64 threads, over uniformly random volumes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupCacheHitBenchmark {
+
+    @Param({ "map", "timeBased", "bounded" })
+    public String cache;
+
+    @Param({ "1000" })
+    public int volumes;
+
+    private LookupCache lookupCache;
+
+    @Setup
+    public void setup() {
+        switch (cache) {
+        case "map":
+            lookupCache = new MapLookupCache();
+            break;
+        case "timeBased":
+            lookupCache = new TimeBasedLookupCache(3600);
+            break;
+        case "bounded":
+            lookupCache = new BoundedLookupCache(volumes);
+            break;
+        default:
+            throw new IllegalArgumentException(cache);
+        }
+        for (long volumeId = 1; volumeId <= volumes; volumeId++) {
+            Location location = new Location();
+            location.publicUrl = location.url = "volume-" + volumeId + ":8080";
+            lookupCache.setLocation(volumeId, Collections.singletonList(location));
+        }
+    }
+
+    private List<Location> hit() {
+        return lookupCache.lookup(ThreadLocalRandom.current().nextInt(volumes) + 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Location> threads1() {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Location> threads4() {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<Location> threads16() {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<Location> threads64() {
+        return hit();
+    }
+}
@@ -0,0 +1,56 @@
+package com.scoopit.weedfs.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scoopit.weedfs.client.net.AssignResult;
+import com.scoopit.weedfs.client.net.LookupResult;
+import com.scoopit.weedfs.client.net.WriteResult;
+
+/**
+ * Decoding of master and volume server responses by {@link JsonResponses}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    private final byte[] assign = ("{\"count\":1,\"fid\":\"3,01637037d6\",\"url\":\"127.0.0.1:8080\","
+            + "\"publicUrl\":\"localhost:8080\"}").getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] lookup = ("{\"volumeOrFileId\":\"3\",\"locations\":[{\"url\":\"10.0.0.1:8080\",\"publicUrl\":\"volume-1:8080\"},"
+            + "{\"url\":\"10.0.0.2:8080\",\"publicUrl\":\"volume-2:8080\"},{\"url\":\"10.0.0.3:8080\",\"publicUrl\":\"volume-3:8080\"}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] write = "{\"name\":\"picture.jpg\",\"size\":102400}".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public AssignResult assign() throws IOException {
+        return JsonResponses.read(JsonResponses.ASSIGN, new ByteArrayInputStream(assign));
+    }
+
+    @Benchmark
+    public LookupResult lookup() throws IOException {
+        return JsonResponses.read(JsonResponses.LOOKUP, new ByteArrayInputStream(lookup));
+    }
+
+    @Benchmark
+    public WriteResult write() throws IOException {
+        return JsonResponses.read(JsonResponses.WRITE, new ByteArrayInputStream(write));
+    }
+}
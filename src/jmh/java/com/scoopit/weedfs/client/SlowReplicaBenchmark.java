@@ -0,0 +1,84 @@
+package com.scoopit.weedfs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scoopit.weedfs.client.fake.FakeWeedFSCluster;
+import com.scoopit.weedfs.client.fake.LatencyDistribution;
+
+/**
+ * Read latency distribution with two replicas, one of them with a slow tail, with and without hedged reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(4)
+public class SlowReplicaBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean hedging;
+
+    private FakeWeedFSCluster cluster;
+
+    private WeedFSClient client;
+
+    private WeedFSFile file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = FakeWeedFSCluster.createBuilder().setVolumeServers(2).setVolumes(1)
+                .setReplication(ReplicationStrategy.OnceOnSameRack).build();
+        LatencyDistribution fast = LatencyDistribution.logNormal(1, 0.3, TimeUnit.MILLISECONDS);
+        cluster.getVolumeServer(0).getFaults().setLatency(fast);
+        cluster.getVolumeServer(1).getFaults()
+                .setLatency(fast.withSlowRequests(0.05, LatencyDistribution.uniform(50, 100, TimeUnit.MILLISECONDS)));
+
+        WeedFSClientBuilder builder = WeedFSClientBuilder.createBuilder().setMasterUrl(cluster.getMasterUrl());
+        if (hedging) {
+            builder.setHedgingPolicy(HedgingPolicy.percentile(0.95, 2, TimeUnit.MILLISECONDS, 0.1));
+        }
+        client = builder.build();
+        Assignation a = client.assign(new AssignParams());
+        client.writeRaw(a.weedFSFile, a.location, ByteBuffer.wrap(new byte[16 << 10]), "file", null);
+        file = a.weedFSFile;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        cluster.close();
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long ret = 0;
+        try (InputStream in = client.read(file)) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                ret += n;
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,64 @@
+package com.scoopit.weedfs.client;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of master and volume server urls by {@link WeedFSClientImpl}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    private final Location location = new Location();
+
+    private final WeedFSFile file = new WeedFSFile("1234,01637037d6", 3);
+
+    private final AssignParams params = new AssignParams("pictures", ReplicationStrategy.OnceOnSameRack);
+
+    private URL master;
+
+    {
+        location.url = location.publicUrl = "volume-1:8080";
+        try {
+            master = new URL("http://master:9333");
+        } catch (MalformedURLException e) {
+            throw new Error(e);
+        }
+    }
+
+    @Benchmark
+    public String fileUrl() {
+        return WeedFSClientImpl.fileUrl(location, file);
+    }
+
+    @Benchmark
+    public String volumeServerUrl() {
+        return WeedFSClientImpl.volumeServerUrl(location);
+    }
+
+    @Benchmark
+    public String assignUrl() throws MalformedURLException {
+        return WeedFSClientImpl.assignUrl(master, params);
+    }
+
+    @Benchmark
+    public String lookupUrl() throws MalformedURLException {
+        return WeedFSClientImpl.lookupUrl(master, 1234);
+    }
+}
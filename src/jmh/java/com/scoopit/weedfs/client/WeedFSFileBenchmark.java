@@ -0,0 +1,55 @@
+package com.scoopit.weedfs.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fid parsing. {@link WeedFSFile} caches what it parsed, so every invocation parses a new instance; the cached variants
+ * show what a second call costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeedFSFileBenchmark {
+
+    private final String fid = "1234,01637037d6";
+
+    private final WeedFSFile parsed = new WeedFSFile(fid);
+
+    {
+        parsed.getVolumeId();
+        parsed.getCookie();
+    }
+
+    @Benchmark
+    public long volumeId() {
+        return new WeedFSFile(fid).getVolumeId();
+    }
+
+    @Benchmark
+    public String cookie() {
+        return new WeedFSFile(fid).getCookie();
+    }
+
+    @Benchmark
+    public long cachedVolumeId() {
+        return parsed.getVolumeId();
+    }
+
+    @Benchmark
+    public String cachedCookie() {
+        return parsed.getCookie();
+    }
+}
@@ -38,6 +38,12 @@ public class Assignation {
     public Assignation() {
     }
 
+    public Assignation(WeedFSFile weedFSFile, Location location, int versionCount) {
+        this.weedFSFile = weedFSFile;
+        this.location = location;
+        this.versionCount = versionCount;
+    }
+
     public String getFid() {
         return weedFSFile.fid;
     }
@@ -0,0 +1,358 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.status.Layout;
+import com.scoopit.weedfs.client.status.MasterStatus;
+
+/**
+ * Pool of pre-assigned file ids.
+ * <p>
+ * Instead of calling <code>/dir/assign</code> for every write, the pool asks the master for <code>batchSize</code> file ids at once
+ * (using the <code>count</code> parameter) and hands out <code>fid</code>, <code>fid_1</code> ... <code>fid_N-1</code> one by one.
+ * Each (collection, replication) pair has its own pool which is refilled in the background as soon as it falls to
+ * <code>refillThreshold</code> remaining entries.
+ * <p>
+ * Every handed out {@link Assignation} targets a single file: its {@link WeedFSFile#version} is set and its version count is 1.
+ */
+public class AssignationPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AssignationPool.class);
+
+    private final WeedFSClient client;
+
+    private final int batchSize;
+
+    private final int refillThreshold;
+
+    private final ExecutorService refillExecutor;
+
+    private final boolean ownsExecutor;
+
+    private final ConcurrentHashMap<Key, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong totalRefillNanos = new AtomicLong();
+    private final AtomicLong maxRefillNanos = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AssignationPool(WeedFSClient client, int batchSize, int refillThreshold) {
+        this(client, batchSize, refillThreshold, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "weedfs-assignation-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        }), true);
+    }
+
+    public AssignationPool(WeedFSClient client, int batchSize, int refillThreshold, ExecutorService refillExecutor) {
+        this(client, batchSize, refillThreshold, refillExecutor, false);
+    }
+
+    private AssignationPool(WeedFSClient client, int batchSize, int refillThreshold, ExecutorService refillExecutor,
+            boolean ownsExecutor) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (refillThreshold < 0 || refillThreshold >= batchSize) {
+            throw new IllegalArgumentException("refillThreshold must be in [0, " + batchSize + "[: " + refillThreshold);
+        }
+        this.client = client;
+        this.batchSize = batchSize;
+        this.refillThreshold = refillThreshold;
+        this.refillExecutor = refillExecutor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    public Assignation take() throws IOException, WeedFSException {
+        return take(null, null);
+    }
+
+    public Assignation take(String collection, ReplicationStrategy replicationStrategy) throws IOException, WeedFSException {
+        Bucket bucket = getBucket(new Key(collection, replicationStrategy));
+
+        Assignation assignation = bucket.poll();
+        if (assignation != null) {
+            hits.incrementAndGet();
+            if (bucket.size.get() <= refillThreshold) {
+                scheduleRefill(bucket);
+            }
+            return assignation;
+        }
+
+        // pool is dry: assign synchronously, keep what we do not use right now
+        misses.incrementAndGet();
+        Assignation[] batch = fetch(bucket.key);
+        for (int i = 1; i < batch.length; i++) {
+            bucket.offer(batch[i]);
+        }
+        return batch[0];
+    }
+
+    /**
+     * Drops every pooled entry targeting the given volume, typically because it became read-only or full.
+     */
+    public void dropVolume(long volumeId) {
+        for (Bucket bucket : buckets.values()) {
+            bucket.removeIf(volumeId, null);
+        }
+    }
+
+    /**
+     * Drops every pooled entry whose volume is not listed as writable by the master anymore.
+     */
+    public void retainWritable(MasterStatus status) {
+        if (status == null || status.Topology == null || status.Topology.layouts == null) {
+            return;
+        }
+        for (Bucket bucket : buckets.values()) {
+            Set<Long> writables = new HashSet<>();
+            for (Layout layout : status.Topology.layouts) {
+                if (bucket.key.matches(layout) && layout.writables != null) {
+                    for (Integer volumeId : layout.writables) {
+                        writables.add(volumeId.longValue());
+                    }
+                }
+            }
+            bucket.removeIf(-1, writables);
+        }
+    }
+
+    /**
+     * Fetches master status and drops pooled entries whose volume is not writable anymore.
+     */
+    public void retainWritable() throws IOException {
+        retainWritable(client.getMasterStatus());
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getRefillCount() {
+        return refills.get();
+    }
+
+    public long getRefillFailureCount() {
+        return refillFailures.get();
+    }
+
+    public double getAverageRefillLatencyMillis() {
+        long n = refills.get();
+        return n == 0 ? 0 : totalRefillNanos.get() / (n * 1000000d);
+    }
+
+    public double getMaxRefillLatencyMillis() {
+        return maxRefillNanos.get() / 1000000d;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getPooledCount() {
+        int ret = 0;
+        for (Bucket bucket : buckets.values()) {
+            ret += bucket.size.get();
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            refillExecutor.shutdownNow();
+        }
+        buckets.clear();
+    }
+
+    private Bucket getBucket(Key key) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(key);
+            Bucket existing = buckets.putIfAbsent(key, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    private void scheduleRefill(final Bucket bucket) {
+        if (!bucket.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Assignation assignation : fetch(bucket.key)) {
+                            bucket.offer(assignation);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        refillFailures.incrementAndGet();
+                        log.warn("Unable to refill assignation pool for {}", bucket.key, e);
+                    } finally {
+                        bucket.refilling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            bucket.refilling.set(false);
+        }
+    }
+
+    private Assignation[] fetch(Key key) throws IOException, WeedFSException {
+        long start = System.nanoTime();
+        Assignation result = client.assign(new AssignParams(key.collection, batchSize, key.replicationStrategy));
+        long elapsed = System.nanoTime() - start;
+
+        refills.incrementAndGet();
+        totalRefillNanos.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = maxRefillNanos.get())) {
+            if (maxRefillNanos.compareAndSet(max, elapsed)) {
+                break;
+            }
+        }
+
+        int count = result.getVersionCount() > 0 ? Math.min(result.getVersionCount(), batchSize) : 1;
+        Assignation[] ret = new Assignation[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = new Assignation(new WeedFSFile(result.getFid(), i), result.location, 1);
+        }
+        return ret;
+    }
+
+    private final class Bucket {
+        final Key key;
+        final ConcurrentLinkedQueue<Assignation> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean refilling = new AtomicBoolean();
+
+        Bucket(Key key) {
+            this.key = key;
+        }
+
+        Assignation poll() {
+            Assignation ret = queue.poll();
+            if (ret != null) {
+                size.decrementAndGet();
+            }
+            return ret;
+        }
+
+        void offer(Assignation assignation) {
+            queue.offer(assignation);
+            size.incrementAndGet();
+        }
+
+        /**
+         * Removes entries on <code>volumeId</code>, or entries not on any of <code>writables</code> when it is not null.
+         */
+        void removeIf(long volumeId, Set<Long> writables) {
+            Iterator<Assignation> it = queue.iterator();
+            while (it.hasNext()) {
+                Assignation assignation = it.next();
+                long entryVolumeId = assignation.getVolumeId();
+                boolean remove = writables == null ? entryVolumeId == volumeId : !writables.contains(entryVolumeId);
+                if (remove && queue.remove(assignation)) {
+                    size.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static final class Key {
+        final String collection;
+        final ReplicationStrategy replicationStrategy;
+
+        Key(String collection, ReplicationStrategy replicationStrategy) {
+            this.collection = collection;
+            this.replicationStrategy = replicationStrategy;
+        }
+
+        boolean matches(Layout layout) {
+            String layoutCollection = layout.collection == null ? "" : layout.collection;
+            if (!layoutCollection.equals(collection == null ? "" : collection)) {
+                return false;
+            }
+            return replicationStrategy == null || replicationStrategy.parameterValue.equals(layout.replication);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (collection != null ? !collection.equals(key.collection) : key.collection != null) return false;
+            return replicationStrategy == key.replicationStrategy;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = collection != null ? collection.hashCode() : 0;
+            result = 31 * result + (replicationStrategy != null ? replicationStrategy.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "[collection=" + collection + ", replication=" + replicationStrategy + "]";
+        }
+    }
+}
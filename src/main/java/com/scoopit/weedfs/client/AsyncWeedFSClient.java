@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.scoopit.weedfs.client.status.MasterStatus;
+import com.scoopit.weedfs.client.status.VolumeStatus;
+
+/**
+ * Non blocking counterpart of {@link WeedFSClient}, running on an NIO event loop.
+ * <p>
+ * Futures are completed from the I/O threads, so dependent stages must not block: chain them with
+ * <code>thenCompose</code> (e.g. assign then write, lookup then read) or hand them to an executor with the
+ * <code>*Async</code> variants. Failures complete the future exceptionally with the same exceptions the blocking client
+ * throws ({@link WeedFSException}, {@link WeedFSFileNotFoundException}, {@link IOException}).
+ * <p>
+ * Read bodies are fully buffered in memory before the future completes.
+ */
+public interface AsyncWeedFSClient extends Closeable {
+
+    CompletableFuture<Assignation> assign(AssignParams params);
+
+    CompletableFuture<Integer> write(WeedFSFile file, Location location, File fileToUpload);
+
+    CompletableFuture<Integer> write(WeedFSFile file, Location location, byte[] dataToUpload, String fileName);
+
+    CompletableFuture<Void> delete(WeedFSFile file, Location location);
+
+    CompletableFuture<List<Location>> lookup(long volumeId);
+
+    CompletableFuture<InputStream> read(WeedFSFile file, Location location);
+
+    /**
+     * Looks the volume of <code>file</code> up and reads it from the first location.
+     */
+    CompletableFuture<InputStream> read(WeedFSFile file);
+
+    CompletableFuture<MasterStatus> getMasterStatus();
+
+    CompletableFuture<VolumeStatus> getVolumeStatus(Location location);
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+import com.scoopit.weedfs.client.caching.BlobCache;
+import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.net.AssignResult;
+import com.scoopit.weedfs.client.net.LookupResult;
+import com.scoopit.weedfs.client.net.WriteResult;
+import com.scoopit.weedfs.client.status.MasterStatus;
+import com.scoopit.weedfs.client.status.VolumeStatus;
+
+class AsyncWeedFSClientImpl implements AsyncWeedFSClient {
+
+    final URL masterURL;
+    final CloseableHttpAsyncClient httpClient;
+    final boolean ownsHttpClient;
+    final LookupCache lookupCache;
+    final BlobCache blobCache;
+
+    AsyncWeedFSClientImpl(URL masterURL, CloseableHttpAsyncClient httpClient, boolean ownsHttpClient, LookupCache lookupCache,
+            BlobCache blobCache) {
+        this.masterURL = masterURL;
+        this.httpClient = httpClient;
+        this.ownsHttpClient = ownsHttpClient;
+        this.lookupCache = lookupCache;
+        this.blobCache = blobCache;
+        if (!httpClient.isRunning()) {
+            httpClient.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Assignation> assign(AssignParams params) {
+        return execute(() -> new HttpGet(WeedFSClientImpl.assignUrl(masterURL, params)), response -> {
+            AssignResult result = JsonResponses.read(JsonResponses.ASSIGN, response);
+
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
+
+            return new Assignation(result);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> write(WeedFSFile file, Location location, File fileToUpload) {
+        if (fileToUpload.length() == 0) {
+            return failed(new WeedFSException("Cannot write a 0-length file"));
+        }
+        return write(file, location, new MultipartAsyncEntity(fileToUpload, WeedFSClientImpl.sanitizeFileName(fileToUpload.getName())));
+    }
+
+    @Override
+    public CompletableFuture<Integer> write(WeedFSFile file, Location location, byte[] dataToUpload, String fileName) {
+        if (dataToUpload.length == 0) {
+            return failed(new WeedFSException("Cannot write a 0-length data"));
+        }
+        return write(file, location, new MultipartAsyncEntity(dataToUpload, WeedFSClientImpl.sanitizeFileName(fileName)));
+    }
+
+    private CompletableFuture<Integer> write(WeedFSFile file, Location location, MultipartAsyncEntity entity) {
+        return execute(() -> {
+            HttpPost post = new HttpPost(WeedFSClientImpl.fileUrl(location, file));
+            post.setEntity(entity);
+            return post;
+        }, response -> {
+            WriteResult result = JsonResponses.read(JsonResponses.WRITE, response);
+
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
+
+            invalidate(file);
+            return result.size;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(WeedFSFile file, Location location) {
+        return execute(() -> new HttpDelete(WeedFSClientImpl.fileUrl(location, file)), response -> {
+            StatusLine line = response.getStatusLine();
+            if (line.getStatusCode() < 200 || line.getStatusCode() > 299) {
+                throw new WeedFSException("Error deleting file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
+                        + line.getReasonPhrase(), EntityUtils.toString(response.getEntity(), "UTF-8"));
+            }
+            invalidate(file);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Location>> lookup(long volumeId) {
+        if (lookupCache != null) {
+            List<Location> ret = lookupCache.lookup(volumeId);
+            if (ret != null) {
+                return CompletableFuture.completedFuture(ret);
+            }
+        }
+
+        return execute(() -> new HttpGet(WeedFSClientImpl.lookupUrl(masterURL, volumeId)), response -> {
+            LookupResult result = JsonResponses.read(JsonResponses.LOOKUP, response);
+
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
+
+            if (lookupCache != null) {
+                lookupCache.setLocation(volumeId, result.locations);
+            }
+
+            return result.locations;
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> read(WeedFSFile file, Location location) {
+        return execute(() -> new HttpGet(WeedFSClientImpl.fileUrl(location, file)), response -> {
+            StatusLine line = response.getStatusLine();
+            if (line.getStatusCode() == 404) {
+                throw new WeedFSFileNotFoundException(file, location);
+            }
+            if (line.getStatusCode() != 200) {
+                throw new WeedFSException("Error reading file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
+                        + line.getReasonPhrase());
+            }
+            return response.getEntity().getContent();
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> read(WeedFSFile file) {
+        return lookup(file.getVolumeId()).thenCompose(locations -> {
+            if (locations == null || locations.isEmpty()) {
+                return failed(new WeedFSException("No location found for volume " + file.getVolumeId()));
+            }
+            return read(file, locations.get(0));
+        });
+    }
+
+    @Override
+    public CompletableFuture<MasterStatus> getMasterStatus() {
+        return execute(() -> new HttpGet(new URL(masterURL, "/dir/status").toString()), response -> {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Not 200 status recieved for master status url: " + new URL(masterURL, "/dir/status"));
+            }
+            return JsonResponses.read(JsonResponses.MASTER_STATUS, response);
+        });
+    }
+
+    @Override
+    public CompletableFuture<VolumeStatus> getVolumeStatus(Location location) {
+        String url = WeedFSClientImpl.volumeServerUrl(location) + "/status";
+        return execute(() -> new HttpGet(url), response -> {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Not 200 status recieved for master status url: " + url);
+            }
+            return JsonResponses.read(JsonResponses.VOLUME_STATUS, response);
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsHttpClient) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Drops the copy of an overwritten or deleted file from the blob cache shared with blocking clients.
+     */
+    private void invalidate(WeedFSFile file) {
+        if (blobCache != null) {
+            blobCache.invalidate(file);
+        }
+    }
+
+    /**
+     * Sends the request and maps the buffered response from the I/O thread. Cancelling the returned future aborts the
+     * request.
+     */
+    private <T> CompletableFuture<T> execute(RequestFactory requestFactory, ResponseHandler<T> handler) {
+        HttpUriRequest request;
+        try {
+            request = requestFactory.create();
+        } catch (IOException e) {
+            return failed(e);
+        }
+
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        Future<HttpResponse> future = httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    ret.complete(handler.handleResponse(response));
+                } catch (IOException | RuntimeException e) {
+                    ret.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                ret.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                ret.cancel(false);
+            }
+        });
+        ret.whenComplete((result, error) -> {
+            if (ret.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return ret;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        ret.completeExceptionally(t);
+        return ret;
+    }
+
+    private interface RequestFactory {
+        HttpUriRequest create() throws IOException;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+/**
+ * Outcome of the deletion of one file by {@link WeedFSClient#deleteAll(java.util.Collection)}.
+ */
+public class DeleteResult {
+
+    public final WeedFSFile file;
+
+    /**
+     * Volume server the deletion was sent to, null if the volume could not be looked up.
+     */
+    public final Location location;
+
+    /**
+     * Http status for this file, -1 if the volume server could not be reached.
+     */
+    public final int status;
+
+    public final String error;
+
+    DeleteResult(WeedFSFile file, Location location, int status, String error) {
+        this.file = file;
+        this.location = location;
+        this.status = status;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return status >= 200 && status <= 299;
+    }
+
+    /**
+     * @return whether the file did not exist, which cleanup jobs usually count as deleted
+     */
+    public boolean isNotFound() {
+        return status == 404;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteResult [file=" + file + ", location=" + location + ", status=" + status + ", error=" + error + "]";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when {@link WeedFSClient#read(WeedFSFile)} sends a second, hedge request to another replica.
+ * <p>
+ * The hedge is sent when the first replica has not answered with headers after a delay, either fixed or a percentile of
+ * recent read latencies. Hedges are capped by a budget: at most <code>maxHedgeRatio</code> extra requests per read.
+ */
+public class HedgingPolicy {
+
+    private static final int WINDOW = 1024;
+
+    private static final int RECOMPUTE_EVERY = 128;
+
+    private final long fixedDelayNanos;
+
+    private final double percentile;
+
+    private final long minDelayNanos;
+
+    private final double maxHedgeRatio;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    private volatile long percentileDelayNanos = Long.MAX_VALUE;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    private HedgingPolicy(long fixedDelayNanos, double percentile, long minDelayNanos, double maxHedgeRatio) {
+        if (maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+            throw new IllegalArgumentException("maxHedgeRatio must be in [0, 1]: " + maxHedgeRatio);
+        }
+        this.fixedDelayNanos = fixedDelayNanos;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    /**
+     * Hedges reads which did not get headers after <code>delay</code>.
+     */
+    public static HedgingPolicy fixedDelay(long delay, TimeUnit unit, double maxHedgeRatio) {
+        return new HedgingPolicy(unit.toNanos(delay), -1, 0, maxHedgeRatio);
+    }
+
+    /**
+     * Hedges reads slower than the given percentile (e.g. 0.95) of the last reads, but never before <code>minDelay</code>. No
+     * hedge is sent until enough reads have been measured.
+     */
+    public static HedgingPolicy percentile(double percentile, long minDelay, TimeUnit unit, double maxHedgeRatio) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be in ]0, 1[: " + percentile);
+        }
+        return new HedgingPolicy(-1, percentile, unit.toNanos(minDelay), maxHedgeRatio);
+    }
+
+    /**
+     * @return how long to wait for the first replica before hedging
+     */
+    public long getDelayNanos() {
+        return fixedDelayNanos >= 0 ? fixedDelayNanos : percentileDelayNanos;
+    }
+
+    void onRequest() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * @return whether the budget allows one more hedge, which is then accounted
+     */
+    boolean tryHedge() {
+        while (true) {
+            long current = hedges.get();
+            if (current + 1 > maxHedgeRatio * requests.get()) {
+                budgetExhausted.increment();
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void onHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    void recordLatency(long latencyNanos) {
+        if (fixedDelayNanos >= 0) {
+            return;
+        }
+        long n = sampleCount.getAndIncrement();
+        samples.set((int) (n % WINDOW), latencyNanos);
+        if ((n + 1) % RECOMPUTE_EVERY == 0 && n + 1 >= WINDOW / 4) {
+            int size = (int) Math.min(n + 1, WINDOW);
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            percentileDelayNanos = Math.max(minDelayNanos, sorted[(int) (percentile * (size - 1))]);
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of reads answered by the hedge request rather than the first one
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return the number of hedges not sent because the budget was exhausted
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.sum();
+    }
+}
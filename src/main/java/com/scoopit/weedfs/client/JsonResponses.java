@@ -0,0 +1,238 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.scoopit.weedfs.client.net.AssignResult;
+import com.scoopit.weedfs.client.net.BatchDeleteResult;
+import com.scoopit.weedfs.client.net.ChunkManifest;
+import com.scoopit.weedfs.client.net.LookupResult;
+import com.scoopit.weedfs.client.net.WriteResult;
+import com.scoopit.weedfs.client.status.ClusterStatus;
+import com.scoopit.weedfs.client.status.MasterStatus;
+import com.scoopit.weedfs.client.status.VolumeStatus;
+
+/**
+ * Shared JSON readers for master and volume server responses.
+ * <p>
+ * {@link ObjectReader}s are immutable and thread safe, so they are built once and decode straight from the response stream.
+ * A parse failure reports the first bytes of the body. They are read again from the stream when it supports
+ * {@link InputStream#mark(int)}, otherwise they are copied on failure from the buffer the parser read them to, so
+ * successful responses neither copy nor allocate anything for this.
+ */
+final class JsonResponses {
+
+    private static final int CAPTURED_BYTES = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final ObjectReader ASSIGN = MAPPER.reader(AssignResult.class);
+
+    static final ObjectReader LOOKUP = MAPPER.reader(LookupResult.class);
+
+    static final ObjectReader WRITE = MAPPER.reader(WriteResult.class);
+
+    static final ObjectReader MASTER_STATUS = MAPPER.reader(MasterStatus.class);
+
+    static final ObjectReader CLUSTER_STATUS = MAPPER.reader(ClusterStatus.class);
+
+    static final ObjectReader VOLUME_STATUS = MAPPER.reader(VolumeStatus.class);
+
+    static final ObjectReader BATCH_DELETE = MAPPER.reader(BatchDeleteResult[].class);
+
+    static final ObjectReader CHUNK_MANIFEST = MAPPER.reader(ChunkManifest.class);
+
+    static final ObjectWriter WRITER = MAPPER.writer();
+
+    private static final ThreadLocal<HeadTrackingInputStream> TRACKING = new ThreadLocal<HeadTrackingInputStream>() {
+        @Override
+        protected HeadTrackingInputStream initialValue() {
+            return new HeadTrackingInputStream();
+        }
+    };
+
+    private JsonResponses() {
+    }
+
+    static <T> T read(ObjectReader reader, HttpResponse response) throws IOException, WeedFSException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new WeedFSException("Empty response from weed-fs: " + response.getStatusLine());
+        }
+        return read(reader, entity.getContent());
+    }
+
+    static <T> T read(ObjectReader reader, InputStream content) throws IOException, WeedFSException {
+        if (content.markSupported()) {
+            content.mark(CAPTURED_BYTES);
+            try (InputStream in = content) {
+                try {
+                    return reader.readValue(in);
+                } catch (JsonProcessingException e) {
+                    throw new WeedFSException("Unable to parse JSON from weed-fs from: " + head(in), e);
+                }
+            }
+        }
+
+        HeadTrackingInputStream in = TRACKING.get();
+        in.reset(content);
+        try {
+            return reader.readValue(in);
+        } catch (JsonProcessingException e) {
+            throw new WeedFSException("Unable to parse JSON from weed-fs from: " + in.head(), e);
+        } finally {
+            in.release();
+        }
+    }
+
+    private static String head(InputStream in) {
+        try {
+            in.reset();
+        } catch (IOException e) {
+            // the parser read past the mark, the start of the body is gone
+            return "<unavailable>";
+        }
+        byte[] head = new byte[CAPTURED_BYTES];
+        int length = 0;
+        boolean truncated = false;
+        try {
+            int n;
+            while (length < CAPTURED_BYTES && (n = in.read(head, length, CAPTURED_BYTES - length)) != -1) {
+                length += n;
+            }
+            truncated = length == CAPTURED_BYTES && in.read() != -1;
+        } catch (IOException e) {
+            truncated = true;
+        }
+        String ret = new String(head, 0, length, UTF8);
+        return truncated ? ret + "..." : ret;
+    }
+
+    /**
+     * Remembers where the first bytes read through it went, without copying them. The parser reads the body into its own
+     * buffer, which still holds the first bytes when it fails, unless it had to refill the buffer from its start. Instances
+     * are reused by their thread for every response, parsing never reads from two responses at once on the same thread.
+     */
+    private static final class HeadTrackingInputStream extends FilterInputStream {
+
+        private byte[] headBuffer;
+
+        private int headOffset;
+
+        private int headLength;
+
+        private boolean lost;
+
+        private boolean truncated;
+
+        HeadTrackingInputStream() {
+            super(null);
+        }
+
+        void reset(InputStream content) {
+            in = content;
+            headBuffer = null;
+            headLength = 0;
+            lost = false;
+            truncated = false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                // a single byte is not kept anywhere
+                lost |= headBuffer == null;
+                truncated = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                if (headBuffer == null && !lost) {
+                    headBuffer = b;
+                    headOffset = off;
+                    headLength = n;
+                } else if (b == headBuffer && off == headOffset + headLength && !truncated) {
+                    headLength += n;
+                } else {
+                    lost |= b == headBuffer && off < headOffset + headLength && off + n > headOffset;
+                    truncated = true;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Keeps track of the head: the parser closes the stream before its failure is caught.
+         */
+        @Override
+        public void close() throws IOException {
+            InputStream content = in;
+            in = null;
+            if (content != null) {
+                content.close();
+            }
+        }
+
+        /**
+         * Closes the stream and stops referencing the buffer of the parser.
+         */
+        void release() throws IOException {
+            try {
+                close();
+            } finally {
+                headBuffer = null;
+            }
+        }
+
+        /**
+         * Must be called right after the parser failed, before it parses anything else.
+         */
+        String head() {
+            if (headBuffer == null || lost) {
+                return "<unavailable>";
+            }
+            String ret = new String(headBuffer, headOffset, Math.min(headLength, CAPTURED_BYTES), UTF8);
+            return truncated || headLength > CAPTURED_BYTES ? ret + "..." : ret;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.net.ChunkManifest;
+import com.scoopit.weedfs.client.net.ChunkManifest.ChunkInfo;
+
+/**
+ * Streams back objects written by {@link LargeObjectWriter}.
+ * <p>
+ * The chunks listed by the manifest are read in order, <code>readAhead</code> of them being fetched in parallel ahead of
+ * the reader, which bounds memory to <code>readAhead</code> chunks per stream. A failed chunk is retried on its own,
+ * possibly on another replica.
+ */
+public class LargeObjectReader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LargeObjectReader.class);
+
+    private final WeedFSClient client;
+
+    private final int readAhead;
+
+    private final ExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private int maxAttempts = 3;
+
+    public LargeObjectReader(WeedFSClient client, int readAhead) {
+        this(client, readAhead, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "weedfs-chunk-download");
+            t.setDaemon(true);
+            return t;
+        }), true);
+    }
+
+    public LargeObjectReader(WeedFSClient client, int readAhead, ExecutorService executor) {
+        this(client, readAhead, executor, false);
+    }
+
+    private LargeObjectReader(WeedFSClient client, int readAhead, ExecutorService executor, boolean ownsExecutor) {
+        if (readAhead <= 0) {
+            throw new IllegalArgumentException("Expected a positive read ahead: " + readAhead);
+        }
+        this.client = client;
+        this.readAhead = readAhead;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @param maxAttempts number of times a chunk is read before giving up, 3 by default
+     */
+    public LargeObjectReader setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public ChunkManifest readManifest(WeedFSFile manifestFile) throws IOException {
+        List<Location> locations = client.lookup(manifestFile.getVolumeId());
+        if (locations == null || locations.isEmpty()) {
+            throw new WeedFSException("No location found for volume " + manifestFile.getVolumeId());
+        }
+        IOException last = null;
+        for (Location location : locations) {
+            try {
+                return client.readChunkManifest(manifestFile, location);
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    public InputStream open(WeedFSFile manifestFile) throws IOException {
+        return open(readManifest(manifestFile));
+    }
+
+    public InputStream open(ChunkManifest manifest) throws WeedFSException {
+        List<ChunkInfo> chunks = new ArrayList<>(manifest.chunks);
+        chunks.sort(Comparator.comparingLong((ChunkInfo c) -> c.offset));
+        long expected = 0;
+        for (ChunkInfo chunk : chunks) {
+            if (chunk.offset != expected) {
+                throw new WeedFSException("Chunk manifest of " + manifest.name + " has no chunk at offset " + expected);
+            }
+            expected += chunk.size;
+        }
+        return new ChunkedInputStream(chunks);
+    }
+
+    private byte[] readChunk(ChunkInfo chunk) throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            try (InputStream in = client.read(new WeedFSFile(chunk.fid))) {
+                byte[] ret = new byte[(int) chunk.size];
+                int length = 0;
+                while (length < ret.length) {
+                    int n = in.read(ret, length, ret.length - length);
+                    if (n == -1) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != ret.length || in.read() != -1) {
+                    throw new WeedFSException("Chunk " + chunk.fid + " is not " + chunk.size + " bytes long");
+                }
+                return ret;
+            } catch (IOException e) {
+                last = e;
+                log.debug("Unable to read chunk {}, attempt {}", chunk.fid, attempt + 1, e);
+            }
+        }
+        throw last;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private class ChunkedInputStream extends InputStream {
+
+        private final List<ChunkInfo> chunks;
+
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+        private int nextChunk;
+
+        private byte[] current = new byte[0];
+
+        private int position;
+
+        private boolean closed;
+
+        ChunkedInputStream(List<ChunkInfo> chunks) {
+            this.chunks = chunks;
+            fill();
+        }
+
+        private void fill() {
+            while (pending.size() < readAhead && nextChunk < chunks.size()) {
+                final ChunkInfo chunk = chunks.get(nextChunk++);
+                pending.add(executor.submit(() -> readChunk(chunk)));
+            }
+        }
+
+        /**
+         * @return false at the end of the object
+         */
+        private boolean ensureAvailable() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (position == current.length) {
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return false;
+                }
+                fill();
+                try {
+                    current = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading chunk");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensureAvailable() ? current[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureAvailable()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                for (Future<byte[]> future : pending) {
+                    future.cancel(true);
+                }
+                pending.clear();
+            }
+        }
+    }
+}
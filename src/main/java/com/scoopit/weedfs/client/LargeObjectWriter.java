@@ -0,0 +1,256 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.net.ChunkManifest;
+import com.scoopit.weedfs.client.net.ChunkManifest.ChunkInfo;
+
+/**
+ * Uploads large objects as fixed size chunks, each with its own fid, and a SeaweedFS chunk manifest listing them.
+ * <p>
+ * Chunks are uploaded in parallel, but at most <code>parallelism</code> chunks are held in memory: reading the input
+ * stream waits for an upload to complete. A failed chunk is retried on a new assignation, other chunks are not affected.
+ * If a chunk still fails, chunks already uploaded are deleted. Read large objects back with {@link LargeObjectReader}, or
+ * directly from a volume server which concatenates the chunks.
+ */
+public class LargeObjectWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LargeObjectWriter.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private final WeedFSClient client;
+
+    private final AssignParams assignParams;
+
+    private final int chunkSize;
+
+    private final int parallelism;
+
+    private final ExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private int maxAttempts = 3;
+
+    public LargeObjectWriter(WeedFSClient client, AssignParams assignParams, int chunkSize, int parallelism) {
+        this(client, assignParams, chunkSize, parallelism, Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "weedfs-chunk-upload");
+            t.setDaemon(true);
+            return t;
+        }), true);
+    }
+
+    public LargeObjectWriter(WeedFSClient client, AssignParams assignParams, int chunkSize, int parallelism, ExecutorService executor) {
+        this(client, assignParams, chunkSize, parallelism, executor, false);
+    }
+
+    private LargeObjectWriter(WeedFSClient client, AssignParams assignParams, int chunkSize, int parallelism, ExecutorService executor,
+            boolean ownsExecutor) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Expected positive chunk size and parallelism: " + chunkSize + ", " + parallelism);
+        }
+        this.client = client;
+        // one fid per chunk, whatever the version count asked for
+        this.assignParams = new AssignParams(assignParams.collection, 1, assignParams.replicationStrategy);
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @param maxAttempts number of times a chunk or the manifest is tried before giving up, 3 by default
+     */
+    public LargeObjectWriter setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Uploads the content of <code>in</code>, which is not closed.
+     *
+     * @return the file of the manifest, to be read and deleted as any other file
+     */
+    public WeedFSFile write(InputStream in, String name, String mimeType) throws IOException {
+        final Semaphore permits = new Semaphore(parallelism);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Future<ChunkInfo>> futures = new ArrayList<>();
+        List<ChunkInfo> chunks = new ArrayList<>();
+        long size = 0;
+        try {
+            while (failure.get() == null) {
+                permits.acquire();
+                byte[] chunk = readChunk(in);
+                if (chunk == null) {
+                    permits.release();
+                    break;
+                }
+                final long offset = size;
+                final String chunkName = name + "-" + futures.size();
+                size += chunk.length;
+                futures.add(executor.submit(() -> {
+                    try {
+                        return uploadChunk(chunk, offset, chunkName);
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<ChunkInfo> future : futures) {
+                try {
+                    chunks.add(future.get());
+                } catch (ExecutionException e) {
+                    // wait for the other uploads, to delete what they wrote
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            throw new InterruptedIOException("Interrupted while uploading " + name);
+        } catch (IOException | RuntimeException e) {
+            // reading the input failed
+            cancel(futures);
+            deleteChunks(completed(futures));
+            throw e;
+        }
+
+        if (failure.get() != null) {
+            deleteChunks(chunks);
+            throw new WeedFSException("Unable to upload a chunk of " + name, failure.get());
+        }
+
+        ChunkManifest manifest = new ChunkManifest();
+        manifest.name = name;
+        manifest.mime = mimeType;
+        manifest.size = size;
+        manifest.chunks = chunks;
+
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            try {
+                Assignation a = client.assign(assignParams);
+                client.writeChunkManifest(a.weedFSFile, a.location, manifest);
+                return a.weedFSFile;
+            } catch (IOException e) {
+                last = e;
+                log.debug("Unable to write chunk manifest of {}", name, e);
+            }
+        }
+        deleteChunks(chunks);
+        throw last;
+    }
+
+    /**
+     * @return the next chunk, shorter than the chunk size only at the end of the stream, or null if the stream is exhausted
+     */
+    private byte[] readChunk(InputStream in) throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        int length = 0;
+        while (length < chunkSize) {
+            int n = in.read(chunk, length, chunkSize - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return length == chunkSize ? chunk : Arrays.copyOf(chunk, length);
+    }
+
+    private ChunkInfo uploadChunk(byte[] chunk, long offset, String chunkName) throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            try {
+                // a new assignation, in case the volume of the previous one is the problem
+                Assignation a = client.assign(assignParams);
+                client.write(a.weedFSFile, a.location, chunk, chunkName);
+                return new ChunkInfo(a.weedFSFile.fid, offset, chunk.length);
+            } catch (IOException e) {
+                last = e;
+                log.debug("Unable to upload chunk {}, attempt {}", chunkName, attempt + 1, e);
+            }
+        }
+        throw last;
+    }
+
+    private void deleteChunks(List<ChunkInfo> chunks) {
+        for (ChunkInfo chunk : chunks) {
+            WeedFSFile file = new WeedFSFile(chunk.fid);
+            try {
+                List<Location> locations = client.lookup(file.getVolumeId());
+                if (locations != null && !locations.isEmpty()) {
+                    client.delete(file, locations.get(0));
+                }
+            } catch (IOException e) {
+                log.warn("Unable to delete chunk {} of a failed upload", chunk.fid, e);
+            }
+        }
+    }
+
+    private static List<ChunkInfo> completed(List<Future<ChunkInfo>> futures) {
+        List<ChunkInfo> ret = new ArrayList<>();
+        for (Future<ChunkInfo> future : futures) {
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    ret.add(future.get());
+                } catch (ExecutionException | InterruptedException e) {
+                    // not uploaded
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+}
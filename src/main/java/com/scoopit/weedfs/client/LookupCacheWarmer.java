@@ -0,0 +1,216 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.status.DataNode;
+import com.scoopit.weedfs.client.status.MasterStatus;
+import com.scoopit.weedfs.client.status.Volume;
+import com.scoopit.weedfs.client.status.VolumeStatus;
+
+/**
+ * Loads the location of every volume of the cluster into a {@link LookupCache}, so that a freshly started client does
+ * not have to look volumes up one by one.
+ * <p>
+ * The master topology gives the data nodes, whose <code>/status</code> are fetched in parallel to know which volumes
+ * they hold. {@link #schedule(long, TimeUnit)} repeats this as a full resync: volumes which disappeared from the cluster are
+ * invalidated, unless some data node could not be reached.
+ */
+public class LookupCacheWarmer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LookupCacheWarmer.class);
+
+    private final WeedFSClient client;
+
+    private final LookupCache lookupCache;
+
+    private final ExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private ScheduledExecutorService scheduler;
+
+    private Set<Long> loadedVolumes = new HashSet<>();
+
+    private volatile WarmUpResult lastResult;
+
+    public LookupCacheWarmer(WeedFSClient client, LookupCache lookupCache, int parallelism) {
+        this(client, lookupCache, Executors.newFixedThreadPool(parallelism, daemonThreads("weedfs-lookup-warmer")), true);
+    }
+
+    public LookupCacheWarmer(WeedFSClient client, LookupCache lookupCache, ExecutorService executor) {
+        this(client, lookupCache, executor, false);
+    }
+
+    private LookupCacheWarmer(WeedFSClient client, LookupCache lookupCache, ExecutorService executor, boolean ownsExecutor) {
+        this.client = client;
+        this.lookupCache = lookupCache;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    public synchronized WarmUpResult warmUp() throws IOException {
+        long start = System.nanoTime();
+
+        MasterStatus status = client.getMasterStatus();
+        List<DataNode> dataNodes = status.Topology != null ? status.Topology.getDataNodes() : new ArrayList<DataNode>();
+
+        List<Future<VolumeStatus>> futures = new ArrayList<>(dataNodes.size());
+        for (final DataNode node : dataNodes) {
+            futures.add(executor.submit(() -> client.getVolumeStatus(node.asLocation())));
+        }
+
+        Map<Long, List<Location>> locationsByVolume = new HashMap<>();
+        int failedDataNodes = 0;
+        for (int i = 0; i < dataNodes.size(); i++) {
+            Location location = dataNodes.get(i).asLocation();
+            VolumeStatus volumeStatus;
+            try {
+                volumeStatus = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while warming lookup cache up");
+            } catch (ExecutionException e) {
+                failedDataNodes++;
+                log.warn("Unable to get volume status of {}", location, e.getCause());
+                continue;
+            }
+            if (volumeStatus.Volumes == null) {
+                continue;
+            }
+            for (Volume volume : volumeStatus.Volumes) {
+                List<Location> locations = locationsByVolume.get((long) volume.Id);
+                if (locations == null) {
+                    locations = new ArrayList<>();
+                    locationsByVolume.put((long) volume.Id, locations);
+                }
+                locations.add(location);
+            }
+        }
+
+        lookupCache.setLocations(locationsByVolume);
+
+        int invalidated = 0;
+        if (failedDataNodes == 0) {
+            for (Long volumeId : loadedVolumes) {
+                if (!locationsByVolume.containsKey(volumeId)) {
+                    lookupCache.invalidate(volumeId);
+                    invalidated++;
+                }
+            }
+        }
+        loadedVolumes = new HashSet<>(locationsByVolume.keySet());
+
+        WarmUpResult result = new WarmUpResult(locationsByVolume.size(), invalidated, dataNodes.size(), failedDataNodes,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastResult = result;
+        log.info("Lookup cache warm up: {}", result);
+        return result;
+    }
+
+    /**
+     * Runs {@link #warmUp()} now and then periodically.
+     */
+    public synchronized void schedule(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Warm up already scheduled");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("weedfs-lookup-resync"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                warmUp();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to resync lookup cache", e);
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * @return the result of the last successful warm up, or null
+     */
+    public WarmUpResult getLastResult() {
+        return lastResult;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public static class WarmUpResult {
+
+        public final int volumeCount;
+
+        public final int invalidatedVolumeCount;
+
+        public final int dataNodeCount;
+
+        public final int failedDataNodeCount;
+
+        public final long durationMillis;
+
+        WarmUpResult(int volumeCount, int invalidatedVolumeCount, int dataNodeCount, int failedDataNodeCount, long durationMillis) {
+            this.volumeCount = volumeCount;
+            this.invalidatedVolumeCount = invalidatedVolumeCount;
+            this.dataNodeCount = dataNodeCount;
+            this.failedDataNodeCount = failedDataNodeCount;
+            this.durationMillis = durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "WarmUpResult [volumeCount=" + volumeCount + ", invalidatedVolumeCount=" + invalidatedVolumeCount + ", dataNodeCount="
+                    + dataNodeCount + ", failedDataNodeCount=" + failedDataNodeCount + ", durationMillis=" + durationMillis + "]";
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the masters of the cluster: which one is the leader, and which ones recently failed.
+ * <p>
+ * Assignations go to the leader. Lookups are spread round robin over the followers, the leader being asked last, so that
+ * the leader is spared the read traffic. Masters which failed are tried last for a short while.
+ */
+class MasterTracker {
+
+    static final long DOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final List<URL> masters;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Keyed by {@link #key(URL)}: {@link URL#equals(Object)} resolves host names.
+     */
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+
+    private volatile URL leader;
+
+    MasterTracker(List<URL> masters) {
+        if (masters.isEmpty()) {
+            throw new IllegalArgumentException("No master url");
+        }
+        this.masters = Collections.unmodifiableList(new ArrayList<>(masters));
+        this.leader = masters.get(0);
+    }
+
+    List<URL> getMasters() {
+        return masters;
+    }
+
+    int size() {
+        return masters.size();
+    }
+
+    URL getLeader() {
+        return leader;
+    }
+
+    /**
+     * @param leader replaced by the configured url of the same master, if any
+     */
+    void setLeader(URL leader) {
+        String key = key(leader);
+        for (URL master : masters) {
+            if (key(master).equals(key)) {
+                leader = master;
+                break;
+            }
+        }
+        this.leader = leader;
+        downUntil.remove(key);
+    }
+
+    /**
+     * @return every master, followers first starting with the next one in turn, then the leader, then the masters which
+     *         recently failed
+     */
+    List<URL> readOrder() {
+        int size = masters.size();
+        if (size == 1) {
+            return masters;
+        }
+        URL currentLeader = leader;
+        String leaderKey = key(currentLeader);
+        List<URL> followers = new ArrayList<>(size);
+        for (URL master : masters) {
+            if (!key(master).equals(leaderKey)) {
+                followers.add(master);
+            }
+        }
+        List<URL> ret = new ArrayList<>(size + 1);
+        List<URL> down = null;
+        int start = Math.floorMod(next.getAndIncrement(), followers.size());
+        for (int i = 0; i < followers.size(); i++) {
+            URL master = followers.get((start + i) % followers.size());
+            if (isDown(master)) {
+                if (down == null) {
+                    down = new ArrayList<>();
+                }
+                down.add(master);
+            } else {
+                ret.add(master);
+            }
+        }
+        if (isDown(currentLeader)) {
+            if (down == null) {
+                down = new ArrayList<>();
+            }
+            down.add(currentLeader);
+        } else {
+            ret.add(currentLeader);
+        }
+        if (down != null) {
+            ret.addAll(down);
+        }
+        return ret;
+    }
+
+    void onSuccess(URL master) {
+        if (!downUntil.isEmpty()) {
+            downUntil.remove(key(master));
+        }
+    }
+
+    void onFailure(URL master) {
+        downUntil.put(key(master), System.nanoTime() + DOWN_NANOS);
+    }
+
+    boolean isDown(URL master) {
+        Long until = downUntil.get(key(master));
+        return until != null && until - System.nanoTime() > 0;
+    }
+
+    /**
+     * @return the first configured master which did not recently fail, the current leader if all did
+     */
+    URL firstUp() {
+        for (URL master : masters) {
+            if (!isDown(master)) {
+                return master;
+            }
+        }
+        return leader;
+    }
+
+    static String key(URL master) {
+        return master.getHost().toLowerCase() + ":" + (master.getPort() == -1 ? master.getDefaultPort() : master.getPort());
+    }
+}
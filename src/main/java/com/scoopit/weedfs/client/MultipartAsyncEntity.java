@@ -0,0 +1,266 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Single part <code>multipart/form-data</code> body produced without blocking the I/O reactor.
+ * <p>
+ * {@link org.apache.http.entity.mime.MultipartEntityBuilder} entities can only be streamed through an
+ * {@link OutputStream}, which the async client cannot do for bodies over a few kilobytes. This entity writes the part
+ * header, then the payload straight from the byte array or the file channel (using zero copy transfers when the
+ * connection allows it), then the closing boundary. The part is the one the blocking client builds in
+ * {@link org.apache.http.entity.mime.HttpMultipartMode#RFC6532} mode: a UTF-8 encoded header with the file name escaped
+ * the same way.
+ * <p>
+ * A file is expected to keep the length it had when the entity was created: the request fails if it gets shorter,
+ * bytes appended meanwhile are not sent.
+ */
+class MultipartAsyncEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer header;
+
+    private final ByteBuffer trailer;
+
+    private final byte[] data;
+
+    private final File file;
+
+    private final long payloadLength;
+
+    private ByteBuffer dataBuffer;
+
+    private FileChannel fileChannel;
+
+    private ByteBuffer fileBuffer;
+
+    private long filePosition;
+
+    MultipartAsyncEntity(byte[] data, String fileName) {
+        this(data, null, data.length, fileName);
+    }
+
+    MultipartAsyncEntity(File file, String fileName) {
+        this(null, file, file.length(), fileName);
+    }
+
+    private MultipartAsyncEntity(byte[] data, File file, long payloadLength, String fileName) {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        this.header = ByteBuffer.wrap(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + escape(fileName) + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Transfer-Encoding: binary\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8));
+        this.trailer = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        this.data = data;
+        this.file = file;
+        this.payloadLength = payloadLength;
+        setContentType("multipart/form-data; boundary=" + boundary);
+    }
+
+    /**
+     * Escapes a quoted header parameter as {@link org.apache.http.entity.mime.FormBodyPartBuilder} does.
+     */
+    static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\r') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+        if (header.hasRemaining()) {
+            encoder.write(header);
+            if (header.hasRemaining()) {
+                return;
+            }
+        }
+        if (data != null) {
+            if (dataBuffer == null) {
+                dataBuffer = ByteBuffer.wrap(data);
+            }
+            if (dataBuffer.hasRemaining()) {
+                encoder.write(dataBuffer);
+                if (dataBuffer.hasRemaining()) {
+                    return;
+                }
+            }
+        } else if (filePosition < payloadLength) {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            if (encoder instanceof FileContentEncoder) {
+                long transferred = ((FileContentEncoder) encoder).transfer(fileChannel, filePosition, payloadLength - filePosition);
+                // nothing transferred either because the connection is busy or because the file ended
+                if (transferred == 0 && fileChannel.size() <= filePosition) {
+                    throw truncated();
+                }
+                filePosition += transferred;
+            } else {
+                if (fileBuffer == null) {
+                    fileBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    fileBuffer.flip();
+                }
+                if (!fileBuffer.hasRemaining()) {
+                    fileBuffer.clear();
+                    fileBuffer.limit((int) Math.min(CHUNK_SIZE, payloadLength - filePosition));
+                    if (fileChannel.read(fileBuffer, filePosition) == -1) {
+                        throw truncated();
+                    }
+                    fileBuffer.flip();
+                }
+                int written = encoder.write(fileBuffer);
+                filePosition += written;
+            }
+            if (filePosition < payloadLength) {
+                return;
+            }
+        }
+        encoder.write(trailer);
+        if (!trailer.hasRemaining()) {
+            encoder.complete();
+            close();
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return header.capacity() + payloadLength + trailer.capacity();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream payload = data != null ? new ByteArrayInputStream(data) : new BoundedFileInputStream();
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(new ByteArrayInputStream(header.array()), payload,
+                new ByteArrayInputStream(trailer.array()))));
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        outstream.write(header.array());
+        if (data != null) {
+            outstream.write(data);
+        } else {
+            try (InputStream in = new BoundedFileInputStream()) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    outstream.write(buffer, 0, n);
+                }
+            }
+        }
+        outstream.write(trailer.array());
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        header.rewind();
+        trailer.rewind();
+        dataBuffer = null;
+        fileBuffer = null;
+        filePosition = 0;
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+
+    private EOFException truncated() {
+        return new EOFException("File " + file + " is shorter than the " + payloadLength + " bytes announced");
+    }
+
+    /**
+     * Stream of the first <code>payloadLength</code> bytes of the file, failing if it gets shorter.
+     */
+    private final class BoundedFileInputStream extends InputStream {
+
+        private final InputStream in;
+
+        private long remaining = payloadLength;
+
+        BoundedFileInputStream() throws IOException {
+            this.in = Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw truncated();
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
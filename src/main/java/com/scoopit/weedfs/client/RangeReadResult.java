@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response to a byte range read. Close it, or its content, when done: an early close aborts the transfer of the rest of
+ * the range rather than draining it.
+ */
+public class RangeReadResult implements Closeable {
+
+    private final InputStream content;
+
+    private final long offset;
+
+    private final long length;
+
+    private final long totalLength;
+
+    private final boolean partial;
+
+    RangeReadResult(InputStream content, long offset, long length, long totalLength, boolean partial) {
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+        this.totalLength = totalLength;
+        this.partial = partial;
+    }
+
+    /**
+     * @return the bytes of the range, and only them
+     */
+    public InputStream getContent() {
+        return content;
+    }
+
+    /**
+     * @return the position of the first byte of the range in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes of the range, shorter than requested if the file ends before, -1 if unknown
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the length of the whole file, -1 if the server did not tell
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @return false if the server ignored the range and sent the whole file, which the client skipped through
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+    }
+
+    @Override
+    public String toString() {
+        return "RangeReadResult [offset=" + offset + ", length=" + length + ", totalLength=" + totalLength + ", partial=" + partial + "]";
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request body of a raw upload: the bytes of a file or of a buffer, without multipart framing.
+ */
+abstract class RawUploadEntity extends AbstractHttpEntity {
+
+    RawUploadEntity(String mimeType) {
+        setContentType(mimeType != null ? mimeType : "application/octet-stream");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    static RawUploadEntity of(File file, String mimeType) {
+        return new FileEntity(file, mimeType);
+    }
+
+    static RawUploadEntity of(ByteBuffer buffer, String mimeType) {
+        return new BufferEntity(buffer, mimeType);
+    }
+
+    /**
+     * Streams the file to the connection: the file is never loaded as a whole. This is not a zero copy transfer, the
+     * blocking client only offers an {@link OutputStream} so {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+     * copies the file through a small temporary buffer.
+     */
+    private static class FileEntity extends RawUploadEntity {
+
+        private final File file;
+
+        FileEntity(File file, String mimeType) {
+            super(mimeType);
+            this.file = file;
+        }
+
+        @Override
+        public long getContentLength() {
+            return file.length();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    private static class BufferEntity extends RawUploadEntity {
+
+        private final ByteBuffer buffer;
+
+        BufferEntity(ByteBuffer buffer, String mimeType) {
+            super(mimeType);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long getContentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public InputStream getContent() {
+            ByteBuffer view = buffer.duplicate();
+            byte[] content = new byte[view.remaining()];
+            view.get(content);
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ByteBuffer view = buffer.duplicate();
+            if (view.hasArray()) {
+                out.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+            } else {
+                // direct buffers go through the small temporary buffer of the channel adapter
+                WritableByteChannel target = Channels.newChannel(out);
+                while (view.hasRemaining()) {
+                    target.write(view);
+                }
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks the replica to read from.
+ * <p>
+ * Every volume server has an exponentially weighted moving average of its response latency and a count of requests in
+ * flight. Selection samples two replicas at random and keeps the one with the lowest <code>latency * (inFlight + 1)</code>
+ * (power of two choices): traffic goes to fast and idle replicas without herding on a single "best" one. Replicas without
+ * any sample yet are preferred, so that every replica gets measured.
+ * <p>
+ * Replicas which failed to connect or answered with a server error are demoted for a while: they are only selected when
+ * every other replica is demoted as well. A success ends the demotion. Failed requests are not latency samples, since a
+ * replica refusing connections would look fast: they multiply its moving average by {@link #FAILURE_PENALTY} instead.
+ */
+public class ReplicaSelector {
+
+    public static final double DEFAULT_ALPHA = 0.2;
+
+    public static final long DEFAULT_DEMOTION_MILLIS = 10000;
+
+    public static final double FAILURE_PENALTY = 2;
+
+    private final double alpha;
+
+    private final long demotionNanos;
+
+    private final ConcurrentHashMap<Location, ReplicaStats> stats = new ConcurrentHashMap<>();
+
+    public ReplicaSelector() {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * @param alpha weight of a new latency sample in the moving average, in ]0, 1]
+     */
+    public ReplicaSelector(double alpha) {
+        this(alpha, DEFAULT_DEMOTION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param alpha weight of a new latency sample in the moving average, in ]0, 1]
+     * @param demotion how long a failed replica is avoided
+     */
+    public ReplicaSelector(double alpha, long demotion, TimeUnit unit) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in ]0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+        this.demotionNanos = unit.toNanos(demotion);
+    }
+
+    public Location select(List<Location> locations) {
+        int size = locations.size();
+        if (size == 0) {
+            return null;
+        }
+        Location ret;
+        if (size == 1) {
+            ret = locations.get(0);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            Location a = locations.get(first);
+            Location b = locations.get(second);
+            ret = statsOf(a).score() <= statsOf(b).score() ? a : b;
+        }
+        if (isDemoted(ret)) {
+            ret = bestNotDemoted(locations, ret);
+        }
+        statsOf(ret).selections.increment();
+        return ret;
+    }
+
+    private Location bestNotDemoted(List<Location> locations, Location fallback) {
+        Location ret = null;
+        double best = 0;
+        for (Location location : locations) {
+            if (!isDemoted(location)) {
+                double score = statsOf(location).score();
+                if (ret == null || score < best) {
+                    ret = location;
+                    best = score;
+                }
+            }
+        }
+        return ret == null ? fallback : ret;
+    }
+
+    /**
+     * @return the locations with the demoted ones moved to the end, <code>locations</code> itself if none is demoted
+     */
+    public List<Location> inPreferenceOrder(List<Location> locations) {
+        boolean anyDemoted = false;
+        for (Location location : locations) {
+            if (isDemoted(location)) {
+                anyDemoted = true;
+                break;
+            }
+        }
+        if (!anyDemoted) {
+            return locations;
+        }
+        List<Location> ret = new ArrayList<>(locations.size());
+        List<Location> demoted = new ArrayList<>(locations.size());
+        for (Location location : locations) {
+            (isDemoted(location) ? demoted : ret).add(location);
+        }
+        if (ret.isEmpty()) {
+            return locations;
+        }
+        ret.addAll(demoted);
+        return ret;
+    }
+
+    /**
+     * The replica failed to connect or answered with a server error: demotes it.
+     */
+    public void onFailure(Location location) {
+        ReplicaStats s = statsOf(location);
+        s.consecutiveFailures.incrementAndGet();
+        s.demotedUntil = System.nanoTime() + demotionNanos;
+    }
+
+    /**
+     * The replica answered: ends its demotion, if any.
+     */
+    public void onSuccess(Location location) {
+        ReplicaStats s = statsOf(location);
+        if (s.consecutiveFailures.get() != 0) {
+            s.consecutiveFailures.set(0);
+        }
+    }
+
+    public boolean isDemoted(Location location) {
+        ReplicaStats s = stats.get(location);
+        return s != null && s.consecutiveFailures.get() > 0 && s.demotedUntil - System.nanoTime() > 0;
+    }
+
+    /**
+     * Must be followed by exactly one {@link #onRequestEnd(Location, long, boolean)}.
+     */
+    public void onRequestStart(Location location) {
+        statsOf(location).inFlight.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos time to the response headers, ignored if negative
+     * @param success whether the replica answered, even if only to say that the file was not found; the latency of a
+     *        failed request is ignored and the moving average penalized instead
+     */
+    public void onRequestEnd(Location location, long latencyNanos, boolean success) {
+        ReplicaStats s = statsOf(location);
+        s.inFlight.decrementAndGet();
+        if (!success) {
+            s.failures.increment();
+            s.penalize(FAILURE_PENALTY);
+        } else if (latencyNanos >= 0) {
+            s.record(latencyNanos, alpha);
+        }
+    }
+
+    /**
+     * Records a latency sample without changing the in flight count.
+     */
+    public void recordLatency(Location location, long latencyNanos) {
+        statsOf(location).record(latencyNanos, alpha);
+    }
+
+    public Map<Location, Snapshot> getStats() {
+        Map<Location, Snapshot> ret = new HashMap<>();
+        for (Map.Entry<Location, ReplicaStats> e : stats.entrySet()) {
+            ReplicaStats s = e.getValue();
+            double ewma = Double.longBitsToDouble(s.ewmaBits.get());
+            ret.put(e.getKey(), new Snapshot(s.selections.sum(), s.failures.sum(), s.inFlight.get(), ewma < 0 ? -1 : ewma / 1000000d,
+                    isDemoted(e.getKey())));
+        }
+        return ret;
+    }
+
+    private ReplicaStats statsOf(Location location) {
+        ReplicaStats ret = stats.get(location);
+        if (ret == null) {
+            ret = stats.computeIfAbsent(location, l -> new ReplicaStats());
+        }
+        return ret;
+    }
+
+    private static final class ReplicaStats {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(-1));
+        final LongAdder selections = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile long demotedUntil;
+
+        void record(long latencyNanos, double alpha) {
+            while (true) {
+                long bits = ewmaBits.get();
+                double current = Double.longBitsToDouble(bits);
+                double next = current < 0 ? latencyNanos : current + alpha * (latencyNanos - current);
+                if (ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Multiplies the moving average, if there is one: a replica never measured stays so.
+         */
+        void penalize(double factor) {
+            while (true) {
+                long bits = ewmaBits.get();
+                double current = Double.longBitsToDouble(bits);
+                if (current < 0 || ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(current * factor))) {
+                    return;
+                }
+            }
+        }
+
+        double score() {
+            double ewma = Double.longBitsToDouble(ewmaBits.get());
+            return ewma < 0 ? -1 : ewma * (inFlight.get() + 1);
+        }
+    }
+
+    public static class Snapshot {
+
+        public final long selections;
+
+        public final long failures;
+
+        public final int inFlight;
+
+        /**
+         * Moving average of the latency, negative if never measured.
+         */
+        public final double averageLatencyMillis;
+
+        public final boolean demoted;
+
+        Snapshot(long selections, long failures, int inFlight, double averageLatencyMillis, boolean demoted) {
+            this.selections = selections;
+            this.failures = failures;
+            this.inFlight = inFlight;
+            this.averageLatencyMillis = averageLatencyMillis;
+            this.demoted = demoted;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot [selections=" + selections + ", failures=" + failures + ", inFlight=" + inFlight + ", averageLatencyMillis="
+                    + averageLatencyMillis + ", demoted=" + demoted + "]";
+        }
+    }
+}
@@ -51,6 +51,10 @@ public enum ReplicationStrategy {
 
     final String parameterValue;
 
+    public String getParameterValue() {
+        return parameterValue;
+    }
+
     public static ReplicationStrategy fromParameterValue(String parameterValue) {
         // yes this is ugly
         switch (parameterValue) {
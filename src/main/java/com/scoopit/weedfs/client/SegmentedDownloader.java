@@ -0,0 +1,315 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a file as byte ranges fetched concurrently, spread across its replicas, and written by position into a
+ * {@link FileChannel} or a buffer such as a memory mapped region.
+ * <p>
+ * The first range request tells the file length; its body is copied by the calling thread while <code>parallelism</code>
+ * workers fetch the other segments. A failed segment is retried on the next replica, from where it stopped. Memory use is
+ * a small copy buffer per worker whatever the segment size.
+ * <p>
+ * If the servers ignore ranges, the whole file is read in a single request; if they do not tell the file length, it is
+ * read as a single stream after the first segment. Either way its length is checked against the one announced by the
+ * server, if any.
+ */
+public class SegmentedDownloader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedDownloader.class);
+
+    private static final int COPY_BUFFER_SIZE = 64 << 10;
+
+    private final WeedFSClient client;
+
+    private final long segmentSize;
+
+    private final int parallelism;
+
+    private final ExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private int maxAttempts = 3;
+
+    public SegmentedDownloader(WeedFSClient client, long segmentSize, int parallelism) {
+        this(client, segmentSize, parallelism, Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "weedfs-segment-download");
+            t.setDaemon(true);
+            return t;
+        }), true);
+    }
+
+    public SegmentedDownloader(WeedFSClient client, long segmentSize, int parallelism, ExecutorService executor) {
+        this(client, segmentSize, parallelism, executor, false);
+    }
+
+    private SegmentedDownloader(WeedFSClient client, long segmentSize, int parallelism, ExecutorService executor, boolean ownsExecutor) {
+        if (segmentSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Expected positive segment size and parallelism: " + segmentSize + ", " + parallelism);
+        }
+        this.client = client;
+        this.segmentSize = segmentSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @param maxAttempts number of times a segment is requested before giving up, 3 by default
+     */
+    public SegmentedDownloader setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Writes the file at <code>position</code> in the channel, which must allow concurrent positional writes.
+     *
+     * @return the length of the file
+     */
+    public long download(WeedFSFile file, final FileChannel target, final long position) throws IOException {
+        return download(file, (src, offset) -> {
+            long p = position + offset;
+            while (src.hasRemaining()) {
+                p += target.write(src, p);
+            }
+        });
+    }
+
+    /**
+     * Writes the file from the current position of the buffer, which is left unchanged and must have room for the whole file.
+     *
+     * @return the length of the file
+     */
+    public long download(WeedFSFile file, final ByteBuffer target) throws IOException {
+        final int base = target.position();
+        return download(file, (src, offset) -> {
+            ByteBuffer view = target.duplicate();
+            view.position(base + (int) offset);
+            view.put(src);
+        });
+    }
+
+    private long download(final WeedFSFile file, final Sink sink) throws IOException {
+        final List<Location> locations = client.lookup(file.getVolumeId());
+        if (locations == null || locations.isEmpty()) {
+            throw new WeedFSException("No location found for volume " + file.getVolumeId());
+        }
+
+        RangeReadResult first = null;
+        int firstReplica = 0;
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts && first == null; attempt++) {
+            try {
+                firstReplica = attempt % locations.size();
+                first = client.read(file, locations.get(firstReplica), 0, segmentSize);
+            } catch (WeedFSFileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        if (first == null) {
+            throw last;
+        }
+
+        final long length = first.getTotalLength();
+        if (!first.isPartial()) {
+            // ranges ignored: the first response is capped at the first segment, the whole file is read in one request
+            first.close();
+            return downloadToEnd(file, locations, firstReplica, 0, sink);
+        }
+        if (length < 0) {
+            // unknown length: nothing to split
+            return downloadSequentially(file, locations, first, sink);
+        }
+
+        final AtomicInteger nextSegment = new AtomicInteger(1);
+        final int segments = (int) ((length + segmentSize - 1) / segmentSize);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, segments - 1); i++) {
+            final int replica = i + 1;
+            workers.add(executor.submit(() -> {
+                int segment;
+                while (failure.get() == null && (segment = nextSegment.getAndIncrement()) < segments) {
+                    long start = segment * segmentSize;
+                    try {
+                        downloadSegment(file, locations, replica, start, Math.min(length, start + segmentSize), sink);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+
+        long firstEnd = Math.min(length, segmentSize);
+        try {
+            long copied;
+            try (RangeReadResult segment = first) {
+                copied = copy(segment.getContent(), sink, 0, firstEnd);
+            } catch (IOException e) {
+                log.debug("Unable to download {}, retrying its first segment", file.fid, e);
+                copied = 0;
+            }
+            if (copied < firstEnd) {
+                downloadSegment(file, locations, 1, copied, firstEnd, sink);
+            }
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException("Interrupted while downloading " + file.fid));
+                for (Future<?> w : workers) {
+                    w.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, new IOException(e.getCause()));
+            }
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return length;
+    }
+
+    /**
+     * Copies the first segment, then reads the rest of the file as a single stream.
+     */
+    private long downloadSequentially(WeedFSFile file, List<Location> locations, RangeReadResult first, Sink sink)
+            throws IOException {
+        long copied;
+        try (RangeReadResult segment = first) {
+            copied = copy(segment.getContent(), sink, 0, Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.debug("Unable to download {}, retrying from its start", file.fid, e);
+            copied = 0;
+        }
+        if (copied > 0 && copied < segmentSize) {
+            // the file ended within the first segment
+            return copied;
+        }
+        return downloadToEnd(file, locations, 1, copied, sink);
+    }
+
+    /**
+     * Reads from <code>start</code> to the end of a file of unknown length, checking the length if a response tells it.
+     *
+     * @return the length of the file
+     */
+    private long downloadToEnd(WeedFSFile file, List<Location> locations, int replica, long start, Sink sink) throws IOException {
+        long position = start;
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            Location location = locations.get((replica + attempt) % locations.size());
+            try (RangeReadResult range = client.read(file, location, position)) {
+                position += copy(range.getContent(), sink, position, Long.MAX_VALUE);
+                long total = range.getTotalLength();
+                if (total >= 0 && position != total) {
+                    throw new WeedFSException("Download of " + file.fid + " ended at " + position + " instead of " + total);
+                }
+                return position;
+            } catch (WeedFSFileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                last = e;
+                log.debug("Unable to download {} from {}, attempt {}", file.fid, location, attempt + 1, e);
+            }
+        }
+        throw last;
+    }
+
+    private void downloadSegment(WeedFSFile file, List<Location> locations, int replica, long start, long end, Sink sink)
+            throws IOException {
+        long position = start;
+        IOException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            Location location = locations.get((replica + attempt) % locations.size());
+            try (RangeReadResult range = client.read(file, location, position, end - position)) {
+                InputStream in = range.getContent();
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int n;
+                while (position < end && (n = in.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+                    sink.write(ByteBuffer.wrap(buffer, 0, n), position);
+                    position += n;
+                }
+                if (position == end) {
+                    return;
+                }
+                throw new WeedFSException("Range of " + file.fid + " ended at " + position + " instead of " + end);
+            } catch (IOException e) {
+                last = e;
+                log.debug("Unable to download {} from {}, attempt {}", file.fid, location, attempt + 1, e);
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * @return the number of bytes copied
+     */
+    private static long copy(InputStream in, Sink sink, long offset, long max) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copied = 0;
+        int n;
+        while (copied < max && (n = in.read(buffer, 0, (int) Math.min(buffer.length, max - copied))) != -1) {
+            sink.write(ByteBuffer.wrap(buffer, 0, n), offset + copied);
+            copied += n;
+        }
+        return copied;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Sink {
+        void write(ByteBuffer src, long offset) throws IOException;
+    }
+}
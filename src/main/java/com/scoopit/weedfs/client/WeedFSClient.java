@@ -19,11 +19,16 @@
  */
 package com.scoopit.weedfs.client;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
+import com.scoopit.weedfs.client.net.ChunkManifest;
 import com.scoopit.weedfs.client.status.MasterStatus;
 import com.scoopit.weedfs.client.status.VolumeStatus;
 
@@ -57,7 +62,7 @@ import com.scoopit.weedfs.client.status.VolumeStatus;
  * 
  * Note: fileName that exceeds 256 characters will be truncated.
  */
-public interface WeedFSClient {
+public interface WeedFSClient extends Closeable {
     Assignation assign(AssignParams params) throws IOException, WeedFSException;
 
     int write(WeedFSFile weedFSFile, Location location, File file) throws IOException, WeedFSException;
@@ -66,13 +71,95 @@ public interface WeedFSClient {
 
     int write(WeedFSFile file, Location location, InputStream inputToUpload, String fileName) throws IOException, WeedFSException;
 
+    /**
+     * Uploads the file as the raw request body rather than as a multipart form, which saves the framing and copies of the
+     * multipart path. The file name and mime type are sent as headers.
+     *
+     * @param mimeType content type of the file, application/octet-stream if null
+     */
+    int writeRaw(WeedFSFile file, Location location, File fileToUpload, String mimeType) throws IOException, WeedFSException;
+
+    /**
+     * Uploads the remaining bytes of the buffer, heap or direct, as the raw request body. The buffer is left untouched.
+     *
+     * @param mimeType content type of the data, application/octet-stream if null
+     */
+    int writeRaw(WeedFSFile file, Location location, ByteBuffer dataToUpload, String fileName, String mimeType) throws IOException,
+            WeedFSException;
+
+    /**
+     * Writes the versions of an assignation concurrently, payload <code>i</code> being version <code>i</code>.
+     *
+     * @param deleteOnFailure whether versions written successfully are deleted if another one fails
+     * @throws IllegalArgumentException if there are more payloads than assigned versions
+     */
+    WriteVersionsResult writeVersions(Assignation assignation, List<WritePayload> payloads, boolean deleteOnFailure) throws IOException;
+
+    /**
+     * Writes a chunk manifest, see {@link LargeObjectWriter}. Reading <code>file</code> from the volume server then returns
+     * the chunks concatenated.
+     */
+    int writeChunkManifest(WeedFSFile file, Location location, ChunkManifest manifest) throws IOException, WeedFSException;
+
+    /**
+     * Reads the manifest itself rather than the content of the chunks it lists.
+     */
+    ChunkManifest readChunkManifest(WeedFSFile file, Location location) throws IOException, WeedFSException;
+
     void delete(WeedFSFile file, Location location) throws IOException, WeedFSException;
 
+    /**
+     * Deletes many files at once: volumes are looked up through the lookup cache, files are grouped by volume server and
+     * deleted by batches, using the <code>/delete</code> endpoint of volume servers which have it and one request per file
+     * otherwise. Batches run concurrently, with a bounded number of requests per volume server. Files a volume server fails
+     * to delete because it is unreachable or answers with a server error are deleted on the other replicas of their volume.
+     *
+     * @return the result of every file, in the order of <code>files</code>; files with the same fid and version are deleted
+     *         once and share a single entry
+     */
+    Map<WeedFSFile, DeleteResult> deleteAll(Collection<WeedFSFile> files) throws IOException;
+
     List<Location> lookup(long volumeId) throws IOException, WeedFSException;
 
     InputStream read(WeedFSFile file, Location location) throws IOException, WeedFSException;
 
+    /**
+     * Reads <code>length</code> bytes of the file from <code>offset</code> with an http range request. Servers ignoring the
+     * range are handled by skipping to the range in the whole file.
+     *
+     * @throws WeedFSRangeNotSatisfiableException if <code>offset</code> is beyond the end of the file
+     */
+    RangeReadResult read(WeedFSFile file, Location location, long offset, long length) throws IOException, WeedFSException;
+
+    /**
+     * Reads the file from <code>offset</code> to its end.
+     */
+    RangeReadResult read(WeedFSFile file, Location location, long offset) throws IOException, WeedFSException;
+
+    /**
+     * Reads the last <code>length</code> bytes of the file, or the whole file if it is shorter.
+     */
+    RangeReadResult readLast(WeedFSFile file, Location location, long length) throws IOException, WeedFSException;
+
+    /**
+     * Looks the volume of <code>file</code> up and reads it from the replica chosen by the client {@link ReplicaSelector}.
+     */
+    InputStream read(WeedFSFile file) throws IOException, WeedFSException;
+
     MasterStatus getMasterStatus() throws IOException;
 
     VolumeStatus getVolumeStatus(Location location) throws IOException;
+
+    /**
+     * Applies the per volume server connection limit to every data node of the master topology.
+     *
+     * @return the number of volume servers whose limit has been set
+     */
+    int refreshVolumeServerRoutes() throws IOException;
+
+    /**
+     * Releases pooled connections, unless the http client was provided by the caller.
+     */
+    @Override
+    void close() throws IOException;
 }
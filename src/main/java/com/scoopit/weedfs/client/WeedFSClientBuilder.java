@@ -21,21 +21,73 @@ package com.scoopit.weedfs.client;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.protocol.HttpContext;
 
+import com.scoopit.weedfs.client.caching.BlobCache;
 import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.caching.LookupCoalescer;
+import com.scoopit.weedfs.client.metrics.MetricsListener;
 
 public class WeedFSClientBuilder {
 
     HttpClient httpClient;
 
-    URL masterUrl;
+    CloseableHttpAsyncClient asyncHttpClient;
+
+    final List<URL> masterUrls = new ArrayList<>();
+
+    int masterConnectTimeoutMillis = 500;
 
     LookupCache lookupCache;
 
+    LookupCoalescer lookupCoalescer;
+
+    ReplicaSelector replicaSelector;
+
+    HedgingPolicy hedgingPolicy;
+
+    ExecutorService executor;
+
+    BlobCache blobCache;
+
+    MetricsListener metricsListener;
+
+    int maxConnections = 200;
+
+    int maxConnectionsPerRoute = 20;
+
+    int maxConnectionsPerVolumeServer = -1;
+
+    final Map<Location, Integer> maxConnectionsByVolumeServer = new LinkedHashMap<>();
+
+    int deleteConcurrencyPerVolumeServer = 4;
+
+    long connectionIdleTimeoutMillis = 60000;
+
+    int validateAfterInactivityMillis = 2000;
+
+    long keepAliveMillis = 30000;
+
+    ConnectionKeepAliveStrategy keepAliveStrategy;
+
     public WeedFSClientBuilder() {
 
     }
@@ -49,8 +101,39 @@ public class WeedFSClientBuilder {
         return this;
     }
 
+    /**
+     * Http client used by {@link #buildAsync()}. It is started if needed, but not closed with the client.
+     */
+    public WeedFSClientBuilder setAsyncHttpClient(CloseableHttpAsyncClient asyncHttpClient) {
+        this.asyncHttpClient = asyncHttpClient;
+        return this;
+    }
+
     public WeedFSClientBuilder setMasterUrl(URL masterUrl) {
-        this.masterUrl = masterUrl;
+        return setMasterUrls(masterUrl);
+    }
+
+    /**
+     * Masters of a cluster with several of them: assignations go to the current leader and lookups are spread over the
+     * followers. The leader is looked for through <code>/cluster/status</code> when it fails. The non blocking client only
+     * uses the first one.
+     */
+    public WeedFSClientBuilder setMasterUrls(URL... masterUrls) {
+        return setMasterUrls(Arrays.asList(masterUrls));
+    }
+
+    public WeedFSClientBuilder setMasterUrls(List<URL> masterUrls) {
+        this.masterUrls.clear();
+        this.masterUrls.addAll(masterUrls);
+        return this;
+    }
+
+    /**
+     * Connect timeout of requests to masters, short so that an unreachable master is quickly failed over. Ignored when there
+     * is a single master, or when an http client is provided: its own request config is used then.
+     */
+    public WeedFSClientBuilder setMasterConnectTimeoutMillis(int masterConnectTimeoutMillis) {
+        this.masterConnectTimeoutMillis = masterConnectTimeoutMillis;
         return this;
     }
 
@@ -59,31 +142,222 @@ public class WeedFSClientBuilder {
         return this;
     }
 
+    /**
+     * Shares concurrent lookups of the same volume. Provide one to read its counters, a private instance is used otherwise.
+     */
+    public WeedFSClientBuilder setLookupCoalescer(LookupCoalescer lookupCoalescer) {
+        this.lookupCoalescer = lookupCoalescer;
+        return this;
+    }
+
+    /**
+     * Chooses the replica {@link WeedFSClient#read(WeedFSFile)} reads from. Provide one to read its statistics, a private
+     * instance is used otherwise.
+     */
+    public WeedFSClientBuilder setReplicaSelector(ReplicaSelector replicaSelector) {
+        this.replicaSelector = replicaSelector;
+        return this;
+    }
+
+    /**
+     * Enables hedged reads in {@link WeedFSClient#read(WeedFSFile)}. Keep the policy to read its counters.
+     */
+    public WeedFSClientBuilder setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    /**
+     * Runs the requests of hedged reads and the concurrent uploads of
+     * {@link WeedFSClient#writeVersions(Assignation, java.util.List, boolean)}. It is not shut down with the client; a private
+     * pool of daemon threads, shut down with the client, is used otherwise.
+     */
+    public WeedFSClientBuilder setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Local cache of file contents read by {@link WeedFSClient#read(WeedFSFile)}. Files are cached once entirely read, and
+     * dropped when they are overwritten or deleted through a client built by this builder, blocking or not. Stack a
+     * memory cache in front of a disk cache with {@link com.scoopit.weedfs.client.caching.TieredBlobCache}.
+     */
+    public WeedFSClientBuilder setBlobCache(BlobCache blobCache) {
+        this.blobCache = blobCache;
+        return this;
+    }
+
+    /**
+     * Notified of the latency and outcome of every request, of bytes transferred and of cache activity, see
+     * {@link com.scoopit.weedfs.client.metrics.HistogramMetricsListener}. Nothing is recorded by default.
+     */
+    public WeedFSClientBuilder setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /**
+     * Maximum number of pooled connections, all routes included. Ignored if an http client is provided.
+     */
+    public WeedFSClientBuilder setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Default maximum number of pooled connections per route (master or volume server). Ignored if an http client is provided.
+     */
+    public WeedFSClientBuilder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    /**
+     * Maximum number of pooled connections to every volume server listed by the master topology, applied by
+     * {@link WeedFSClient#refreshVolumeServerRoutes()}. Ignored if an http client is provided.
+     */
+    public WeedFSClientBuilder setMaxConnectionsPerVolumeServer(int maxConnectionsPerVolumeServer) {
+        this.maxConnectionsPerVolumeServer = maxConnectionsPerVolumeServer;
+        return this;
+    }
+
+    /**
+     * Maximum number of pooled connections to a given volume server. Ignored if an http client is provided.
+     */
+    public WeedFSClientBuilder setMaxConnectionsPerVolumeServer(Location location, int maxConnections) {
+        this.maxConnectionsByVolumeServer.put(location, maxConnections);
+        return this;
+    }
+
+    /**
+     * Maximum number of concurrent delete requests sent to a volume server by {@link WeedFSClient#deleteAll(java.util.Collection)}.
+     */
+    public WeedFSClientBuilder setDeleteConcurrencyPerVolumeServer(int deleteConcurrencyPerVolumeServer) {
+        this.deleteConcurrencyPerVolumeServer = deleteConcurrencyPerVolumeServer;
+        return this;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are evicted by a background thread, 0 to disable. Ignored if an http
+     * client is provided.
+     */
+    public WeedFSClientBuilder setConnectionIdleTimeout(long timeout, TimeUnit unit) {
+        this.connectionIdleTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are checked for staleness before being reused, -1 to disable. Ignored
+     * if an http client is provided.
+     */
+    public WeedFSClientBuilder setValidateAfterInactivity(int validateAfterInactivityMillis) {
+        this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+        return this;
+    }
+
+    /**
+     * Upper bound on how long an idle connection is kept alive when the server does not ask for less. Ignored if an http
+     * client or a keep alive strategy is provided.
+     */
+    public WeedFSClientBuilder setKeepAlive(long keepAlive, TimeUnit unit) {
+        this.keepAliveMillis = unit.toMillis(keepAlive);
+        return this;
+    }
+
+    public WeedFSClientBuilder setKeepAliveStrategy(ConnectionKeepAliveStrategy keepAliveStrategy) {
+        this.keepAliveStrategy = keepAliveStrategy;
+        return this;
+    }
+
     public WeedFSClient build() {
-        if (masterUrl == null) {
-            try {
-                // default url for testing purpose
-                masterUrl = new URL("http://localhost:9333");
-            } catch (MalformedURLException e) {
-                // This cannot happen by construction
-                throw new Error(e);
-            }
+        if (httpClient != null) {
+            return new WeedFSClientImpl(this, httpClient, false, null);
+        }
+
+        RequestConfig config = defaultRequestConfig();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+        for (Map.Entry<Location, Integer> e : maxConnectionsByVolumeServer.entrySet()) {
+            connectionManager.setMaxPerRoute(new HttpRoute(WeedFSClientImpl.toHttpHost(e.getKey())), e.getValue());
+        }
+
+        HttpClientBuilder builder = HttpClientBuilder
+                .create()
+                .setDefaultRequestConfig(config)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy != null ? keepAliveStrategy : new BoundedKeepAliveStrategy(keepAliveMillis));
+        if (connectionIdleTimeoutMillis > 0) {
+            builder.evictExpiredConnections().evictIdleConnections(connectionIdleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return new WeedFSClientImpl(this, builder.build(), true, connectionManager);
+    }
+
+    /**
+     * Builds a non blocking client sharing the master url, lookup cache, blob cache and connection limits of this builder.
+     */
+    public AsyncWeedFSClient buildAsync() {
+        URL masterUrl = masterUrls().get(0);
+
+        if (asyncHttpClient != null) {
+            return new AsyncWeedFSClientImpl(masterUrl, asyncHttpClient, false, lookupCache, blobCache);
+        }
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(defaultRequestConfig())
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setKeepAliveStrategy(keepAliveStrategy != null ? keepAliveStrategy : new BoundedKeepAliveStrategy(keepAliveMillis))
+                .build();
+
+        return new AsyncWeedFSClientImpl(masterUrl, client, true, lookupCache, blobCache);
+    }
+
+    /**
+     * Master urls a client is built with, a copy so that building does not change this builder.
+     */
+    List<URL> masterUrls() {
+        if (!masterUrls.isEmpty()) {
+            return new ArrayList<>(masterUrls);
+        }
+        try {
+            // default url for testing purpose
+            return new ArrayList<>(Arrays.asList(new URL("http://localhost:9333")));
+        } catch (MalformedURLException e) {
+            // This cannot happen by construction
+            throw new Error(e);
         }
+    }
 
-        if (httpClient == null) {
-            // minimal http client
-            RequestConfig config = RequestConfig.custom()
-                    .setSocketTimeout(5000)
-                    .setConnectTimeout(5000)
-                    .build();
-
-            httpClient = HttpClientBuilder
-                    .create()
-                    .setDefaultRequestConfig(config)
-                    .build();
+    static RequestConfig defaultRequestConfig() {
+        return RequestConfig.custom()
+                .setSocketTimeout(5000)
+                .setConnectTimeout(5000)
+                .build();
+    }
+
+    /**
+     * Honours the server Keep-Alive header but never keeps a connection longer than the configured bound.
+     */
+    private static class BoundedKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+
+        private final long maxKeepAliveMillis;
+
+        BoundedKeepAliveStrategy(long maxKeepAliveMillis) {
+            this.maxKeepAliveMillis = maxKeepAliveMillis;
         }
 
-        return new WeedFSClientImpl(masterUrl, httpClient, lookupCache);
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            if (maxKeepAliveMillis <= 0) {
+                return duration;
+            }
+            return duration > 0 ? Math.min(duration, maxKeepAliveMillis) : maxKeepAliveMillis;
+        }
     }
 
 }
@@ -19,123 +19,411 @@
  */
 package com.scoopit.weedfs.client;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.scoopit.weedfs.client.caching.BlobCache;
 import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.caching.LookupCoalescer;
+import com.scoopit.weedfs.client.caching.LookupLoader;
+import com.scoopit.weedfs.client.metrics.CacheType;
+import com.scoopit.weedfs.client.metrics.MetricsListener;
+import com.scoopit.weedfs.client.metrics.Operation;
 import com.scoopit.weedfs.client.net.AssignResult;
+import com.scoopit.weedfs.client.net.BatchDeleteResult;
+import com.scoopit.weedfs.client.net.ChunkManifest;
 import com.scoopit.weedfs.client.net.LookupResult;
 import com.scoopit.weedfs.client.net.WriteResult;
+import com.scoopit.weedfs.client.status.ClusterStatus;
+import com.scoopit.weedfs.client.status.DataNode;
 import com.scoopit.weedfs.client.status.MasterStatus;
 import com.scoopit.weedfs.client.status.VolumeStatus;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 class WeedFSClientImpl implements WeedFSClient {
 
-    final URL masterURL;
+    private static final Logger log = LoggerFactory.getLogger(WeedFSClientImpl.class);
+
+    static final int DELETE_BATCH_SIZE = 256;
+
+    final MasterTracker masters;
+    final RequestConfig masterRequestConfig;
     final HttpClient httpClient;
+    final boolean ownsHttpClient;
+    final PoolingHttpClientConnectionManager connectionManager;
+    final int maxConnectionsPerVolumeServer;
+    final Set<HttpRoute> explicitVolumeServerRoutes = new HashSet<>();
     final LookupCache lookupCache;
+    final LookupCoalescer lookupCoalescer;
+    final ReplicaSelector replicaSelector;
+    final HedgingPolicy hedgingPolicy;
+    final BlobCache blobCache;
+    final MetricsListener metrics;
+    final ExecutorService executor;
+    final boolean ownsExecutor;
+    final int deleteConcurrencyPerVolumeServer;
 
-    WeedFSClientImpl(URL masterURL, HttpClient httpClient, LookupCache lookupCache) {
-        this.masterURL = masterURL;
+    /**
+     * Volume servers without the batch delete endpoint.
+     */
+    private final Set<Location> noBatchDelete = ConcurrentHashMap.newKeySet();
+
+    private final LookupLoader masterLookup = new LookupLoader() {
+        @Override
+        public List<Location> load(long volumeId) throws IOException {
+            return lookupFromMaster(volumeId);
+        }
+    };
+
+    WeedFSClientImpl(WeedFSClientBuilder config, HttpClient httpClient, boolean ownsHttpClient,
+            PoolingHttpClientConnectionManager connectionManager) {
+        this.masters = new MasterTracker(config.masterUrls());
+        // a request config would replace the whole default one of a provided http client, dropping its timeouts
+        this.masterRequestConfig = masters.size() > 1 && ownsHttpClient
+                ? RequestConfig.copy(WeedFSClientBuilder.defaultRequestConfig())
+                        .setConnectTimeout(config.masterConnectTimeoutMillis).build()
+                : null;
         this.httpClient = httpClient;
-        this.lookupCache = lookupCache;
+        this.ownsHttpClient = ownsHttpClient;
+        this.connectionManager = connectionManager;
+        this.maxConnectionsPerVolumeServer = config.maxConnectionsPerVolumeServer;
+        for (Location location : config.maxConnectionsByVolumeServer.keySet()) {
+            explicitVolumeServerRoutes.add(new HttpRoute(toHttpHost(location)));
+        }
+        this.lookupCache = config.lookupCache;
+        this.lookupCoalescer = config.lookupCoalescer != null ? config.lookupCoalescer : new LookupCoalescer();
+        this.replicaSelector = config.replicaSelector != null ? config.replicaSelector : new ReplicaSelector();
+        this.hedgingPolicy = config.hedgingPolicy;
+        this.blobCache = config.blobCache;
+        this.metrics = config.metricsListener != null ? config.metricsListener : MetricsListener.NOOP;
+        this.deleteConcurrencyPerVolumeServer = Math.max(1, config.deleteConcurrencyPerVolumeServer);
+        this.ownsExecutor = config.executor == null;
+        this.executor = config.executor != null ? config.executor : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "weedfs-client");
+            t.setDaemon(true);
+            return t;
+        });
+        if (metrics != MetricsListener.NOOP) {
+            if (lookupCache != null) {
+                lookupCache.setEvictionListener(n -> metrics.onCacheEviction(CacheType.LOOKUP, n));
+            }
+            if (blobCache != null) {
+                blobCache.setEvictionListener(n -> metrics.onCacheEviction(CacheType.BLOB, n));
+            }
+        }
+        if (lookupCache != null) {
+            lookupCache.setLookupLoader(new LookupLoader() {
+                @Override
+                public List<Location> load(long volumeId) throws IOException {
+                    return WeedFSClientImpl.this.lookupCoalescer.lookup(volumeId, masterLookup);
+                }
+            });
+        }
     }
 
     @Override
     public Assignation assign(AssignParams params) throws IOException, WeedFSException {
-        boolean hasUrlParam = false;
-        StringBuilder url = new StringBuilder(new URL(masterURL, "/dir/assign").toExternalForm());
-        Map<String, Object> urlParams = new HashMap<>();
+        long start = System.nanoTime();
+        try {
+            AssignResult result = onLeader(master -> assignUrl(master, params), JsonResponses.ASSIGN);
 
-        if (params.versionCount > 0) {
-            urlParams.put("count", params.versionCount);
-        }
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
 
-        if (params.replicationStrategy != null) {
-            urlParams.put("replication", params.replicationStrategy.parameterValue);
+            metrics.onSuccess(Operation.ASSIGN, null, System.nanoTime() - start);
+            return new Assignation(result);
+        } catch (IOException | RuntimeException e) {
+            metrics.onError(Operation.ASSIGN, null, e);
+            throw e;
         }
+    }
 
-        if (params.collection != null) {
-            urlParams.put("collection", params.collection);
+    @Override
+    public void delete(WeedFSFile file, Location location) throws IOException, WeedFSException {
+        HttpDelete delete = new HttpDelete(fileUrl(location, file));
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = httpClient.execute(delete);
+
+            StatusLine line = response.getStatusLine();
+            if (blobCache != null && (line.getStatusCode() / 100 == 2 || line.getStatusCode() == 404)) {
+                // deleted, or already gone
+                blobCache.invalidate(file);
+            }
+            if (line.getStatusCode() < 200 || line.getStatusCode() > 299) {
+                throw new WeedFSException("Error deleting file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
+                        + line.getReasonPhrase(), EntityUtils.toString(response.getEntity(), "UTF-8"));
+            }
+            EntityUtils.consume(response.getEntity());
+            metrics.onSuccess(Operation.DELETE, location, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            metrics.onError(Operation.DELETE, location, e);
+            throw e;
+        } finally {
+            delete.abort();
         }
+    }
 
-        for (Map.Entry<String, Object> param : urlParams.entrySet()) {
-            url.append((hasUrlParam) ? '&' : '?');
-            url.append(param.getKey());
-            url.append('=');
-            url.append(param.getValue());
+    @Override
+    public Map<WeedFSFile, DeleteResult> deleteAll(Collection<WeedFSFile> files) throws IOException {
+        final Map<WeedFSFile, DeleteResult> results = new ConcurrentHashMap<>();
 
-            hasUrlParam = true;
+        // equal files are deleted once and share their result
+        Map<Long, List<WeedFSFile>> byVolume = new LinkedHashMap<>();
+        for (WeedFSFile file : new LinkedHashSet<>(files)) {
+            byVolume.computeIfAbsent(file.getVolumeId(), v -> new ArrayList<>()).add(file);
+        }
+        final Map<Long, List<Location>> locationsByVolume = new HashMap<>();
+        Map<Location, List<WeedFSFile>> byServer = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<WeedFSFile>> e : byVolume.entrySet()) {
+            String error = null;
+            try {
+                List<Location> locations = lookup(e.getKey());
+                if (locations != null && !locations.isEmpty()) {
+                    // deletes are replicated by the volume server, other replicas are only tried if it fails
+                    locationsByVolume.put(e.getKey(), locations);
+                    byServer.computeIfAbsent(locations.get(0), l -> new ArrayList<>()).addAll(e.getValue());
+                    continue;
+                }
+                error = "No location found for volume " + e.getKey();
+            } catch (IOException ex) {
+                error = "Unable to look volume " + e.getKey() + " up: " + ex.getMessage();
+            }
+            for (WeedFSFile file : e.getValue()) {
+                results.put(file, new DeleteResult(file, null, -1, error));
+            }
+        }
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (Map.Entry<Location, List<WeedFSFile>> e : byServer.entrySet()) {
+            final Location location = e.getKey();
+            List<WeedFSFile> serverFiles = e.getValue();
+            final ConcurrentLinkedQueue<List<WeedFSFile>> batches = new ConcurrentLinkedQueue<>();
+            for (int i = 0; i < serverFiles.size(); i += DELETE_BATCH_SIZE) {
+                batches.add(serverFiles.subList(i, Math.min(serverFiles.size(), i + DELETE_BATCH_SIZE)));
+            }
+            for (int i = 0; i < Math.min(deleteConcurrencyPerVolumeServer, batches.size()); i++) {
+                workers.add(executor.submit(() -> {
+                    List<WeedFSFile> batch;
+                    while ((batch = batches.poll()) != null) {
+                        deleteOnReplicas(location, batch, locationsByVolume, results);
+                    }
+                }));
+            }
         }
 
-        HttpGet get = new HttpGet(url.toString());
         try {
-            HttpResponse response = httpClient.execute(get);
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deleting files");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to delete files", e.getCause());
+        }
 
-            ObjectMapper mapper = new ObjectMapper();
-            String content = getContentOrNull(response);
-            
-            try {
-                AssignResult result = mapper.readValue(content, AssignResult.class);
+        Map<WeedFSFile, DeleteResult> ret = new LinkedHashMap<>();
+        for (WeedFSFile file : files) {
+            ret.put(file, results.get(file));
+        }
+        return ret;
+    }
 
-                if (result.error != null) {
-                    throw new WeedFSException(result.error);
+    /**
+     * Deletes a batch on <code>location</code>, then the files it failed to reach on the other replicas of their volume.
+     */
+    private void deleteOnReplicas(Location location, List<WeedFSFile> batch, Map<Long, List<Location>> locationsByVolume,
+            Map<WeedFSFile, DeleteResult> results) {
+        Set<Location> tried = new HashSet<>();
+        tried.add(location);
+        List<WeedFSFile> failed = deleteBatch(location, batch, results);
+        while (!failed.isEmpty()) {
+            Map<Location, List<WeedFSFile>> byReplica = new LinkedHashMap<>();
+            for (WeedFSFile file : failed) {
+                for (Location replica : locationsByVolume.get(file.getVolumeId())) {
+                    if (!tried.contains(replica)) {
+                        byReplica.computeIfAbsent(replica, l -> new ArrayList<>()).add(file);
+                        break;
+                    }
                 }
-
-                return new Assignation(result);
-            } catch (JsonMappingException | JsonParseException e) {
-                throw new WeedFSException("Unable to parse JSON from weed-fs from: " + content, e);
             }
-        } finally {
-            get.abort();
+            if (byReplica.isEmpty()) {
+                // every replica failed: the last results are kept
+                return;
+            }
+            failed = new ArrayList<>();
+            for (Map.Entry<Location, List<WeedFSFile>> e : byReplica.entrySet()) {
+                tried.add(e.getKey());
+                failed.addAll(deleteBatch(e.getKey(), e.getValue(), results));
+            }
         }
     }
 
-    @Override
-    public void delete(WeedFSFile file, Location location) throws IOException, WeedFSException {
-        StringBuilder url = new StringBuilder();
-        if (!location.publicUrl.contains("http")) {
-            url.append("http://");
+    /**
+     * @return the files whose deletion failed because the volume server could not be reached or answered with a server
+     *         error, to be retried on another replica
+     */
+    private List<WeedFSFile> deleteBatch(Location location, List<WeedFSFile> batch, Map<WeedFSFile, DeleteResult> results) {
+        if (!noBatchDelete.contains(location)) {
+            Map<String, WeedFSFile> byFid = new HashMap<>();
+            List<NameValuePair> params = new ArrayList<>(batch.size());
+            for (WeedFSFile file : batch) {
+                String fid = file.version > 0 ? file.fid + "_" + file.version : file.fid;
+                byFid.put(fid, file);
+                params.add(new BasicNameValuePair("fid", fid));
+            }
+            HttpPost post = new HttpPost(volumeServerUrl(location) + "/delete");
+            post.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+            long start = System.nanoTime();
+            try {
+                HttpResponse response = httpClient.execute(post);
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= 500) {
+                    String error = "Batch delete failed: " + response.getStatusLine();
+                    metrics.onError(Operation.DELETE, location, new WeedFSServerException(error, status));
+                    replicaSelector.onFailure(location);
+                    for (WeedFSFile file : batch) {
+                        results.put(file, new DeleteResult(file, location, status, error));
+                    }
+                    return batch;
+                }
+                replicaSelector.onSuccess(location);
+                BatchDeleteResult[] deleted = null;
+                if (status >= 200 && status <= 299) {
+                    try {
+                        deleted = JsonResponses.read(JsonResponses.BATCH_DELETE, response);
+                    } catch (WeedFSException e) {
+                        log.debug("Unexpected batch delete response from {}", location, e);
+                    }
+                }
+                if (deleted != null) {
+                    metrics.onSuccess(Operation.DELETE, location, System.nanoTime() - start);
+                    for (BatchDeleteResult r : deleted) {
+                        WeedFSFile file = byFid.remove(r.fid);
+                        if (file != null) {
+                            results.put(file, deleted(file, location, r.status, r.error));
+                        }
+                    }
+                    for (WeedFSFile file : byFid.values()) {
+                        results.put(file, new DeleteResult(file, location, -1, "Missing from batch delete response"));
+                    }
+                    return Collections.emptyList();
+                }
+                log.info("Volume server {} has no batch delete endpoint, deleting files one by one", location);
+                noBatchDelete.add(location);
+            } catch (IOException e) {
+                metrics.onError(Operation.DELETE, location, e);
+                replicaSelector.onFailure(location);
+                for (WeedFSFile file : batch) {
+                    results.put(file, new DeleteResult(file, location, -1, e.toString()));
+                }
+                return batch;
+            } finally {
+                post.abort();
+            }
         }
-        url.append(location.publicUrl);
-        url.append("/");
-        url.append(file.fid);
 
-        if (file.version > 0) {
-            url.append("_");
-            url.append(file.version);
+        List<WeedFSFile> failed = new ArrayList<>();
+        for (WeedFSFile file : batch) {
+            HttpDelete delete = new HttpDelete(fileUrl(location, file));
+            long start = System.nanoTime();
+            try {
+                HttpResponse response = httpClient.execute(delete);
+                StatusLine line = response.getStatusLine();
+                int status = line.getStatusCode();
+                if (status >= 200 && status <= 299) {
+                    metrics.onSuccess(Operation.DELETE, location, System.nanoTime() - start);
+                    replicaSelector.onSuccess(location);
+                    results.put(file, deleted(file, location, status, null));
+                    continue;
+                }
+                String error = status + " " + line.getReasonPhrase();
+                if (status == 404) {
+                    metrics.onError(Operation.DELETE, location, new WeedFSFileNotFoundException(file, location));
+                } else if (status >= 500) {
+                    metrics.onError(Operation.DELETE, location, new WeedFSServerException(error, status));
+                    replicaSelector.onFailure(location);
+                    failed.add(file);
+                } else {
+                    metrics.onError(Operation.DELETE, location, new WeedFSException(error));
+                }
+                results.put(file, deleted(file, location, status, error));
+            } catch (IOException e) {
+                metrics.onError(Operation.DELETE, location, e);
+                replicaSelector.onFailure(location);
+                failed.add(file);
+                results.put(file, new DeleteResult(file, location, -1, e.toString()));
+            } finally {
+                delete.abort();
+            }
         }
+        return failed;
+    }
 
-        HttpDelete delete = new HttpDelete(url.toString());
-        try {
-            HttpResponse response = httpClient.execute(delete);
-
-            StatusLine line = response.getStatusLine();
-            if (line.getStatusCode() < 200 || line.getStatusCode() > 299) {
-                throw new WeedFSException("Error deleting file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
-                        + line.getReasonPhrase(), EntityUtils.toString(response.getEntity(), "UTF-8"));
-            }
-        } finally {
-            delete.abort();
+    /**
+     * Drops the cached copy of a file the volume server deleted or did not have.
+     */
+    private DeleteResult deleted(WeedFSFile file, Location location, int status, String error) {
+        DeleteResult ret = new DeleteResult(file, location, status, error);
+        if (blobCache != null && (ret.isSuccess() || ret.isNotFound())) {
+            blobCache.invalidate(file);
         }
+        return ret;
     }
 
     @Override
@@ -143,39 +431,127 @@ class WeedFSClientImpl implements WeedFSClient {
         if (lookupCache != null) {
             List<Location> ret = lookupCache.lookup(volumeId);
             if (ret != null) {
-                return ret;
+                metrics.onCacheHit(CacheType.LOOKUP);
+                return replicaSelector.inPreferenceOrder(ret);
             }
+            metrics.onCacheMiss(CacheType.LOOKUP);
         }
 
-        StringBuilder url = new StringBuilder(new URL(masterURL, "/dir/lookup").toExternalForm());
-        url.append("?volumeId=");
-        url.append(volumeId);
+        return replicaSelector.inPreferenceOrder(lookupCoalescer.lookup(volumeId, masterLookup));
+    }
 
-        HttpGet get = new HttpGet(url.toString());
+    private List<Location> lookupFromMaster(long volumeId) throws IOException, WeedFSException {
+        long start = System.nanoTime();
+        LookupResult result;
         try {
-            HttpResponse response = httpClient.execute(get);
+            result = onAnyMaster(master -> lookupUrl(master, volumeId), JsonResponses.LOOKUP);
 
-            String content = getContentOrNull(response);
-            ObjectMapper mapper = new ObjectMapper();
-            try {
-                LookupResult result = mapper.readValue(content, LookupResult.class);
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.onError(Operation.LOOKUP, null, e);
+            throw e;
+        }
+        metrics.onSuccess(Operation.LOOKUP, null, System.nanoTime() - start);
 
-                if (result.error != null) {
-                    throw new WeedFSException(result.error);
-                }
+        if (lookupCache != null) {
+            lookupCache.setLocation(volumeId, result.locations);
+        }
 
-                if (lookupCache != null) {
-                    lookupCache.setLocation(volumeId, result.locations);
+        return result.locations;
+    }
+
+    /**
+     * Sends a request to the leader. If it can not be reached, the new leader is looked for and the request sent to it.
+     */
+    private <T> T onLeader(MasterUrl url, ObjectReader reader) throws IOException {
+        IOException error = null;
+        for (int i = 0; i < masters.size(); i++) {
+            URL leader = masters.getLeader();
+            try {
+                return onMaster(leader, url, reader);
+            } catch (WeedFSException e) {
+                throw e;
+            } catch (IOException e) {
+                error = e;
+                masters.onFailure(leader);
+                if (masters.size() > 1) {
+                    log.warn("Master leader {} failed: {}", leader, e.toString());
+                    findLeader();
                 }
+            }
+        }
+        throw error;
+    }
 
-                return result.locations;
-            } catch (JsonMappingException | JsonParseException e) {
-                throw new WeedFSException("Unable to parse JSON from weed-fs from: " + content, e);
+    /**
+     * Sends a read only request to the followers in turn, then to the leader.
+     */
+    private <T> T onAnyMaster(MasterUrl url, ObjectReader reader) throws IOException {
+        IOException error = null;
+        for (URL master : masters.readOrder()) {
+            try {
+                return onMaster(master, url, reader);
+            } catch (WeedFSException e) {
+                throw e;
+            } catch (IOException e) {
+                error = e;
+                masters.onFailure(master);
+            }
+        }
+        throw error;
+    }
+
+    private <T> T onMaster(URL master, MasterUrl url, ObjectReader reader) throws IOException {
+        HttpGet get = new HttpGet(url.of(master));
+        if (masterRequestConfig != null) {
+            get.setConfig(masterRequestConfig);
+        }
+        try {
+            HttpResponse response = httpClient.execute(get);
+            StatusLine line = response.getStatusLine();
+            if (line.getStatusCode() >= 500) {
+                // not a WeedFSException: an other master may answer
+                throw new IOException("Error from master " + master + ": " + line.getStatusCode() + " " + line.getReasonPhrase());
             }
+            T ret = JsonResponses.read(reader, response);
+            masters.onSuccess(master);
+            return ret;
         } finally {
             get.abort();
         }
+    }
+
+    /**
+     * Asks the masters which did not recently fail who the leader is, falls back to the first of them if none knows.
+     */
+    private void findLeader() {
+        for (URL master : masters.readOrder()) {
+            if (masters.isDown(master)) {
+                continue;
+            }
+            try {
+                ClusterStatus status = onMaster(master, m -> new URL(m, "/cluster/status").toExternalForm(),
+                        JsonResponses.CLUSTER_STATUS);
+                if (status.IsLeader) {
+                    masters.setLeader(master);
+                    return;
+                }
+                if (status.Leader != null && !status.Leader.isEmpty()) {
+                    masters.setLeader(new URL(master.getProtocol() + "://" + status.Leader));
+                    return;
+                }
+            } catch (IOException e) {
+                masters.onFailure(master);
+            }
+        }
+        masters.setLeader(masters.firstUp());
+    }
 
+    @FunctionalInterface
+    private interface MasterUrl {
+        String of(URL master) throws MalformedURLException;
     }
 
     @Override
@@ -199,7 +575,7 @@ class WeedFSClientImpl implements WeedFSClient {
         return write(file, location, null, null, inputToUpload, fileName);
     }
 
-    private String sanitizeFileName(String fileName) {
+    static String sanitizeFileName(String fileName) {
         if (StringUtils.isBlank(fileName)) {
             return "file";
         } else if (fileName.length() > 256) {
@@ -211,22 +587,10 @@ class WeedFSClientImpl implements WeedFSClient {
 
     private int write(WeedFSFile file, Location location, File fileToUpload, byte[] dataToUpload, InputStream inputToUpload, String fileName)
             throws IOException, WeedFSException {
-        StringBuilder url = new StringBuilder();
-        if (!location.publicUrl.contains("http")) {
-            url.append("http://");
-        }
-        url.append(location.publicUrl);
-        url.append('/');
-        url.append(file.fid);
+        HttpPost post = new HttpPost(fileUrl(location, file));
 
-        if (file.version > 0) {
-            url.append('_');
-            url.append(file.version);
-        }
-
-        HttpPost post = new HttpPost(url.toString());
-
-        MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
+        // RFC 6532 mode sends file names in UTF-8, the default one replaces non ASCII characters with '?'
+        MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create().setMode(HttpMultipartMode.RFC6532);
         if (fileToUpload != null) {
             if (fileName == null) {
                 fileName = fileToUpload.getName();
@@ -239,22 +603,155 @@ class WeedFSClientImpl implements WeedFSClient {
         }
         post.setEntity(multipartEntityBuilder.build());
 
+        return executeWrite(post, file, location);
+    }
+
+    @Override
+    public int writeRaw(WeedFSFile file, Location location, File fileToUpload, String mimeType) throws IOException, WeedFSException {
+        if (fileToUpload.length() == 0) {
+            throw new WeedFSException("Cannot write a 0-length file");
+        }
+        return writeRaw(file, location, RawUploadEntity.of(fileToUpload, mimeType), fileToUpload.getName());
+    }
+
+    @Override
+    public int writeRaw(WeedFSFile file, Location location, ByteBuffer dataToUpload, String fileName, String mimeType)
+            throws IOException, WeedFSException {
+        if (!dataToUpload.hasRemaining()) {
+            throw new WeedFSException("Cannot write a 0-length data");
+        }
+        return writeRaw(file, location, RawUploadEntity.of(dataToUpload, mimeType), fileName);
+    }
+
+    private int writeRaw(WeedFSFile file, Location location, RawUploadEntity entity, String fileName) throws IOException,
+            WeedFSException {
+        HttpPost post = new HttpPost(fileUrl(location, file));
+        post.setHeader("Content-Disposition", "attachment; filename=\"" + sanitizeFileName(fileName).replace("\"", "") + "\"");
+        post.setEntity(entity);
+        return executeWrite(post, file, location);
+    }
+
+    @Override
+    public WriteVersionsResult writeVersions(Assignation assignation, List<WritePayload> payloads, boolean deleteOnFailure)
+            throws IOException {
+        int count = payloads.size();
+        if (count > Math.max(1, assignation.getVersionCount())) {
+            throw new IllegalArgumentException(count + " payloads for " + assignation.getVersionCount() + " assigned versions");
+        }
+        final Location location = assignation.location;
+        List<WeedFSFile> files = new ArrayList<>(count);
+        for (int version = 0; version < count; version++) {
+            files.add(new WeedFSFile(assignation.getFid(), version));
+        }
+
+        // the caller thread writes the first version while the executor writes the others
+        List<Future<Integer>> futures = new ArrayList<>(count);
+        for (int version = 1; version < count; version++) {
+            final WritePayload payload = payloads.get(version);
+            final WeedFSFile file = files.get(version);
+            futures.add(executor.submit(() -> payload.write(this, file, location)));
+        }
+
+        List<WriteVersionsResult.VersionResult> results = new ArrayList<>(count);
+        boolean failed = false;
+        try {
+            for (int version = 0; version < count; version++) {
+                int size = -1;
+                Exception error = null;
+                try {
+                    size = version == 0 ? payloads.get(0).write(this, files.get(0), location) : futures.get(version - 1).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    error = (Exception) e.getCause();
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                failed |= error != null;
+                results.add(new WriteVersionsResult.VersionResult(files.get(version), size, error));
+            }
+        } catch (InterruptedException e) {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing versions of " + assignation.getFid());
+        }
+
+        boolean cleanedUp = false;
+        if (failed && deleteOnFailure) {
+            cleanedUp = true;
+            for (WriteVersionsResult.VersionResult result : results) {
+                if (result.error == null) {
+                    try {
+                        delete(result.file, location);
+                    } catch (IOException e) {
+                        cleanedUp = false;
+                        log.warn("Unable to delete partially written version {}", result.file, e);
+                    }
+                }
+            }
+        }
+        return new WriteVersionsResult(results, cleanedUp);
+    }
+
+    @Override
+    public int writeChunkManifest(WeedFSFile file, Location location, ChunkManifest manifest) throws IOException, WeedFSException {
+        HttpPost post = new HttpPost(fileUrl(location, file) + "?cm=true");
+        post.setEntity(MultipartEntityBuilder.create()
+                .setMode(HttpMultipartMode.RFC6532)
+                .addBinaryBody("file", JsonResponses.WRITER.writeValueAsBytes(manifest), ContentType.APPLICATION_JSON,
+                        sanitizeFileName(manifest.name))
+                .build());
+        return executeWrite(post, file, location);
+    }
+
+    @Override
+    public ChunkManifest readChunkManifest(WeedFSFile file, Location location) throws IOException, WeedFSException {
+        HttpGet get = new HttpGet(fileUrl(location, file) + "?cm=false");
+        try {
+            HttpResponse response = httpClient.execute(get);
+            StatusLine line = response.getStatusLine();
+            if (line.getStatusCode() == 404) {
+                throw new WeedFSFileNotFoundException(file, location);
+            }
+            if (line.getStatusCode() != 200) {
+                throw new WeedFSException("Error reading chunk manifest " + file.fid + " on " + location.publicUrl + ": "
+                        + line.getStatusCode() + " " + line.getReasonPhrase());
+            }
+            return JsonResponses.read(JsonResponses.CHUNK_MANIFEST, response);
+        } finally {
+            get.abort();
+        }
+    }
+
+    /**
+     * Sends an upload and drops the cached copy of <code>file</code> once it has been overwritten.
+     */
+    private int executeWrite(HttpPost post, WeedFSFile file, Location location) throws IOException, WeedFSException {
+        long start = System.nanoTime();
         try {
             HttpResponse response = httpClient.execute(post);
 
-            String content = getContentOrNull(response);
-            ObjectMapper mapper = new ObjectMapper();
-            try {
-                WriteResult result = mapper.readValue(content, WriteResult.class);
+            WriteResult result = JsonResponses.read(JsonResponses.WRITE, response);
 
-                if (result.error != null) {
-                    throw new WeedFSException(result.error);
-                }
+            if (result.error != null) {
+                throw new WeedFSException(result.error);
+            }
 
-                return result.size;
-            } catch (JsonMappingException | JsonParseException e) {
-                throw new WeedFSException("Unable to parse JSON from weed-fs from: " + content, e);
+            if (blobCache != null) {
+                blobCache.invalidate(file);
             }
+            metrics.onSuccess(Operation.WRITE, location, System.nanoTime() - start);
+            long sent = post.getEntity().getContentLength();
+            if (sent > 0) {
+                metrics.onBytesSent(location, sent);
+            }
+            return result.size;
+        } catch (IOException | RuntimeException e) {
+            metrics.onError(Operation.WRITE, location, e);
+            throw e;
         } finally {
             post.abort();
         }
@@ -262,99 +759,737 @@ class WeedFSClientImpl implements WeedFSClient {
 
     @Override
     public InputStream read(WeedFSFile file, Location location) throws IOException, WeedFSException, WeedFSFileNotFoundException {
-        StringBuilder url = new StringBuilder();
-        if (!location.publicUrl.contains("http")) {
-            url.append("http://");
-        }
-        url.append(location.publicUrl);
-        url.append('/');
-        url.append(file.fid);
+        return read(file, location, new HttpGet(fileUrl(location, file)));
+    }
 
-        if (file.version > 0) {
-            url.append('_');
-            url.append(file.version);
-        }
-        HttpGet get = new HttpGet(url.toString());
-        HttpResponse response = httpClient.execute(get);
-        StatusLine line = response.getStatusLine();
-        if (line.getStatusCode() == 404) {
-            get.abort();
-            throw new WeedFSFileNotFoundException(file, location);
+    private InputStream read(WeedFSFile file, Location location, HttpGet get) throws IOException, WeedFSException,
+            WeedFSFileNotFoundException {
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = httpClient.execute(get);
+            StatusLine line = response.getStatusLine();
+            if (line.getStatusCode() == 404) {
+                get.abort();
+                throw new WeedFSFileNotFoundException(file, location);
+            }
+            if (line.getStatusCode() != 200) {
+                get.abort();
+                String reason = "Error reading file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
+                        + line.getReasonPhrase();
+                if (line.getStatusCode() >= 500) {
+                    throw new WeedFSServerException(reason, line.getStatusCode());
+                }
+                throw new WeedFSException(reason);
+            }
+            HttpEntity entity = response.getEntity();
+            InputStream ret = entity.getContent();
+            metrics.onSuccess(Operation.READ, location, System.nanoTime() - start);
+            if (entity.getContentLength() > 0) {
+                metrics.onBytesReceived(location, entity.getContentLength());
+            }
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            // losers of hedged reads are aborted, not failed
+            if (!get.isAborted() || e instanceof WeedFSException) {
+                metrics.onError(Operation.READ, location, e);
+            }
+            throw e;
         }
-        if (line.getStatusCode() != 200) {
-            get.abort();
-            throw new WeedFSException("Error reading file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
-                    + line.getReasonPhrase());
+    }
+
+    @Override
+    public RangeReadResult read(WeedFSFile file, Location location, long offset, long length) throws IOException, WeedFSException {
+        if (offset < 0 || length <= 0) {
+            throw new IllegalArgumentException("Invalid range: offset=" + offset + ", length=" + length);
         }
-        return response.getEntity().getContent();
+        return readRange(file, location, offset, length);
     }
 
     @Override
-    public MasterStatus getMasterStatus() throws IOException {
-        URL url = new URL(masterURL, "/dir/status");
+    public RangeReadResult read(WeedFSFile file, Location location, long offset) throws IOException, WeedFSException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        }
+        return readRange(file, location, offset, -1);
+    }
 
-        HttpGet get = new HttpGet(url.toString());
+    @Override
+    public RangeReadResult readLast(WeedFSFile file, Location location, long length) throws IOException, WeedFSException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        return readRange(file, location, -1, length);
+    }
 
+    /**
+     * @param offset -1 for the last <code>length</code> bytes
+     * @param length -1 up to the end of the file
+     */
+    private RangeReadResult readRange(WeedFSFile file, Location location, long offset, long length) throws IOException, WeedFSException {
+        String range;
+        if (offset < 0) {
+            range = "bytes=-" + length;
+        } else if (length < 0) {
+            range = "bytes=" + offset + "-";
+        } else {
+            range = "bytes=" + offset + "-" + (offset + length - 1);
+        }
+        HttpGet get = new HttpGet(fileUrl(location, file));
+        get.setHeader("Range", range);
+        long startNanos = System.nanoTime();
         try {
             HttpResponse response = httpClient.execute(get);
             StatusLine line = response.getStatusLine();
+            HttpEntity entity = response.getEntity();
+            switch (line.getStatusCode()) {
+            case 206: {
+                long[] contentRange = parseContentRange(response.getFirstHeader("Content-Range"));
+                if (contentRange == null) {
+                    throw new WeedFSException("Invalid Content-Range for " + file.fid + " on " + location.publicUrl + ": "
+                            + response.getFirstHeader("Content-Range"));
+                }
+                long rangeLength = contentRange[1] - contentRange[0] + 1;
+                onRangeRead(location, startNanos, rangeLength);
+                return new RangeReadResult(new RangeInputStream(entity.getContent(), get, rangeLength, true), contentRange[0],
+                        rangeLength, contentRange[2], true);
+            }
+            case 200: {
+                // range ignored: skip through the whole file
+                long total = entity.getContentLength();
+                long start;
+                if (offset >= 0) {
+                    start = offset;
+                } else if (total >= 0) {
+                    start = Math.max(0, total - length);
+                } else {
+                    throw new WeedFSException("Server ignored range " + range + " for " + file.fid + " on " + location.publicUrl
+                            + " without telling the file length");
+                }
+                if (total >= 0 && start > 0 && start >= total) {
+                    throw new WeedFSRangeNotSatisfiableException(file, location, range, total);
+                }
+                long end = total;
+                if (offset >= 0 && length > 0) {
+                    end = total < 0 ? offset + length : Math.min(total, offset + length);
+                }
+                long rangeLength = end < 0 ? -1 : end - start;
+                InputStream content = entity.getContent();
+                long skipped = 0;
+                while (skipped < start) {
+                    long n = content.skip(start - skipped);
+                    if (n <= 0) {
+                        if (content.read() == -1) {
+                            throw new WeedFSRangeNotSatisfiableException(file, location, range, skipped);
+                        }
+                        n = 1;
+                    }
+                    skipped += n;
+                }
+                onRangeRead(location, startNanos, rangeLength);
+                return new RangeReadResult(new RangeInputStream(content, get, rangeLength, false), start, rangeLength, total, false);
+            }
+            case 404:
+                throw new WeedFSFileNotFoundException(file, location);
+            case 416: {
+                long[] contentRange = parseContentRange(response.getFirstHeader("Content-Range"));
+                throw new WeedFSRangeNotSatisfiableException(file, location, range, contentRange == null ? -1 : contentRange[2]);
+            }
+            default:
+                throw new WeedFSException("Error reading file " + file.fid + " on " + location.publicUrl + ": " + line.getStatusCode() + " "
+                        + line.getReasonPhrase());
+            }
+        } catch (IOException | RuntimeException e) {
+            get.abort();
+            metrics.onError(Operation.READ, location, e);
+            throw e;
+        }
+    }
 
-            if (line.getStatusCode() != 200) {
-                throw new IOException("Not 200 status recieved for master status url: " + url.toExternalForm());
+    private void onRangeRead(Location location, long startNanos, long length) {
+        metrics.onSuccess(Operation.READ, location, System.nanoTime() - startNanos);
+        if (length > 0) {
+            metrics.onBytesReceived(location, length);
+        }
+    }
+
+    /**
+     * Parses <code>bytes start-end/total</code> and <code>bytes *&#47;total</code>.
+     *
+     * @return start, end and total, -1 when unknown, or null if the header cannot be parsed
+     */
+    static long[] parseContentRange(Header header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.getValue().trim();
+        if (!value.startsWith("bytes ")) {
+            return null;
+        }
+        value = value.substring(6).trim();
+        int slash = value.indexOf('/');
+        if (slash == -1) {
+            return null;
+        }
+        try {
+            String range = value.substring(0, slash);
+            String total = value.substring(slash + 1);
+            long[] ret = { -1, -1, "*".equals(total) ? -1 : Long.parseLong(total) };
+            if (!"*".equals(range)) {
+                int dash = range.indexOf('-');
+                if (dash == -1) {
+                    return null;
+                }
+                ret[0] = Long.parseLong(range.substring(0, dash));
+                ret[1] = Long.parseLong(range.substring(dash + 1));
+            }
+            return ret;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops at the end of the range, and aborts the request if closed before, rather than draining the response.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private final HttpGet get;
+
+        private final boolean rangeIsBody;
+
+        private long remaining;
+
+        private boolean eof;
+
+        /**
+         * @param remaining -1 if unknown
+         * @param rangeIsBody whether the response body ends with the range
+         */
+        RangeInputStream(InputStream in, HttpGet get, long remaining, boolean rangeIsBody) {
+            super(in);
+            this.get = get;
+            this.remaining = remaining;
+            this.rangeIsBody = rangeIsBody;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                eof = true;
+                return -1;
             }
+            int b = super.read();
+            if (b == -1) {
+                eof = true;
+            } else if (remaining > 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                eof = true;
+                return -1;
+            }
+            int n = super.read(b, off, remaining < 0 ? len : (int) Math.min(len, remaining));
+            if (n == -1) {
+                eof = true;
+            } else if (remaining > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(remaining < 0 ? n : Math.min(n, remaining));
+            if (remaining > 0) {
+                remaining -= skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int available = super.available();
+            return remaining < 0 ? available : (int) Math.min(available, remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!eof && !(rangeIsBody && remaining == 0)) {
+                get.abort();
+            }
+            super.close();
+        }
+    }
+
+    @Override
+    public InputStream read(WeedFSFile file) throws IOException, WeedFSException, WeedFSFileNotFoundException {
+        if (blobCache == null) {
+            return readFromReplicas(file);
+        }
+        InputStream ret = blobCache.get(file);
+        if (ret != null) {
+            metrics.onCacheHit(CacheType.BLOB);
+            return ret;
+        }
+        metrics.onCacheMiss(CacheType.BLOB);
+        return new CachingInputStream(readFromReplicas(file), file);
+    }
 
-            String content = getContentOrNull(response);
-            ObjectMapper mapper = new ObjectMapper();
+    /**
+     * Reads from the replica chosen by the selector. Replicas failing to connect or answering with a server error are
+     * demoted and the read fails over at once to the next one; if all of them fail, the cached locations of the volume are
+     * dropped so that the next read asks the master.
+     */
+    private InputStream readFromReplicas(WeedFSFile file) throws IOException, WeedFSException, WeedFSFileNotFoundException {
+        long volumeId = file.getVolumeId();
+        List<Location> locations = lookup(volumeId);
+        if (locations == null || locations.isEmpty()) {
+            throw new WeedFSException("No location found for volume " + volumeId);
+        }
+
+        List<Location> candidates = locations;
+        List<Location> failed = new ArrayList<>(locations.size());
+        Exception error = null;
+        while (true) {
+            Location location = replicaSelector.select(candidates);
             try {
-                return mapper.readValue(content, MasterStatus.class);
+                if (hedgingPolicy != null && candidates.size() > 1) {
+                    return hedgedRead(file, candidates, location, failed);
+                }
+                return readFromReplica(file, location, failed);
+            } catch (IOException | RuntimeException e) {
+                if (!isReplicaFailure(e)) {
+                    throw e;
+                }
+                error = e;
+            }
+            candidates = new ArrayList<>(locations);
+            candidates.removeAll(failed);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            log.info("Failing over from {} for {}: {}", failed, file.fid, error.toString());
+        }
 
-            } catch (JsonMappingException | JsonParseException e) {
-                throw new WeedFSException("Unable to parse JSON from weed-fs from: " + content, e);
+        if (lookupCache != null) {
+            lookupCache.invalidate(volumeId);
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        throw (RuntimeException) error;
+    }
+
+    private InputStream readFromReplica(WeedFSFile file, Location location, List<Location> failed) throws IOException {
+        replicaSelector.onRequestStart(location);
+        long start = System.nanoTime();
+        InputStream ret;
+        try {
+            ret = read(file, location);
+        } catch (IOException | RuntimeException e) {
+            replicaSelector.onRequestEnd(location, System.nanoTime() - start, e instanceof WeedFSFileNotFoundException);
+            onAttemptFailed(file, location, e, failed);
+            throw e;
+        }
+        long latency = System.nanoTime() - start;
+        replicaSelector.recordLatency(location, latency);
+        replicaSelector.onSuccess(location);
+        if (hedgingPolicy != null) {
+            hedgingPolicy.recordLatency(latency);
+        }
+        return new ReplicaInputStream(ret, location);
+    }
+
+    /**
+     * Connection failures and server errors tell about the replica, not about the file.
+     */
+    static boolean isReplicaFailure(Exception e) {
+        return e instanceof WeedFSServerException || e instanceof IOException && !(e instanceof WeedFSException);
+    }
+
+    private void onAttemptFailed(WeedFSFile file, Location location, Exception e, List<Location> failed) {
+        if (isReplicaFailure(e)) {
+            replicaSelector.onFailure(location);
+            failed.add(location);
+        } else {
+            replicaSelector.onSuccess(location);
+        }
+    }
+
+    /**
+     * Reads from <code>location</code>, and from a second replica as well if the first one did not answer within the hedging
+     * delay. The first successful response wins, the other request is aborted.
+     */
+    private InputStream hedgedRead(WeedFSFile file, List<Location> locations, Location location, List<Location> failed)
+            throws IOException {
+        hedgingPolicy.onRequest();
+        BlockingQueue<ReadAttempt> completions = new LinkedBlockingQueue<>();
+        ReadAttempt primary = startReadAttempt(file, location, completions);
+        ReadAttempt hedge = null;
+        ReadAttempt winner = null;
+        try {
+            int pending = 1;
+            ReadAttempt done = completions.poll(hedgingPolicy.getDelayNanos(), TimeUnit.NANOSECONDS);
+            if (done == null) {
+                List<Location> others = new ArrayList<>(locations);
+                others.remove(location);
+                Location other = replicaSelector.select(others);
+                if (other != null && !replicaSelector.isDemoted(other) && hedgingPolicy.tryHedge()) {
+                    hedge = startReadAttempt(file, other, completions);
+                    pending++;
+                }
+                done = completions.take();
+            }
+            while (true) {
+                pending--;
+                if (done.error == null) {
+                    winner = done;
+                    break;
+                }
+                done.finish(done.latencyNanos, done.error instanceof WeedFSFileNotFoundException);
+                onAttemptFailed(file, done.location, done.error, failed);
+                if (pending == 0) {
+                    break;
+                }
+                done = completions.take();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading file " + file.fid);
         } finally {
+            for (ReadAttempt attempt : new ReadAttempt[] { primary, hedge }) {
+                if (attempt != null && attempt != winner) {
+                    attempt.abort();
+                }
+            }
+        }
+
+        if (winner == null) {
+            if (primary.error instanceof IOException) {
+                throw (IOException) primary.error;
+            }
+            throw (RuntimeException) primary.error;
+        }
+        if (winner == hedge) {
+            hedgingPolicy.onHedgeWin();
+        }
+        replicaSelector.recordLatency(winner.location, winner.latencyNanos);
+        replicaSelector.onSuccess(winner.location);
+        // the primary's own time to headers: the time until a hedge won would be cut short and drag the delay down
+        if (primary.hasAnswered() && primary.error == null) {
+            hedgingPolicy.recordLatency(primary.latencyNanos);
+        }
+        return new ReplicaInputStream(winner.stream, winner.location);
+    }
+
+    private ReadAttempt startReadAttempt(WeedFSFile file, Location location, BlockingQueue<ReadAttempt> completions) {
+        ReadAttempt attempt = new ReadAttempt(file, location, completions);
+        replicaSelector.onRequestStart(location);
+        try {
+            executor.execute(attempt);
+        } catch (RuntimeException e) {
+            replicaSelector.onRequestEnd(location, -1, false);
+            throw e;
+        }
+        return attempt;
+    }
+
+    /**
+     * One of the requests of a hedged read. Runs on the executor, the calling thread does all the accounting.
+     */
+    private class ReadAttempt implements Runnable {
+
+        final WeedFSFile file;
+
+        final Location location;
+
+        final HttpGet get;
+
+        final BlockingQueue<ReadAttempt> completions;
+
+        final long start = System.nanoTime();
+
+        volatile long latencyNanos = -1;
+
+        volatile InputStream stream;
+
+        volatile Exception error;
+
+        private boolean finished;
+
+        ReadAttempt(WeedFSFile file, Location location, BlockingQueue<ReadAttempt> completions) {
+            this.file = file;
+            this.location = location;
+            this.get = new HttpGet(fileUrl(location, file));
+            this.completions = completions;
+        }
+
+        @Override
+        public void run() {
+            try {
+                stream = read(file, location, get);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            latencyNanos = System.nanoTime() - start;
+            completions.add(this);
+        }
+
+        boolean hasAnswered() {
+            return latencyNanos >= 0;
+        }
+
+        void finish(long latencyNanos, boolean success) {
+            if (!finished) {
+                finished = true;
+                replicaSelector.onRequestEnd(location, latencyNanos, success);
+            }
+        }
+
+        /**
+         * Releases the connection whatever the state of the request; a slow loser is accounted with the time it has taken so
+         * far.
+         */
+        void abort() {
             get.abort();
+            finish(System.nanoTime() - start, true);
+        }
+    }
+
+    /**
+     * Keeps the read accounted as in flight on its replica until the body is consumed.
+     */
+    private class ReplicaInputStream extends FilterInputStream {
+
+        private final Location location;
+
+        private boolean closed;
+
+        ReplicaInputStream(InputStream in, Location location) {
+            super(in);
+            this.location = location;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                replicaSelector.onRequestEnd(location, -1, true);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Stores the content into the blob cache once it has been entirely read.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final WeedFSFile file;
+
+        private ContentBuffer content = new ContentBuffer();
+
+        CachingInputStream(InputStream in, WeedFSFile file) {
+            super(in);
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete();
+            } else if (content != null) {
+                content.write(b);
+                checkSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                complete();
+            } else if (content != null) {
+                content.write(b, off, n);
+                checkSize();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes must be cached too
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkSize() {
+            if (!blobCache.accepts(content.size())) {
+                content = null;
+            }
+        }
+
+        private void complete() {
+            if (content != null) {
+                blobCache.put(file, content.toByteBuffer());
+                content = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // not entirely read: not cached
+            content = null;
+            super.close();
+        }
+    }
+
+    private static class ContentBuffer extends ByteArrayOutputStream {
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
         }
     }
 
+    @Override
+    public MasterStatus getMasterStatus() throws IOException {
+        return onLeader(master -> new URL(master, "/dir/status").toExternalForm(), JsonResponses.MASTER_STATUS);
+    }
+
     @Override
     public VolumeStatus getVolumeStatus(Location location) throws IOException {
-        StringBuilder url = new StringBuilder();
-        if (!location.publicUrl.contains("http")) {
-            url.append("http://");
-        }
-        url.append(location.publicUrl);
-        url.append("/status");
+        String url = volumeServerUrl(location) + "/status";
 
-        HttpGet get = new HttpGet(url.toString());
+        HttpGet get = new HttpGet(url);
 
         try {
             HttpResponse response = httpClient.execute(get);
             StatusLine line = response.getStatusLine();
 
             if (line.getStatusCode() != 200) {
-                throw new IOException("Not 200 status recieved for master status url: " + url.toString());
+                throw new IOException("Not 200 status recieved for master status url: " + url);
             }
 
-            String content = getContentOrNull(response);
-            ObjectMapper mapper = new ObjectMapper();
-            try {
-                return mapper.readValue(content, VolumeStatus.class);
-
-            } catch (JsonMappingException | JsonParseException e) {
-                throw new WeedFSException("Unable to parse JSON from weed-fs from: " + content, e);
-            }
+            return JsonResponses.read(JsonResponses.VOLUME_STATUS, response);
         } finally {
             get.abort();
         }
     }
 
-    private String getContentOrNull(HttpResponse response) throws IOException {
-        return convertStreamToString(response.getEntity().getContent());
+    @Override
+    public int refreshVolumeServerRoutes() throws IOException {
+        if (connectionManager == null || maxConnectionsPerVolumeServer <= 0) {
+            return 0;
+        }
+        MasterStatus status = getMasterStatus();
+        if (status.Topology == null) {
+            return 0;
+        }
+        int ret = 0;
+        for (DataNode node : status.Topology.getDataNodes()) {
+            HttpRoute route = new HttpRoute(toHttpHost(node.asLocation()));
+            // do not override limits explicitly set for a given volume server
+            if (!explicitVolumeServerRoutes.contains(route)) {
+                connectionManager.setMaxPerRoute(route, maxConnectionsPerVolumeServer);
+                ret++;
+            }
+        }
+        return ret;
     }
 
-    private static String convertStreamToString(java.io.InputStream is) {
-        try (java.util.Scanner s = new java.util.Scanner(is, "UTF-8")) {
-            return s.useDelimiter("\\A").hasNext() ? s.next() : "";
+    @Override
+    public void close() throws IOException {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+        if (ownsHttpClient && httpClient instanceof Closeable) {
+            ((Closeable) httpClient).close();
+        }
+    }
+
+    static String assignUrl(URL masterURL, AssignParams params) throws MalformedURLException {
+        StringBuilder url = new StringBuilder(new URL(masterURL, "/dir/assign").toExternalForm());
+        char separator = '?';
+
+        if (params.versionCount > 0) {
+            url.append(separator).append("count=").append(params.versionCount);
+            separator = '&';
+        }
+
+        if (params.replicationStrategy != null) {
+            url.append(separator).append("replication=").append(params.replicationStrategy.parameterValue);
+            separator = '&';
+        }
+
+        if (params.collection != null) {
+            url.append(separator).append("collection=").append(params.collection);
+        }
+
+        return url.toString();
+    }
+
+    static String lookupUrl(URL masterURL, long volumeId) throws MalformedURLException {
+        return new URL(masterURL, "/dir/lookup").toExternalForm() + "?volumeId=" + volumeId;
+    }
+
+    static String volumeServerUrl(Location location) {
+        if (!location.publicUrl.contains("http")) {
+            return "http://" + location.publicUrl;
+        }
+        return location.publicUrl;
+    }
+
+    static String fileUrl(Location location, WeedFSFile file) {
+        StringBuilder url = new StringBuilder();
+        if (!location.publicUrl.contains("http")) {
+            url.append("http://");
+        }
+        url.append(location.publicUrl);
+        url.append('/');
+        url.append(file.fid);
+
+        if (file.version > 0) {
+            url.append('_');
+            url.append(file.version);
+        }
+        return url.toString();
+    }
+
+    static HttpHost toHttpHost(Location location) {
+        URL url;
+        try {
+            url = new URL(volumeServerUrl(location));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid location: " + location, e);
         }
+        return new HttpHost(url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort(), url.getProtocol());
     }
 }
@@ -22,8 +22,12 @@ package com.scoopit.weedfs.client;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
+import com.scoopit.weedfs.client.net.ChunkManifest;
 import com.scoopit.weedfs.client.status.MasterStatus;
 import com.scoopit.weedfs.client.status.VolumeStatus;
 
@@ -51,10 +55,42 @@ public class WeedFSClientMock implements WeedFSClient {
         return 0;
     }
 
+    @Override
+    public int writeRaw(WeedFSFile file, Location location, File fileToUpload, String mimeType) throws IOException, WeedFSException {
+        return 0;
+    }
+
+    @Override
+    public int writeRaw(WeedFSFile file, Location location, ByteBuffer dataToUpload, String fileName, String mimeType)
+            throws IOException, WeedFSException {
+        return 0;
+    }
+
+    @Override
+    public WriteVersionsResult writeVersions(Assignation assignation, List<WritePayload> payloads, boolean deleteOnFailure)
+            throws IOException {
+        return null;
+    }
+
+    @Override
+    public int writeChunkManifest(WeedFSFile file, Location location, ChunkManifest manifest) throws IOException, WeedFSException {
+        return 0;
+    }
+
+    @Override
+    public ChunkManifest readChunkManifest(WeedFSFile file, Location location) throws IOException, WeedFSException {
+        return null;
+    }
+
     @Override
     public void delete(WeedFSFile file, Location location) throws IOException, WeedFSException {
     }
 
+    @Override
+    public Map<WeedFSFile, DeleteResult> deleteAll(Collection<WeedFSFile> files) throws IOException {
+        return null;
+    }
+
     @Override
     public List<Location> lookup(long volumeId) throws IOException, WeedFSException {
         return null;
@@ -65,6 +101,26 @@ public class WeedFSClientMock implements WeedFSClient {
         return null;
     }
 
+    @Override
+    public RangeReadResult read(WeedFSFile file, Location location, long offset, long length) throws IOException, WeedFSException {
+        return null;
+    }
+
+    @Override
+    public RangeReadResult read(WeedFSFile file, Location location, long offset) throws IOException, WeedFSException {
+        return null;
+    }
+
+    @Override
+    public RangeReadResult readLast(WeedFSFile file, Location location, long length) throws IOException, WeedFSException {
+        return null;
+    }
+
+    @Override
+    public InputStream read(WeedFSFile file) throws IOException, WeedFSException {
+        return null;
+    }
+
     @Override
     public MasterStatus getMasterStatus() {
         return null;
@@ -75,4 +131,13 @@ public class WeedFSClientMock implements WeedFSClient {
         return null;
     }
 
+    @Override
+    public int refreshVolumeServerRoutes() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
 }
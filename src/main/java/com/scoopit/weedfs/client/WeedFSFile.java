@@ -74,6 +74,26 @@ public class WeedFSFile {
         return cookie;
     }
 
+    /**
+     * Files are equal if they have the same fid and version.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof WeedFSFile)) {
+            return false;
+        }
+        WeedFSFile other = (WeedFSFile) obj;
+        return version == other.version && (fid == null ? other.fid == null : fid.equals(other.fid));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (fid == null ? 0 : fid.hashCode()) + version;
+    }
+
     @Override
     public String toString() {
         return "WeedFSFile [fid=" + fid + ", version=" + version + "]";
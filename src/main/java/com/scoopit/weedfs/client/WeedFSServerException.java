@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+/**
+ * A volume server answered with a 5xx status.
+ */
+public class WeedFSServerException extends WeedFSException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public WeedFSServerException(String reason, int status) {
+        super(reason);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
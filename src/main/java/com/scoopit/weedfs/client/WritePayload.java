@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Content of one version written by {@link WeedFSClient#writeVersions(Assignation, java.util.List, boolean)}.
+ */
+public abstract class WritePayload {
+
+    private WritePayload() {
+    }
+
+    abstract int write(WeedFSClient client, WeedFSFile file, Location location) throws IOException;
+
+    /**
+     * Multipart upload of a file.
+     */
+    public static WritePayload of(final File file) {
+        return new WritePayload() {
+            @Override
+            int write(WeedFSClient client, WeedFSFile weedFSFile, Location location) throws IOException {
+                return client.write(weedFSFile, location, file);
+            }
+        };
+    }
+
+    /**
+     * Multipart upload of a byte array.
+     */
+    public static WritePayload of(final byte[] data, final String fileName) {
+        return new WritePayload() {
+            @Override
+            int write(WeedFSClient client, WeedFSFile weedFSFile, Location location) throws IOException {
+                return client.write(weedFSFile, location, data, fileName);
+            }
+        };
+    }
+
+    /**
+     * Raw upload of a file, see {@link WeedFSClient#writeRaw(WeedFSFile, Location, File, String)}.
+     */
+    public static WritePayload raw(final File file, final String mimeType) {
+        return new WritePayload() {
+            @Override
+            int write(WeedFSClient client, WeedFSFile weedFSFile, Location location) throws IOException {
+                return client.writeRaw(weedFSFile, location, file, mimeType);
+            }
+        };
+    }
+
+    /**
+     * Raw upload of a buffer, see {@link WeedFSClient#writeRaw(WeedFSFile, Location, ByteBuffer, String, String)}.
+     */
+    public static WritePayload raw(final ByteBuffer data, final String fileName, final String mimeType) {
+        return new WritePayload() {
+            @Override
+            int write(WeedFSClient client, WeedFSFile weedFSFile, Location location) throws IOException {
+                return client.writeRaw(weedFSFile, location, data, fileName, mimeType);
+            }
+        };
+    }
+}
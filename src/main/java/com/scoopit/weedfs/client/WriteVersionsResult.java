@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link WeedFSClient#writeVersions(Assignation, List, boolean)}, one {@link VersionResult} per payload, in
+ * version order.
+ */
+public class WriteVersionsResult {
+
+    private final List<VersionResult> versions;
+
+    private final boolean cleanedUp;
+
+    WriteVersionsResult(List<VersionResult> versions, boolean cleanedUp) {
+        this.versions = Collections.unmodifiableList(versions);
+        this.cleanedUp = cleanedUp;
+    }
+
+    public List<VersionResult> getVersions() {
+        return versions;
+    }
+
+    public boolean isSuccess() {
+        for (VersionResult version : versions) {
+            if (version.error != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<VersionResult> getFailures() {
+        List<VersionResult> ret = new ArrayList<>();
+        for (VersionResult version : versions) {
+            if (version.error != null) {
+                ret.add(version);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether the versions written successfully were deleted because another one failed
+     */
+    public boolean isCleanedUp() {
+        return cleanedUp;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteVersionsResult [versions=" + versions + ", cleanedUp=" + cleanedUp + "]";
+    }
+
+    public static class VersionResult {
+
+        public final WeedFSFile file;
+
+        /**
+         * Size reported by the volume server, -1 on error.
+         */
+        public final int size;
+
+        public final Exception error;
+
+        VersionResult(WeedFSFile file, int size, Exception error) {
+            this.file = file;
+            this.size = size;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "VersionResult [file=" + file + ", size=" + size + ", error=" + error + "]";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+import com.scoopit.weedfs.client.WeedFSFile;
+
+/**
+ * Local cache of file contents, keyed by fid and version, consulted by {@link com.scoopit.weedfs.client.WeedFSClient#read(WeedFSFile)}
+ * before going to a volume server.
+ */
+public interface BlobCache {
+
+    /**
+     * @return the cached content of the file, or null
+     */
+    InputStream get(WeedFSFile file);
+
+    /**
+     * @param size size of a blob in bytes
+     * @return whether a blob of this size would be stored by {@link #put(WeedFSFile, ByteBuffer)}
+     */
+    boolean accepts(long size);
+
+    /**
+     * Stores the remaining bytes of <code>content</code>, which is left untouched.
+     */
+    void put(WeedFSFile file, ByteBuffer content);
+
+    void invalidate(WeedFSFile file);
+
+    /**
+     * Called by the client owning this cache with a listener to notify of evictions, with the number of blobs evicted.
+     */
+    default void setEvictionListener(LongConsumer listener) {
+    }
+}
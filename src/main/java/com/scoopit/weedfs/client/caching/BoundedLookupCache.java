@@ -0,0 +1,340 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Bounded lookup cache keyed by primitive volume ids.
+ * <p>
+ * Entries live in open addressing tables (linear probing, one table per segment) made of parallel primitive arrays, so
+ * volume ids are never boxed. Lookups run under an optimistic {@link StampedLock} read and do not allocate. When a
+ * segment is full, an entry is evicted according to the {@link EvictionPolicy}. Entries can optionally expire a fixed time
+ * after they have been written.
+ */
+public class BoundedLookupCache implements LookupCache {
+
+    public enum EvictionPolicy {
+        /**
+         * Second chance (CLOCK): entries read since the hand last passed are skipped once, approximating LRU.
+         */
+        CLOCK,
+        /**
+         * Evicts the oldest written entry among a few sampled ones, approximating FIFO.
+         */
+        SAMPLED_OLDEST
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private static final int SAMPLE_SIZE = 8;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final EvictionPolicy evictionPolicy;
+
+    private final long expireAfterWriteNanos;
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    private volatile LongConsumer evictionListener;
+
+    public BoundedLookupCache(int maxSize) {
+        this(maxSize, EvictionPolicy.CLOCK, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param expireAfterWrite how long an entry is valid after being written, 0 for no expiry
+     */
+    public BoundedLookupCache(int maxSize, EvictionPolicy evictionPolicy, long expireAfterWrite, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * MIN_SEGMENT_CAPACITY <= maxSize) {
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        this.evictionPolicy = evictionPolicy;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    }
+
+    @Override
+    public List<Location> lookup(long volumeId) {
+        long hash = hash(volumeId);
+        return segmentFor(hash).lookup(volumeId, (int) hash);
+    }
+
+    @Override
+    public void setLocation(long volumeId, List<Location> locations) {
+        if (locations != null) {
+            long hash = hash(volumeId);
+            segmentFor(hash).put(volumeId, (int) hash, locations);
+        }
+    }
+
+    @Override
+    public void invalidate(long volumeId) {
+        long hash = hash(volumeId);
+        segmentFor(hash).remove(volumeId, (int) hash);
+    }
+
+    @Override
+    public void invalidate() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        this.evictionListener = listener;
+    }
+
+    public int size() {
+        int ret = 0;
+        for (Segment segment : segments) {
+            ret += segment.size;
+        }
+        return ret;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    private static long hash(long volumeId) {
+        long h = volumeId * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32) & 0xFFFFFFFFL;
+    }
+
+    private final class Segment {
+
+        final StampedLock lock = new StampedLock();
+
+        final int capacity;
+
+        final int mask;
+
+        final long[] keys;
+
+        final Object[] values;
+
+        final long[] writtenAt;
+
+        final byte[] referenced;
+
+        int size;
+
+        int hand;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            int length = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            this.mask = length - 1;
+            this.keys = new long[length];
+            this.values = new Object[length];
+            this.writtenAt = new long[length];
+            this.referenced = new byte[length];
+        }
+
+        List<Location> lookup(long volumeId, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            int slot = find(volumeId, hash);
+            Object value = slot < 0 ? null : values[slot];
+            long written = slot < 0 ? 0 : writtenAt[slot];
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    slot = find(volumeId, hash);
+                    value = slot < 0 ? null : values[slot];
+                    written = slot < 0 ? 0 : writtenAt[slot];
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (value == null) {
+                return null;
+            }
+            if (expireAfterWriteNanos > 0 && System.nanoTime() - written >= expireAfterWriteNanos) {
+                expire(volumeId, hash, written);
+                return null;
+            }
+            if (referenced[slot] == 0) {
+                // racy on purpose: a lost update only costs a second chance
+                referenced[slot] = 1;
+            }
+            @SuppressWarnings("unchecked")
+            List<Location> ret = (List<Location>) value;
+            return ret;
+        }
+
+        void put(long volumeId, int hash, List<Location> locations) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = find(volumeId, hash);
+                if (slot < 0) {
+                    if (size >= capacity) {
+                        evict();
+                    }
+                    slot = hash & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = volumeId;
+                    size++;
+                }
+                values[slot] = locations;
+                writtenAt[slot] = System.nanoTime();
+                referenced[slot] = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(long volumeId, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = find(volumeId, hash);
+                if (slot >= 0) {
+                    removeAt(slot);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                Arrays.fill(values, null);
+                Arrays.fill(referenced, (byte) 0);
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void expire(long volumeId, int hash, long written) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = find(volumeId, hash);
+                // it may have been refreshed meanwhile
+                if (slot >= 0 && writtenAt[slot] == written) {
+                    removeAt(slot);
+                    expirations.increment();
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return the slot holding <code>volumeId</code>, or -1. Bounded even when racing with writers.
+         */
+        private int find(long volumeId, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                if (values[slot] == null) {
+                    return -1;
+                }
+                if (keys[slot] == volumeId) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void evict() {
+            int victim = evictionPolicy == EvictionPolicy.CLOCK ? clockVictim() : sampledOldestVictim();
+            removeAt(victim);
+            evictions.increment();
+            LongConsumer listener = evictionListener;
+            if (listener != null) {
+                listener.accept(1);
+            }
+        }
+
+        private int clockVictim() {
+            while (true) {
+                hand = (hand + 1) & mask;
+                if (values[hand] == null) {
+                    continue;
+                }
+                if (expireAfterWriteNanos > 0 && System.nanoTime() - writtenAt[hand] >= expireAfterWriteNanos) {
+                    return hand;
+                }
+                if (referenced[hand] == 0) {
+                    return hand;
+                }
+                referenced[hand] = 0;
+            }
+        }
+
+        private int sampledOldestVictim() {
+            int victim = -1;
+            for (int sampled = 0; sampled < SAMPLE_SIZE && sampled < size; ) {
+                hand = (hand + 1) & mask;
+                if (values[hand] == null) {
+                    continue;
+                }
+                if (victim < 0 || writtenAt[hand] - writtenAt[victim] < 0) {
+                    victim = hand;
+                }
+                sampled++;
+            }
+            return victim;
+        }
+
+        /**
+         * Backward shift deletion, which keeps probe sequences intact without tombstones.
+         */
+        private void removeAt(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (values[next] == null) {
+                    break;
+                }
+                int home = (int) hash(keys[next]) & mask;
+                // the entry can fill the hole unless its home slot lies cyclically in (hole, next]
+                boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!stays) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    writtenAt[hole] = writtenAt[next];
+                    referenced[hole] = referenced[next];
+                    hole = next;
+                }
+            }
+            values[hole] = null;
+            referenced[hole] = 0;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.WeedFSFile;
+
+/**
+ * Blob cache stored in a directory of preallocated, memory mapped segment files.
+ * <p>
+ * Blobs are appended to the active segment as self describing records (key, length, checksum, content). When it is full,
+ * the least recently accessed segment is emptied and becomes the active one: eviction is by total bytes, at the segment
+ * granularity. The index is rebuilt at startup by scanning the segments, so the cache survives restarts; records torn by a
+ * crash are detected by their checksum.
+ * <p>
+ * Blobs larger than a quarter of a segment are not cached.
+ */
+public class DiskBlobCache implements BlobCache, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskBlobCache.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final long SEGMENT_MAGIC = 0x5745454446534243L;
+
+    private static final int RECORD_MAGIC = 0x57424c42;
+
+    private static final int SEGMENT_HEADER_SIZE = 16;
+
+    // magic, generation, flags, key length, content length, checksum
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 2 + 4 + 4;
+
+    private static final int FLAGS_OFFSET = 12;
+
+    private static final byte FLAG_DELETED = 1;
+
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+
+    private final Segment[] segments;
+
+    private final int segmentSize;
+
+    private final int maxBlobSize;
+
+    /**
+     * Logical clock giving segment generations and access times.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    private Segment active;
+
+    private boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBlobs = new AtomicLong();
+
+    private volatile LongConsumer evictionListener;
+
+    /**
+     * @param maxBytes disk space used by the cache, split in segments of at most {@link #DEFAULT_SEGMENT_SIZE}
+     */
+    public DiskBlobCache(File directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, (int) Math.min(DEFAULT_SEGMENT_SIZE, Math.max(1 << 20, maxBytes / 8)));
+    }
+
+    public DiskBlobCache(File directory, long maxBytes, int segmentSize) throws IOException {
+        if (segmentSize < 4 * (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) || maxBytes < 2L * segmentSize) {
+            throw new IllegalArgumentException("Expected at least two segments of a reasonable size: " + maxBytes + ", " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+        this.segmentSize = segmentSize;
+        this.maxBlobSize = (segmentSize - SEGMENT_HEADER_SIZE) / 4;
+        this.segments = new Segment[(int) (maxBytes / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = openSegment(new File(directory, String.format("segment-%04d.dat", i)));
+        }
+        recover();
+    }
+
+    private Segment openSegment(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != segmentSize) {
+                // created, or written with another segment size: start over
+                raf.setLength(0);
+                raf.setLength(segmentSize);
+            }
+            // the mapping stays valid once the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            Segment segment = new Segment(buffer);
+            if (buffer.getLong(0) == SEGMENT_MAGIC) {
+                segment.generation = buffer.getLong(8);
+            }
+            return segment;
+        }
+    }
+
+    private void recover() {
+        Segment[] byGeneration = segments.clone();
+        Arrays.sort(byGeneration, Comparator.comparingLong((Segment s) -> s.generation));
+        int blobs = 0;
+        for (Segment segment : byGeneration) {
+            segment.lastAccess = segment.generation;
+            if (segment.generation == 0) {
+                continue;
+            }
+            clock.set(segment.generation);
+            active = segment;
+            segment.position = scan(segment);
+        }
+        for (Entry entry : index.values()) {
+            entry.segment.keys.add(entry.key);
+            blobs++;
+        }
+        log.info("Disk blob cache opened with {} blobs in {} segments", blobs, segments.length);
+    }
+
+    /**
+     * @return the position after the last valid record
+     */
+    private int scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= segmentSize) {
+            buffer.position(position);
+            if (buffer.getInt() != RECORD_MAGIC || buffer.getLong() != segment.generation) {
+                break;
+            }
+            byte flags = buffer.get();
+            int keyLength = buffer.getShort();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            int dataOffset = position + RECORD_HEADER_SIZE + keyLength;
+            if (keyLength <= 0 || length < 0 || (long) dataOffset + length > segmentSize) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            buffer.get(key);
+            ByteBuffer content = buffer.slice();
+            content.limit(length);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(content);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Corrupted record in disk blob cache at {}, ignoring the rest of the segment", position);
+                break;
+            }
+            if ((flags & FLAG_DELETED) == 0) {
+                String k = new String(key, StandardCharsets.UTF_8);
+                index.put(k, new Entry(k, segment, segment.generation, position, dataOffset, length));
+            }
+            position = dataOffset + length;
+        }
+        return position;
+    }
+
+    @Override
+    public InputStream get(WeedFSFile file) {
+        Entry entry = index.get(file.getFidWithVersion());
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Segment segment = entry.segment;
+        byte[] content = new byte[entry.length];
+        segment.lock.readLock().lock();
+        try {
+            if (segment.generation != entry.generation) {
+                // evicted meanwhile
+                misses.incrementAndGet();
+                return null;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(entry.dataOffset);
+            buffer.get(content);
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        segment.lastAccess = clock.incrementAndGet();
+        hits.incrementAndGet();
+        bytesServed.addAndGet(content.length);
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public boolean accepts(long size) {
+        return size >= 0 && size <= maxBlobSize;
+    }
+
+    @Override
+    public void put(WeedFSFile file, ByteBuffer content) {
+        int length = content.remaining();
+        String key = file.getFidWithVersion();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (!accepts(length) || keyBytes.length > Short.MAX_VALUE) {
+            return;
+        }
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length + length;
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(content.duplicate());
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (active == null || active.position + recordSize > segmentSize) {
+                roll();
+            }
+            Segment segment = active;
+            int position = segment.position;
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position + 4);
+            buffer.putLong(segment.generation);
+            buffer.put((byte) 0);
+            buffer.putShort((short) keyBytes.length);
+            buffer.putInt(length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(keyBytes);
+            buffer.put(content.duplicate());
+            // written last so that a partial record is never taken for a valid one
+            buffer.putInt(position, RECORD_MAGIC);
+
+            segment.position = position + recordSize;
+            segment.lastAccess = clock.incrementAndGet();
+            segment.keys.add(key);
+            Entry previous = index.put(key, new Entry(key, segment, segment.generation, position,
+                    position + RECORD_HEADER_SIZE + keyBytes.length, length));
+            if (previous != null) {
+                markDeleted(previous);
+            }
+        }
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        this.evictionListener = listener;
+    }
+
+    @Override
+    public void invalidate(WeedFSFile file) {
+        Entry entry = index.remove(file.getFidWithVersion());
+        if (entry != null) {
+            synchronized (this) {
+                if (!closed) {
+                    markDeleted(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * So that the record is not indexed again at the next startup. Must hold the cache lock.
+     */
+    private void markDeleted(Entry entry) {
+        if (entry.segment.generation == entry.generation) {
+            entry.segment.buffer.put(entry.recordOffset + FLAGS_OFFSET, FLAG_DELETED);
+        }
+    }
+
+    /**
+     * Empties the least recently accessed segment and makes it the active one. Must hold the cache lock.
+     */
+    private void roll() {
+        Segment next = null;
+        for (Segment segment : segments) {
+            if (segment != active && (next == null || segment.lastAccess < next.lastAccess)) {
+                next = segment;
+            }
+        }
+
+        int evicted = 0;
+        next.lock.writeLock().lock();
+        try {
+            for (String key : next.keys) {
+                Entry entry = index.get(key);
+                if (entry != null && entry.segment == next && entry.generation == next.generation && index.remove(key, entry)) {
+                    evicted++;
+                }
+            }
+            if (next.generation != 0) {
+                evictions.incrementAndGet();
+                evictedBlobs.addAndGet(evicted);
+                LongConsumer listener = evictionListener;
+                if (listener != null) {
+                    listener.accept(evicted);
+                }
+            }
+            next.keys.clear();
+            next.generation = clock.incrementAndGet();
+            next.buffer.putLong(8, next.generation);
+            next.buffer.putLong(0, SEGMENT_MAGIC);
+            next.position = SEGMENT_HEADER_SIZE;
+            next.lastAccess = next.generation;
+        } finally {
+            next.lock.writeLock().unlock();
+        }
+        active = next;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * @return the number of segments emptied to make room
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of blobs dropped with the evicted segments
+     */
+    public long getEvictedBlobCount() {
+        return evictedBlobs.get();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Flushes the segments to disk. The cache does not store anything afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * Keys written in the current generation, guarded by the cache lock.
+         */
+        final List<String> keys = new ArrayList<>();
+        /**
+         * 0 for a segment never written. Changed under the cache lock and the write lock of the segment.
+         */
+        volatile long generation;
+        /**
+         * Write position, guarded by the cache lock.
+         */
+        int position = SEGMENT_HEADER_SIZE;
+        volatile long lastAccess;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final Segment segment;
+        final long generation;
+        final int recordOffset;
+        final int dataOffset;
+        final int length;
+
+        Entry(String key, Segment segment, long generation, int recordOffset, int dataOffset, int length) {
+            this.key = key;
+            this.segment = segment;
+            this.generation = generation;
+            this.recordOffset = recordOffset;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+    }
+}
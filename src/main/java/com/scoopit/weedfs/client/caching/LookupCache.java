@@ -1,6 +1,8 @@
 package com.scoopit.weedfs.client.caching;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 import com.scoopit.weedfs.client.Location;
 
@@ -13,4 +15,27 @@ public interface LookupCache {
     void invalidate();
 
     void setLocation(long volumeId, List<Location> locations);
+
+    /**
+     * Bulk load, for instance when warming the cache up from the cluster topology.
+     */
+    default void setLocations(Map<Long, List<Location>> locationsByVolume) {
+        for (Map.Entry<Long, List<Location>> e : locationsByVolume.entrySet()) {
+            setLocation(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Called by the client owning this cache with a loader the cache may use to refresh entries by itself. The loader
+     * stores what it fetched through {@link #setLocation(long, List)}.
+     */
+    default void setLookupLoader(LookupLoader loader) {
+    }
+
+    /**
+     * Called by the client owning this cache with a listener to notify of evictions, with the number of entries evicted.
+     * Caches which never evict can ignore it.
+     */
+    default void setEvictionListener(LongConsumer listener) {
+    }
 }
@@ -0,0 +1,81 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Single flight for volume lookups: concurrent misses on the same volume share one call to the master, and all get its
+ * result or its error.
+ */
+public class LookupCoalescer {
+
+    private final ConcurrentHashMap<Long, CompletableFuture<List<Location>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public List<Location> lookup(long volumeId, LookupLoader loader) throws IOException {
+        CompletableFuture<List<Location>> mine = new CompletableFuture<>();
+        CompletableFuture<List<Location>> existing = inFlight.putIfAbsent(volumeId, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        lookups.incrementAndGet();
+        try {
+            List<Location> ret = loader.load(volumeId);
+            mine.complete(ret);
+            return ret;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(volumeId, mine);
+        }
+    }
+
+    /**
+     * @return the number of lookups actually sent to the master
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /**
+     * @return the number of lookups which waited for an in flight lookup instead of calling the master
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private static List<Location> await(CompletableFuture<List<Location>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an in flight lookup");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
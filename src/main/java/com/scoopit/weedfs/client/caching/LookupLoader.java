@@ -0,0 +1,14 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Fetches the locations of a volume from the master, bypassing any cache.
+ */
+public interface LookupLoader {
+
+    List<Location> load(long volumeId) throws IOException;
+}
@@ -0,0 +1,386 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import com.scoopit.weedfs.client.WeedFSFile;
+
+/**
+ * Blob cache for small and hot files, bounded by the total size of the blobs it holds.
+ * <p>
+ * Admission follows W-TinyLFU: new blobs enter a small LRU window (1% of the budget). Blobs leaving the window only make it
+ * to the main segmented LRU if they have been requested more often than the blob they would evict, according to a
+ * count-min sketch of recent requests. One hit wonders therefore do not flush hot blobs out.
+ * <p>
+ * Hits are served without copying: {@link #getBuffer(WeedFSFile)} returns a read only view of the cached buffer, which may
+ * be on heap or direct.
+ */
+public class MemoryBlobCache implements BlobCache {
+
+    private final ConcurrentHashMap<String, Node> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the queues, the sketch and the byte counters. Reads only update them if it is free.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+
+    private final FrequencySketch sketch;
+
+    private final long maxBytes;
+    private final long maxWindowBytes;
+    private final long maxProtectedBytes;
+    private final long maxBlobSize;
+    private final boolean direct;
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    private volatile LongConsumer evictionListener;
+
+    public MemoryBlobCache(long maxBytes) {
+        this(maxBytes, Math.max(1, maxBytes / 64), false);
+    }
+
+    /**
+     * @param maxBlobSize larger blobs are not cached
+     * @param direct whether blobs are stored out of the heap
+     */
+    public MemoryBlobCache(long maxBytes, long maxBlobSize, boolean direct) {
+        if (maxBytes <= 0 || maxBlobSize <= 0 || maxBlobSize > maxBytes) {
+            throw new IllegalArgumentException("Expected 0 < maxBlobSize <= maxBytes: " + maxBlobSize + ", " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.maxWindowBytes = Math.max(maxBlobSize, maxBytes / 100);
+        this.maxProtectedBytes = (long) ((maxBytes - Math.min(maxWindowBytes, maxBytes)) * 0.8);
+        this.maxBlobSize = maxBlobSize;
+        this.direct = direct;
+        // one counter per average blob, assuming blobs are a tenth of the maximum size
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(64, 10 * maxBytes / maxBlobSize)));
+    }
+
+    @Override
+    public InputStream get(WeedFSFile file) {
+        ByteBuffer buffer = getBuffer(file);
+        return buffer == null ? null : new ByteBufferInputStream(buffer);
+    }
+
+    /**
+     * @return a read only view of the cached content, or null
+     */
+    public ByteBuffer getBuffer(WeedFSFile file) {
+        String key = file.getFidWithVersion();
+        Node node = cache.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            recordMiss(key);
+            return null;
+        }
+        hits.incrementAndGet();
+        if (lock.tryLock()) {
+            try {
+                onAccess(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.data.asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean accepts(long size) {
+        return size >= 0 && size <= maxBlobSize;
+    }
+
+    @Override
+    public void put(WeedFSFile file, ByteBuffer content) {
+        int size = content.remaining();
+        if (!accepts(size)) {
+            return;
+        }
+        ByteBuffer data = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        data.put(content.duplicate());
+        data.flip();
+
+        Node node = new Node(file.getFidWithVersion(), data);
+        lock.lock();
+        try {
+            Node previous = cache.put(node.key, node);
+            if (previous != null) {
+                remove(previous);
+            }
+            window.addLast(node);
+            bytes += size;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(WeedFSFile file) {
+        lock.lock();
+        try {
+            Node node = cache.remove(file.getFidWithVersion());
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        this.evictionListener = listener;
+    }
+
+    private void recordMiss(String key) {
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key.hashCode());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == null) {
+            // removed meanwhile
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            while (protectedQueue.bytes > maxProtectedBytes) {
+                Node demoted = protectedQueue.first();
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else {
+            node.queue.moveToLast(node);
+        }
+    }
+
+    private void evict() {
+        while (window.bytes > maxWindowBytes) {
+            Node candidate = window.first();
+            window.remove(candidate);
+            probation.addLast(candidate);
+        }
+        while (bytes > maxBytes) {
+            if (probation.first() == null) {
+                Node demoted = protectedQueue.first();
+                if (demoted == null) {
+                    evict(window.first());
+                    continue;
+                }
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+            Node victim = probation.first();
+            Node candidate = probation.last();
+            if (victim == candidate || sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evict(victim);
+            } else {
+                rejections.incrementAndGet();
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        cache.remove(node.key, node);
+        remove(node);
+        evictions.incrementAndGet();
+        LongConsumer listener = evictionListener;
+        if (listener != null) {
+            listener.accept(1);
+        }
+    }
+
+    private void remove(Node node) {
+        if (node.queue != null) {
+            node.queue.remove(node);
+            bytes -= node.size;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of blobs evicted on their way from the window to the main cache because they were requested less
+     *         than the blob they would have replaced
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private static final class Node {
+        final String key;
+        final ByteBuffer data;
+        final int size;
+        Queue queue;
+        Node prev;
+        Node next;
+
+        Node(String key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+            this.size = data.remaining();
+        }
+    }
+
+    /**
+     * Doubly linked LRU list, least recently used first.
+     */
+    private static final class Queue {
+        private Node head;
+        private Node tail;
+        long bytes;
+
+        Node first() {
+            return head;
+        }
+
+        Node last() {
+            return tail;
+        }
+
+        void addLast(Node node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            bytes += node.size;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = null;
+            bytes -= node.size;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 rows of 4 bits counters. Counters are halved every <code>10 * width</code> increments, so that
+     * the sketch follows recent popularity.
+     */
+    static final class FrequencySketch {
+
+        private static final int[] SEEDS = { 0x97cb3127, 0xb1e29c4b, 0x7fb5e3a1, 0x4cf5ad43 };
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+            this.rows = new byte[SEEDS.length][size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        int frequency(int hash) {
+            int ret = Integer.MAX_VALUE;
+            for (int i = 0; i < rows.length; i++) {
+                ret = Math.min(ret, rows[i][index(hash, i)]);
+            }
+            return ret;
+        }
+
+        void increment(int hash) {
+            boolean incremented = false;
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(hash, i);
+                if (rows[i][index] < 15) {
+                    rows[i][index]++;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+            return (h ^ (h >>> 15)) & mask;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Lookup cache which refreshes entries in the background instead of making callers wait for the master.
+ * <ul>
+ * <li>younger than <code>refreshAfter</code>: served as is</li>
+ * <li>older than <code>refreshAfter</code>: still served, and one asynchronous refresh is triggered. A periodic scan also
+ * refreshes entries read since they were written, so hot volumes are refreshed before anybody hits them</li>
+ * <li>older than <code>maxStale</code>: evicted, the next lookup goes to the master</li>
+ * </ul>
+ * Refreshes need the loader given by the client through {@link #setLookupLoader(LookupLoader)}; without one, entries are
+ * simply evicted after <code>refreshAfter</code>.
+ */
+public class RefreshAheadLookupCache implements LookupCache, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RefreshAheadLookupCache.class);
+
+    private final ConcurrentHashMap<Long, Entry> cache = new ConcurrentHashMap<>();
+
+    private final Set<Long> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final long refreshAfterNanos;
+
+    private final long maxStaleNanos;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownsScheduler;
+
+    private volatile LookupLoader loader;
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private volatile LongConsumer evictionListener;
+
+    public RefreshAheadLookupCache(long refreshAfter, long maxStale, TimeUnit unit) {
+        this(refreshAfter, maxStale, unit, Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "weedfs-lookup-refresh");
+            t.setDaemon(true);
+            return t;
+        }), true);
+    }
+
+    public RefreshAheadLookupCache(long refreshAfter, long maxStale, TimeUnit unit, ScheduledExecutorService scheduler) {
+        this(refreshAfter, maxStale, unit, scheduler, false);
+    }
+
+    private RefreshAheadLookupCache(long refreshAfter, long maxStale, TimeUnit unit, ScheduledExecutorService scheduler,
+            boolean ownsScheduler) {
+        if (refreshAfter <= 0 || maxStale < refreshAfter) {
+            throw new IllegalArgumentException("Expected 0 < refreshAfter <= maxStale: " + refreshAfter + ", " + maxStale);
+        }
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+        this.maxStaleNanos = unit.toNanos(maxStale);
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+
+        long scanPeriodNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), refreshAfterNanos / 4);
+        scheduler.scheduleWithFixedDelay(this::scan, scanPeriodNanos, scanPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void setLookupLoader(LookupLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        this.evictionListener = listener;
+    }
+
+    @Override
+    public List<Location> lookup(long volumeId) {
+        Entry entry = cache.get(volumeId);
+        if (entry == null) {
+            return null;
+        }
+
+        long age = System.nanoTime() - entry.writtenAt;
+        if (!entry.read) {
+            entry.read = true;
+        }
+        if (age < refreshAfterNanos) {
+            return entry.locations;
+        }
+
+        if (age < maxStaleNanos && loader != null) {
+            staleHits.incrementAndGet();
+            refreshAsync(volumeId);
+            return entry.locations;
+        }
+
+        if (cache.remove(volumeId, entry)) {
+            onEviction();
+        }
+        return null;
+    }
+
+    @Override
+    public void setLocation(long volumeId, List<Location> locations) {
+        if (locations != null) {
+            cache.put(volumeId, new Entry(locations, System.nanoTime()));
+        }
+    }
+
+    @Override
+    public void invalidate(long volumeId) {
+        cache.remove(volumeId);
+    }
+
+    @Override
+    public void invalidate() {
+        cache.clear();
+    }
+
+    private void onEviction() {
+        evictions.incrementAndGet();
+        LongConsumer listener = evictionListener;
+        if (listener != null) {
+            listener.accept(1);
+        }
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailures.get();
+    }
+
+    /**
+     * @return the number of lookups served from an entry older than <code>refreshAfter</code>
+     */
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public void close() {
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void scan() {
+        long now = System.nanoTime();
+        for (Map.Entry<Long, Entry> e : cache.entrySet()) {
+            Entry entry = e.getValue();
+            long age = now - entry.writtenAt;
+            if (age >= maxStaleNanos || (loader == null && age >= refreshAfterNanos)) {
+                if (cache.remove(e.getKey(), entry)) {
+                    onEviction();
+                }
+            } else if (entry.read && age >= refreshAfterNanos - refreshAfterNanos / 4) {
+                // refresh ahead of time only what is actually used
+                refreshAsync(e.getKey());
+            }
+        }
+    }
+
+    private void refreshAsync(final long volumeId) {
+        final LookupLoader currentLoader = loader;
+        if (currentLoader == null || !refreshing.add(volumeId)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                try {
+                    refreshes.incrementAndGet();
+                    currentLoader.load(volumeId);
+                } catch (IOException | RuntimeException e) {
+                    refreshFailures.incrementAndGet();
+                    log.debug("Unable to refresh location of volume {}", volumeId, e);
+                } finally {
+                    refreshing.remove(volumeId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(volumeId);
+        }
+    }
+
+    private static final class Entry {
+        final List<Location> locations;
+        final long writtenAt;
+        /**
+         * Whether the entry has been read since written, a hint for the scan.
+         */
+        volatile boolean read;
+
+        Entry(List<Location> locations, long writtenAt) {
+            this.locations = locations;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.scoopit.weedfs.client.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scoopit.weedfs.client.WeedFSFile;
+
+/**
+ * Blob caches stacked from the fastest to the largest, for instance a {@link MemoryBlobCache} in front of a
+ * {@link DiskBlobCache}.
+ * <p>
+ * Blobs are stored in every tier accepting their size. A hit in a lower tier is copied to the tiers above it that accept
+ * it, so that hot blobs move up again after being evicted from a faster tier. Invalidation goes to every tier, and the
+ * eviction listener is notified of the evictions of every tier.
+ */
+public class TieredBlobCache implements BlobCache, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TieredBlobCache.class);
+
+    private final List<BlobCache> tiers;
+
+    public TieredBlobCache(BlobCache... tiers) {
+        this(Arrays.asList(tiers));
+    }
+
+    /**
+     * @param tiers caches from the fastest to the slowest one
+     */
+    public TieredBlobCache(List<BlobCache> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one tier");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+    }
+
+    public List<BlobCache> getTiers() {
+        return tiers;
+    }
+
+    @Override
+    public InputStream get(WeedFSFile file) {
+        for (int i = 0; i < tiers.size(); i++) {
+            InputStream ret = tiers.get(i).get(file);
+            if (ret != null) {
+                return i == 0 ? ret : promote(file, ret, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies a blob found in tier <code>found</code> to the faster tiers accepting it.
+     */
+    private InputStream promote(WeedFSFile file, InputStream content, int found) {
+        byte[] data;
+        try {
+            int size = content.available();
+            if (!acceptedAbove(found, size)) {
+                return content;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = content.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            data = out.toByteArray();
+        } catch (IOException e) {
+            log.warn("Unable to read cached blob {}", file, e);
+            return null;
+        }
+        for (int i = 0; i < found; i++) {
+            BlobCache tier = tiers.get(i);
+            if (tier.accepts(data.length)) {
+                tier.put(file, ByteBuffer.wrap(data));
+            }
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    private boolean acceptedAbove(int found, long size) {
+        for (int i = 0; i < found; i++) {
+            if (tiers.get(i).accepts(size)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean accepts(long size) {
+        for (BlobCache tier : tiers) {
+            if (tier.accepts(size)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void put(WeedFSFile file, ByteBuffer content) {
+        for (BlobCache tier : tiers) {
+            if (tier.accepts(content.remaining())) {
+                tier.put(file, content);
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(WeedFSFile file) {
+        for (BlobCache tier : tiers) {
+            tier.invalidate(file);
+        }
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        for (BlobCache tier : tiers) {
+            tier.setEvictionListener(listener);
+        }
+    }
+
+    /**
+     * Closes the tiers which are {@link Closeable}.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (BlobCache tier : tiers) {
+            if (tier instanceof Closeable) {
+                try {
+                    ((Closeable) tier).close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -6,59 +6,73 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by fbelov on 08.04.15.
+ * <p>
+ * Entries are immutable and carry both the locations and their expiry, so lookups never lock: when an entry expires,
+ * the single caller which manages to swap it for a refreshed copy gets <code>null</code> and reloads the locations, while
+ * concurrent callers keep being served the previous ones.
  */
 public class TimeBasedLookupCache implements LookupCache {
 
     private static final Logger log = LoggerFactory.getLogger(TimeBasedLookupCache.class);
 
-    private ConcurrentHashMap<Long, List<Location>> cache = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, Long> cacheAccessTime = new ConcurrentHashMap<>();
-    private final int invalidateInMillis;
+    private final ConcurrentHashMap<Long, Entry> cache = new ConcurrentHashMap<>();
+    private final long invalidateInNanos;
 
     public TimeBasedLookupCache(int invalidateInSeconds) {
-        this.invalidateInMillis = invalidateInSeconds*1000;
+        this.invalidateInNanos = TimeUnit.SECONDS.toNanos(invalidateInSeconds);
     }
 
     @Override
     public void invalidate() {
-        cache = new ConcurrentHashMap<>();
-        cacheAccessTime = new ConcurrentHashMap<>();
+        cache.clear();
     }
 
     @Override
     public void invalidate(long volumeId) {
         cache.remove(volumeId);
-        cacheAccessTime.remove(volumeId);
     }
 
     @Override
-    public synchronized List<Location> lookup(long volumeId) {
-        Long lastTimeAccessed = cacheAccessTime.get(volumeId);
-
-        if (lastTimeAccessed == null || (System.currentTimeMillis() - lastTimeAccessed) < invalidateInMillis) {
-            return cache.get(volumeId);
-        } else {
-            log.debug("Invalidating location for volume {}", volumeId);
+    public List<Location> lookup(long volumeId) {
+        Entry entry = cache.get(volumeId);
+        if (entry == null) {
+            return null;
+        }
 
-            touchCache(volumeId);
+        long now = System.nanoTime();
+        if (now - entry.expiresAt < 0) {
+            return entry.locations;
+        }
 
+        // expired: only the caller winning the swap reloads, others get the current value until it does
+        if (cache.replace(volumeId, entry, new Entry(entry.locations, now + invalidateInNanos))) {
+            log.debug("Invalidating location for volume {}", volumeId);
             return null; //to reload location value
         }
+
+        Entry current = cache.get(volumeId);
+        return current != null ? current.locations : null;
     }
 
     @Override
     public void setLocation(long volumeId, List<Location> locations) {
         if (locations != null) {
-            cache.put(volumeId, locations);
-            touchCache(volumeId);
+            cache.put(volumeId, new Entry(locations, System.nanoTime() + invalidateInNanos));
         }
     }
 
-    private void touchCache(long volumeId) {
-        cacheAccessTime.put(volumeId, System.currentTimeMillis());
+    private static final class Entry {
+        final List<Location> locations;
+        final long expiresAt;
+
+        Entry(List<Location> locations, long expiresAt) {
+            this.locations = locations;
+            this.expiresAt = expiresAt;
+        }
     }
 
 }
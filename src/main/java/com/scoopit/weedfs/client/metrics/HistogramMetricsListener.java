@@ -0,0 +1,231 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Keeps latency histograms and error counts per operation, overall and per volume server, along with byte and cache
+ * counters. Everything is allocated the first time an operation or a volume server is seen: recording allocates nothing.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private static final ErrorType[] ERROR_TYPES = ErrorType.values();
+
+    private static final CacheType[] CACHE_TYPES = CacheType.values();
+
+    private final int precisionBits;
+
+    private final Metrics total;
+
+    private final ConcurrentHashMap<Location, Metrics> byLocation = new ConcurrentHashMap<>();
+
+    private final LongAdder[] cacheHits = adders(CACHE_TYPES.length);
+
+    private final LongAdder[] cacheMisses = adders(CACHE_TYPES.length);
+
+    private final LongAdder[] cacheEvictions = adders(CACHE_TYPES.length);
+
+    public HistogramMetricsListener() {
+        this(LatencyHistogram.DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param precisionBits precision of the latency histograms, see {@link LatencyHistogram#LatencyHistogram(int)}
+     */
+    public HistogramMetricsListener(int precisionBits) {
+        this.precisionBits = precisionBits;
+        this.total = new Metrics(precisionBits);
+    }
+
+    @Override
+    public void onSuccess(Operation operation, Location location, long latencyNanos) {
+        total.latencies[operation.ordinal()].record(latencyNanos);
+        if (location != null) {
+            metricsOf(location).latencies[operation.ordinal()].record(latencyNanos);
+        }
+    }
+
+    @Override
+    public void onError(Operation operation, Location location, Exception error) {
+        int index = operation.ordinal() * ERROR_TYPES.length + ErrorType.of(error).ordinal();
+        total.errors[index].increment();
+        if (location != null) {
+            metricsOf(location).errors[index].increment();
+        }
+    }
+
+    @Override
+    public void onBytesSent(Location location, long bytes) {
+        total.bytesSent.add(bytes);
+        if (location != null) {
+            metricsOf(location).bytesSent.add(bytes);
+        }
+    }
+
+    @Override
+    public void onBytesReceived(Location location, long bytes) {
+        total.bytesReceived.add(bytes);
+        if (location != null) {
+            metricsOf(location).bytesReceived.add(bytes);
+        }
+    }
+
+    @Override
+    public void onCacheHit(CacheType cache) {
+        cacheHits[cache.ordinal()].increment();
+    }
+
+    @Override
+    public void onCacheMiss(CacheType cache) {
+        cacheMisses[cache.ordinal()].increment();
+    }
+
+    @Override
+    public void onCacheEviction(CacheType cache, long count) {
+        cacheEvictions[cache.ordinal()].add(count);
+    }
+
+    private Metrics metricsOf(Location location) {
+        Metrics ret = byLocation.get(location);
+        if (ret == null) {
+            ret = byLocation.computeIfAbsent(location, l -> new Metrics(precisionBits));
+        }
+        return ret;
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return total.latencies[operation.ordinal()];
+    }
+
+    /**
+     * @return null if no request went to <code>location</code>
+     */
+    public LatencyHistogram getLatency(Operation operation, Location location) {
+        Metrics m = byLocation.get(location);
+        return m == null ? null : m.latencies[operation.ordinal()];
+    }
+
+    public long getErrorCount(Operation operation, ErrorType type) {
+        return total.errors[operation.ordinal() * ERROR_TYPES.length + type.ordinal()].sum();
+    }
+
+    public long getErrorCount(Operation operation, ErrorType type, Location location) {
+        Metrics m = byLocation.get(location);
+        return m == null ? 0 : m.errors[operation.ordinal() * ERROR_TYPES.length + type.ordinal()].sum();
+    }
+
+    public long getBytesSent() {
+        return total.bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return total.bytesReceived.sum();
+    }
+
+    public long getBytesSent(Location location) {
+        Metrics m = byLocation.get(location);
+        return m == null ? 0 : m.bytesSent.sum();
+    }
+
+    public long getBytesReceived(Location location) {
+        Metrics m = byLocation.get(location);
+        return m == null ? 0 : m.bytesReceived.sum();
+    }
+
+    /**
+     * @return the volume servers requests went to
+     */
+    public Set<Location> getLocations() {
+        return Collections.unmodifiableSet(byLocation.keySet());
+    }
+
+    public long getCacheHitCount(CacheType cache) {
+        return cacheHits[cache.ordinal()].sum();
+    }
+
+    public long getCacheMissCount(CacheType cache) {
+        return cacheMisses[cache.ordinal()].sum();
+    }
+
+    public double getCacheHitRatio(CacheType cache) {
+        long hits = getCacheHitCount(cache);
+        long requests = hits + getCacheMissCount(cache);
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getCacheEvictionCount(CacheType cache) {
+        return cacheEvictions[cache.ordinal()].sum();
+    }
+
+    /**
+     * @return one line per operation with latency percentiles in milliseconds and error counts, then bytes and caches
+     */
+    public String report() {
+        StringBuilder ret = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram h = getLatency(operation);
+            ret.append(String.format("%-6s n=%d p50=%.2f p99=%.2f p999=%.2f max=%.2f", operation, h.getCount(),
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6,
+                    h.getMax() / 1e6));
+            for (ErrorType type : ERROR_TYPES) {
+                long errors = getErrorCount(operation, type);
+                if (errors > 0) {
+                    ret.append(' ').append(type).append('=').append(errors);
+                }
+            }
+            ret.append('\n');
+        }
+        ret.append("bytes sent=").append(getBytesSent()).append(" received=").append(getBytesReceived()).append('\n');
+        for (CacheType cache : CACHE_TYPES) {
+            ret.append(String.format("%s cache hits=%d misses=%d evictions=%d%n", cache, getCacheHitCount(cache),
+                    getCacheMissCount(cache), getCacheEvictionCount(cache)));
+        }
+        return ret.toString();
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] ret = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = new LongAdder();
+        }
+        return ret;
+    }
+
+    private static final class Metrics {
+        final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        final LongAdder[] errors = adders(OPERATIONS.length * ERROR_TYPES.length);
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+
+        Metrics(int precisionBits) {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram(precisionBits);
+            }
+        }
+    }
+}
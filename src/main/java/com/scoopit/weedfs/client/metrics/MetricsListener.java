@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.metrics;
+
+import com.scoopit.weedfs.client.Location;
+
+/**
+ * Receives what the client does. Methods are called on the request threads, so implementations must be thread safe and
+ * cheap; every method does nothing by default.
+ * <p>
+ * <code>location</code> is the volume server of the request, null for requests to the master.
+ */
+public interface MetricsListener {
+
+    /**
+     * Does nothing.
+     */
+    MetricsListener NOOP = new MetricsListener() {
+    };
+
+    /**
+     * @param latencyNanos time to the response, the body of reads excluded
+     */
+    default void onSuccess(Operation operation, Location location, long latencyNanos) {
+    }
+
+    default void onError(Operation operation, Location location, Exception error) {
+    }
+
+    /**
+     * @param bytes size of a request body
+     */
+    default void onBytesSent(Location location, long bytes) {
+    }
+
+    /**
+     * @param bytes size of a file read, as announced by the volume server
+     */
+    default void onBytesReceived(Location location, long bytes) {
+    }
+
+    default void onCacheHit(CacheType cache) {
+    }
+
+    default void onCacheMiss(CacheType cache) {
+    }
+
+    /**
+     * @param count number of entries evicted at once
+     */
+    default void onCacheEviction(CacheType cache, long count) {
+    }
+}
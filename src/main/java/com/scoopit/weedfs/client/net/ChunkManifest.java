@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * SeaweedFS chunk manifest: a file stored as several chunks, each one a regular file of its own. Written with
+ * <code>?cm=true</code>, the volume server then serves the concatenated chunks when the manifest is read.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ChunkManifest {
+    public String name;
+    public String mime;
+    public long size;
+    public List<ChunkInfo> chunks = new ArrayList<>();
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ChunkInfo {
+        public String fid;
+        public long offset;
+        public long size;
+
+        public ChunkInfo() {
+        }
+
+        public ChunkInfo(String fid, long offset, long size) {
+            this.fid = fid;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
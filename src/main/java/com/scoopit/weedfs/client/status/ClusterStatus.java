@@ -0,0 +1,12 @@
+package com.scoopit.weedfs.client.status;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ClusterStatus {
+    public boolean IsLeader;
+    public String Leader;
+    public List<String> Peers;
+}
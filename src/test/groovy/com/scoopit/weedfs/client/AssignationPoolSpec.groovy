@@ -0,0 +1,80 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.status.Layout
+import com.scoopit.weedfs.client.status.MasterStatus
+import com.scoopit.weedfs.client.status.Topology
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutorService
+
+
+class AssignationPoolSpec extends Specification {
+
+    def "should hand out every version of a bulk assignation"() {
+        given:
+        def client = Mock(WeedFSClient)
+        def pool = new AssignationPool(client, 4, 0, sameThread())
+
+        when:
+        def taken = (1..4).collect { pool.take("col", ReplicationStrategy.None) }
+
+        then:
+        1 * client.assign({ it.versionCount == 4 && it.collection == "col" }) >> assignation("3,01637037d6", 4)
+        1 * client.assign({ it.versionCount == 4 && it.collection == "col" }) >> assignation("3,01637037d7", 4)
+        taken*.weedFSFile*.fid == ["3,01637037d6"] * 4
+        taken*.weedFSFile*.version == [0, 1, 2, 3]
+        pool.missCount == 1
+        pool.hitCount == 3
+    }
+
+    def "should refill once the pool falls to the threshold"() {
+        given:
+        def client = Mock(WeedFSClient)
+        def pool = new AssignationPool(client, 4, 1, sameThread())
+        client.assign(_) >>> [assignation("3,01637037d6", 4), assignation("3,01637037d7", 4)]
+
+        when:
+        pool.take()
+        pool.take()
+
+        then:
+        pool.pooledCount == 2
+        pool.refillCount == 1
+
+        when:
+        pool.take()
+
+        then:
+        pool.refillCount == 2
+        pool.pooledCount == 5
+        (1..5).collect { pool.take().weedFSFile.fid } == ["3,01637037d6"] + ["3,01637037d7"] * 4
+    }
+
+    def "should drop entries on unwritable volumes"() {
+        given:
+        def client = Mock(WeedFSClient)
+        def pool = new AssignationPool(client, 4, 0, sameThread())
+        client.assign(_) >>> [assignation("3,01637037d6", 4), assignation("4,01637037d7", 4)]
+
+        when:
+        pool.take()
+        def status = new MasterStatus(Topology: new Topology(layouts: [new Layout(collection: "", replication: "000", writables: [4])]))
+        pool.retainWritable(status)
+
+        then:
+        pool.pooledCount == 0
+        pool.droppedCount == 3
+        pool.take().weedFSFile.fid == "4,01637037d7"
+    }
+
+    /**
+     * Runs refills on the calling thread so that they happen before take() returns.
+     */
+    private static ExecutorService sameThread() {
+        return [execute: { Runnable r -> r.run() }] as ExecutorService
+    }
+
+    private static Assignation assignation(String fid, int count) {
+        return new Assignation(new WeedFSFile(fid), new Location(url: "localhost:8080", publicUrl: "localhost:8080"), count)
+    }
+}
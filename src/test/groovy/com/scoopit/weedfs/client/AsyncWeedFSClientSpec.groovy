@@ -0,0 +1,186 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class AsyncWeedFSClientSpec extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def files = [:]
+    def uploads = []
+    def assignError = null
+    def location
+    def client
+
+    def setup() {
+        server.createContext("/dir/assign") { exchange ->
+            def url = "localhost:" + server.address.port
+            respond(exchange, 200, assignError ? /{"error":"$assignError"}/ : /{"count":1,"fid":"3,01637037d6","url":"$url","publicUrl":"$url"}/)
+        }
+        server.createContext("/dir/lookup") { exchange ->
+            def url = "localhost:" + server.address.port
+            respond(exchange, 200, /{"volumeOrFileId":"3","locations":[{"url":"$url","publicUrl":"$url"}]}/)
+        }
+        server.createContext("/") { exchange ->
+            def fid = exchange.requestURI.path.substring(1)
+            if (fid == "3,broken") {
+                respond(exchange, 500, "broken")
+            } else if (exchange.requestMethod == "POST") {
+                def body = exchange.requestBody.bytes
+                uploads << [contentType: exchange.requestHeaders.getFirst("Content-Type"), body: body]
+                def payload = multipartPayload(body)
+                files[fid] = payload
+                respond(exchange, 201, /{"size":${payload.length}}/)
+            } else if (!files.containsKey(fid)) {
+                respond(exchange, 404, "")
+            } else if (exchange.requestMethod == "DELETE") {
+                files.remove(fid)
+                respond(exchange, 202, /{"size":0}/)
+            } else {
+                exchange.sendResponseHeaders(200, files[fid].length)
+                exchange.responseBody.write(files[fid])
+                exchange.close()
+            }
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+        client = WeedFSClientBuilder.createBuilder().setMasterUrl(new URL("http://" + url)).buildAsync()
+    }
+
+    def cleanup() {
+        client.close()
+        server.stop(0)
+    }
+
+    def "should assign, write, read and delete a file"() {
+        when:
+        def assignation = await(client.assign(new AssignParams()))
+        def size = await(client.write(assignation.weedFSFile, assignation.location, "content".bytes, "name.txt"))
+        def read = await(client.read(assignation.weedFSFile)).bytes
+        await(client.delete(assignation.weedFSFile, assignation.location))
+
+        then:
+        assignation.weedFSFile.fid == "3,01637037d6"
+        size == 7
+        read == "content".bytes
+        files.isEmpty()
+    }
+
+    def "should upload a file"() {
+        given:
+        def file = File.createTempFile("async-upload", ".bin")
+        file.bytes = ("x" * 200000).bytes
+
+        when:
+        def size = await(client.write(new WeedFSFile("3,01637037d6"), location, file))
+
+        then:
+        size == 200000
+        files["3,01637037d6"] == file.bytes
+        uploads[0].contentType.startsWith("multipart/form-data; boundary=")
+
+        cleanup:
+        file.delete()
+    }
+
+    def "should keep non ASCII file names"() {
+        when:
+        await(client.write(new WeedFSFile("3,01637037d6"), location, "content".bytes, "été.txt"))
+
+        then:
+        new String(uploads[0].body, "UTF-8").contains('filename="été.txt"')
+    }
+
+    def "should fail with the assignation error"() {
+        given:
+        assignError = "No free volumes left!"
+
+        when:
+        await(client.assign(new AssignParams()))
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message == "No free volumes left!"
+    }
+
+    def "should not write empty data"() {
+        when:
+        await(client.write(new WeedFSFile("3,01637037d6"), location, new byte[0], "name.txt"))
+
+        then:
+        thrown(WeedFSException)
+        uploads.isEmpty()
+    }
+
+    def "should fail reading a missing file"() {
+        when:
+        await(client.read(new WeedFSFile("3,01637037d6"), location))
+
+        then:
+        thrown(WeedFSFileNotFoundException)
+    }
+
+    def "should fail reading from a failing volume server"() {
+        when:
+        await(client.read(new WeedFSFile("3,broken"), location))
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message.contains("500")
+    }
+
+    def "should fail deleting a missing file"() {
+        when:
+        await(client.delete(new WeedFSFile("3,01637037d6"), location))
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message.contains("404")
+    }
+
+    def "should fail when the master is unreachable"() {
+        given:
+        def unreachable = WeedFSClientBuilder.createBuilder().setMasterUrl(new URL("http://localhost:1")).buildAsync()
+
+        when:
+        await(unreachable.assign(new AssignParams()))
+
+        then:
+        thrown(IOException)
+
+        cleanup:
+        unreachable.close()
+    }
+
+    private static <T> T await(future) {
+        try {
+            return future.get(10, TimeUnit.SECONDS)
+        } catch (ExecutionException e) {
+            throw e.cause
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) {
+        def bytes = body.getBytes("UTF-8")
+        exchange.sendResponseHeaders(status, bytes.length ?: -1)
+        if (bytes.length) {
+            exchange.responseBody.write(bytes)
+        }
+        exchange.close()
+    }
+
+    /**
+     * Payload of a single part multipart body.
+     */
+    private static byte[] multipartPayload(byte[] body) {
+        def text = new String(body, "ISO-8859-1")
+        int start = text.indexOf("\r\n\r\n") + 4
+        int end = text.lastIndexOf("\r\n--")
+        return Arrays.copyOfRange(body, start, end)
+    }
+}
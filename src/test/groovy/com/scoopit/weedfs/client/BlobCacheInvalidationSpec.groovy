@@ -0,0 +1,103 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.DiskBlobCache
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+class BlobCacheInvalidationSpec extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def files = [:]
+    def directory = File.createTempDir()
+    def blobCache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+    def lookupCache = new MapLookupCache()
+    def file = new WeedFSFile("3,01637037d6")
+    def location
+    def client
+
+    def setup() {
+        server.createContext("/") { exchange ->
+            def fid = exchange.requestURI.path.substring(1)
+            if (exchange.requestMethod == "POST") {
+                def body = exchange.requestBody.bytes
+                def contentType = exchange.requestHeaders.getFirst("Content-Type")
+                files[fid] = contentType.startsWith("multipart/") ? multipartPayload(body) : body
+                def response = /{"size":${files[fid].length}}/.bytes
+                exchange.sendResponseHeaders(201, response.length)
+                exchange.responseBody.write(response)
+            } else {
+                exchange.sendResponseHeaders(200, files[fid].length)
+                exchange.responseBody.write(files[fid])
+            }
+            exchange.close()
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+        lookupCache.setLocation(3, [location])
+        client = WeedFSClientBuilder.createBuilder()
+                .setMasterUrl(new URL("http://" + url))
+                .setLookupCache(lookupCache)
+                .setBlobCache(blobCache)
+                .build()
+        files[file.fid] = "old".bytes
+        // the old content is now cached
+        assert client.read(file).text == "old"
+        assert blobCache.get(file).text == "old"
+    }
+
+    def cleanup() {
+        client.close()
+        blobCache.close()
+        server.stop(0)
+        directory.deleteDir()
+    }
+
+    def "should not serve the cached copy of a file overwritten by #method"() {
+        when:
+        write(client, file, location)
+
+        then:
+        blobCache.get(file) == null
+        client.read(file).text == "new"
+
+        where:
+        method               | write
+        "write(byte[])"      | { c, f, l -> c.write(f, l, "new".bytes, "name.txt") }
+        "write(InputStream)" | { c, f, l -> c.write(f, l, new ByteArrayInputStream("new".bytes), "name.txt") }
+        "writeRaw"           | { c, f, l -> c.writeRaw(f, l, ByteBuffer.wrap("new".bytes), "name.txt", "text/plain") }
+        "writeVersions"      | { c, f, l -> c.writeVersions(new Assignation(f, l, 1), [WritePayload.of("new".bytes, "name.txt")], false) }
+    }
+
+    def "should not serve the cached copy of a file overwritten by the non blocking client"() {
+        given:
+        def async = WeedFSClientBuilder.createBuilder()
+                .setMasterUrl(new URL("http://" + location.url))
+                .setBlobCache(blobCache)
+                .buildAsync()
+
+        when:
+        async.write(file, location, "new".bytes, "name.txt").get(10, TimeUnit.SECONDS)
+
+        then:
+        blobCache.get(file) == null
+        client.read(file).text == "new"
+
+        cleanup:
+        async.close()
+    }
+
+    /**
+     * Payload of a single part multipart body.
+     */
+    private static byte[] multipartPayload(byte[] body) {
+        def text = new String(body, "ISO-8859-1")
+        int start = text.indexOf("\r\n\r\n") + 4
+        int end = text.lastIndexOf("\r\n--")
+        return Arrays.copyOfRange(body, start, end)
+    }
+}
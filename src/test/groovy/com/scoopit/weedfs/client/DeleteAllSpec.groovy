@@ -0,0 +1,204 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.BlobCache
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.scoopit.weedfs.client.metrics.MetricsListener
+import com.scoopit.weedfs.client.metrics.Operation
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+
+class DeleteAllSpec extends Specification {
+
+    def batchServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def legacyServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def failingServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def batchSizes = new CopyOnWriteArrayList<Integer>()
+    def legacyRequests = new CopyOnWriteArrayList<String>()
+    def missing = ConcurrentHashMap.newKeySet()
+    def cache = new MapLookupCache()
+    def client = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setMasterUrl(new URL("http://localhost:1"))
+            .setDeleteConcurrencyPerVolumeServer(2).build()
+
+    def setup() {
+        batchServer.createContext("/delete") { exchange ->
+            def fids = exchange.requestBody.text.split("&").collect { URLDecoder.decode(it.substring(4), "UTF-8") }
+            batchSizes << fids.size()
+            def json = fids.collect { fid ->
+                missing.contains(fid) ? """{"fid":"$fid","status":404,"error":"not found"}""" : """{"fid":"$fid","status":202,"size":12}"""
+            }.join(",")
+            byte[] body = "[$json]".bytes
+            exchange.sendResponseHeaders(202, body.length)
+            exchange.responseBody.write(body)
+            exchange.close()
+        }
+        legacyServer.createContext("/") { exchange ->
+            if (exchange.requestMethod == "DELETE") {
+                def fid = exchange.requestURI.path.substring(1)
+                legacyRequests << fid
+                exchange.sendResponseHeaders(missing.contains(fid) ? 404 : 202, -1)
+            } else {
+                // "delete" is not a valid fid
+                exchange.requestBody.text
+                exchange.sendResponseHeaders(400, -1)
+            }
+            exchange.close()
+        }
+        failingServer.createContext("/") { exchange ->
+            exchange.requestBody.text
+            exchange.sendResponseHeaders(500, -1)
+            exchange.close()
+        }
+        batchServer.start()
+        legacyServer.start()
+        failingServer.start()
+        cache.setLocation(1, [location(batchServer)])
+        cache.setLocation(2, [location(legacyServer)])
+        cache.setLocation(3, [location(failingServer), location(batchServer)])
+        cache.setLocation(4, [location(failingServer)])
+    }
+
+    def cleanup() {
+        client.close()
+        batchServer.stop(0)
+        legacyServer.stop(0)
+        failingServer.stop(0)
+    }
+
+    static Location location(HttpServer server) {
+        def url = "localhost:" + server.address.port
+        new Location(url: url, publicUrl: url)
+    }
+
+    def "should delete by batches on volume servers with the batch endpoint"() {
+        given:
+        def files = (1..600).collect { new WeedFSFile("1," + Integer.toHexString(it) + "0000abcd") }
+        missing << files[10].fid
+
+        when:
+        def results = client.deleteAll(files)
+
+        then:
+        results.keySet() as List == files
+        results.values().count { it.success } == 599
+        results[files[10]].notFound
+        results[files[10]].error == "not found"
+        results[new WeedFSFile(files[10].fid)].notFound
+        results[new WeedFSFile(files[11].fid)].success
+        batchSizes.sort() == [88, 256, 256]
+    }
+
+    def "should delete files one by one on volume servers without the batch endpoint"() {
+        given:
+        def files = (1..5).collect { new WeedFSFile("2," + Integer.toHexString(it) + "0000abcd") }
+        files[4].version = 2
+        missing << files[0].fid
+
+        when:
+        def results = client.deleteAll(files)
+        def again = client.deleteAll(files.subList(1, 2))
+
+        then:
+        results[files[0]].notFound
+        results.values().count { it.success } == 4
+        legacyRequests.contains(files[4].fid + "_2")
+        again[files[1]].success
+        legacyRequests.size() == 6
+    }
+
+    def "should report files of volumes which can not be looked up"() {
+        given:
+        def ok = new WeedFSFile("1,010000abcd")
+        def unknown = new WeedFSFile("7,010000abcd")
+
+        when:
+        def results = client.deleteAll([ok, unknown])
+
+        then:
+        results[ok].success
+        !results[unknown].success
+        results[unknown].status == -1
+        results[unknown].location == null
+    }
+
+    def "should invalidate deleted files in the blob cache"() {
+        given:
+        def invalidated = new AtomicInteger()
+        def blobCache = Mock(com.scoopit.weedfs.client.caching.BlobCache)
+        def c = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setBlobCache(blobCache).build()
+
+        when:
+        c.deleteAll([new WeedFSFile("1,010000abcd"), new WeedFSFile("2,020000abcd")])
+
+        then:
+        2 * blobCache.invalidate(_) >> { invalidated.incrementAndGet() }
+
+        cleanup:
+        c.close()
+    }
+
+    def "should delete duplicate files once"() {
+        given:
+        def file = new WeedFSFile("1,010000abcd")
+
+        when:
+        def results = client.deleteAll([file, new WeedFSFile("1,010000abcd"), file, new WeedFSFile("1,010000abcd", 1)])
+
+        then:
+        batchSizes == [2]
+        results.size() == 2
+        results[file].success
+        results[new WeedFSFile("1,010000abcd", 1)].success
+    }
+
+    def "should record failed deletions as errors"() {
+        given:
+        def metrics = Mock(MetricsListener)
+        def c = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setMetricsListener(metrics).build()
+        def files = [new WeedFSFile("2,010000abcd"), new WeedFSFile("2,020000abcd")]
+        missing << files[0].fid
+
+        when:
+        def results = c.deleteAll(files)
+
+        then:
+        results[files[0]].notFound
+        results[files[1]].success
+        1 * metrics.onError(Operation.DELETE, location(legacyServer), { it instanceof WeedFSFileNotFoundException })
+        1 * metrics.onSuccess(Operation.DELETE, location(legacyServer), _)
+
+        cleanup:
+        c.close()
+    }
+
+    def "should delete on the next replica when a volume server fails"() {
+        given:
+        def files = (1..3).collect { new WeedFSFile("3," + Integer.toHexString(it) + "0000abcd") }
+
+        when:
+        def results = client.deleteAll(files)
+
+        then:
+        results.values().every { it.success && it.location == location(batchServer) }
+        batchSizes == [3]
+    }
+
+    def "should not invalidate cached blobs of files which could not be deleted"() {
+        given:
+        def blobCache = Mock(BlobCache)
+        def c = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setBlobCache(blobCache).build()
+
+        when:
+        def results = c.deleteAll([new WeedFSFile("4,010000abcd")])
+
+        then:
+        results[new WeedFSFile("4,010000abcd")].status == 500
+        0 * blobCache.invalidate(_)
+
+        cleanup:
+        c.close()
+    }
+}
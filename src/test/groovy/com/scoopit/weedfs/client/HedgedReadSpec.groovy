@@ -0,0 +1,139 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class HedgedReadSpec extends Specification {
+
+    List<HttpServer> servers = []
+
+    def cleanup() {
+        servers*.stop(0)
+    }
+
+    def "should answer from the second replica when the first one is slow"() {
+        given:
+        def slow = volumeServer(2000, "slow")
+        def fast = volumeServer(0, "fast")
+        def policy = HedgingPolicy.fixedDelay(50, TimeUnit.MILLISECONDS, 1)
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 10000000)
+        selector.recordLatency(slow, 1000000)
+        def client = client(policy, selector, [slow, fast])
+
+        when:
+        def start = System.nanoTime()
+        def content = client.read(new WeedFSFile("3,01637037d6")).text
+        def elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        content == "fast"
+        elapsedMillis < 1000
+        policy.requestCount == 1
+        policy.hedgeCount == 1
+        policy.hedgeWinCount == 1
+        selector.stats[slow].inFlight == 0
+        selector.stats[fast].inFlight == 0
+
+        cleanup:
+        client.close()
+    }
+
+    def "should not hedge beyond the budget"() {
+        given:
+        def slow1 = volumeServer(100, "slow1")
+        def slow2 = volumeServer(100, "slow2")
+        def policy = HedgingPolicy.fixedDelay(10, TimeUnit.MILLISECONDS, 0.5)
+        def client = client(policy, new ReplicaSelector(), [slow1, slow2])
+
+        when:
+        4.times { client.read(new WeedFSFile("3,01637037d6")).close() }
+
+        then:
+        policy.requestCount == 4
+        policy.hedgeCount == 2
+        policy.budgetExhaustedCount == 2
+
+        cleanup:
+        client.close()
+    }
+
+    def "should only hedge reads slower than the tracked percentile"() {
+        given:
+        def policy = HedgingPolicy.percentile(0.9, 5, TimeUnit.MILLISECONDS, 0.05)
+
+        expect:
+        policy.delayNanos == Long.MAX_VALUE
+
+        when:
+        1000.times { policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(it % 100)) }
+
+        then:
+        policy.delayNanos >= TimeUnit.MILLISECONDS.toNanos(85)
+        policy.delayNanos <= TimeUnit.MILLISECONDS.toNanos(95)
+    }
+
+    def "should only measure the own latency of the first replica"() {
+        given:
+        def policy = HedgingPolicy.percentile(0.5, 0, TimeUnit.MILLISECONDS, 1)
+        256.times { policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(50)) }
+        def slow = volumeServer(1000, "slow")
+        def fast = volumeServer(0, "fast")
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 10000000)
+        selector.recordLatency(slow, 1000000)
+        def client = client(policy, selector, [slow, fast])
+
+        when: "the hedge wins before the first replica answered"
+        client.read(new WeedFSFile("3,01637037d6")).text
+
+        then: "there is nothing to measure"
+        policy.hedgeWinCount == 1
+        policy.sampleCount.get() == 256
+
+        when: "the first replica answers"
+        selector.onFailure(slow)
+        client.read(new WeedFSFile("3,01637037d6")).text
+
+        then:
+        policy.sampleCount.get() == 257
+        policy.samples.get(256) < TimeUnit.MILLISECONDS.toNanos(50)
+
+        cleanup:
+        client.close()
+    }
+
+    private WeedFSClient client(HedgingPolicy policy, ReplicaSelector selector, List<Location> locations) {
+        def cache = new MapLookupCache()
+        cache.setLocation(3, locations)
+        WeedFSClientBuilder.createBuilder()
+                .setLookupCache(cache)
+                .setReplicaSelector(selector)
+                .setHedgingPolicy(policy)
+                .build()
+    }
+
+    private Location volumeServer(long delayMillis, String content) {
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.executor = java.util.concurrent.Executors.newCachedThreadPool()
+        server.createContext("/") { exchange ->
+            try {
+                Thread.sleep(delayMillis)
+                def body = content.bytes
+                exchange.sendResponseHeaders(200, body.length)
+                exchange.responseBody.write(body)
+            } catch (IOException ignored) {
+                // aborted by the client
+            } finally {
+                exchange.close()
+            }
+        }
+        server.start()
+        servers << server
+        def url = "localhost:" + server.address.port
+        new Location(url: url, publicUrl: url)
+    }
+}
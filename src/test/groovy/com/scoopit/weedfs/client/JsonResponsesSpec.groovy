@@ -0,0 +1,68 @@
+package com.scoopit.weedfs.client
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JsonResponsesSpec extends Specification {
+
+    @Unroll
+    def "should decode a response from a #type stream"() {
+        when:
+        def result = JsonResponses.read(JsonResponses.ASSIGN, stream('{"count":1,"fid":"3,01637037d6","url":"localhost:8080"}'))
+
+        then:
+        result.fid == "3,01637037d6"
+        result.url == "localhost:8080"
+
+        where:
+        type         | stream
+        "markable"   | { new ByteArrayInputStream(it.bytes) }
+        "unmarkable" | { new FilterInputStream(new ByteArrayInputStream(it.bytes)) { boolean markSupported() { false } } }
+    }
+
+    @Unroll
+    def "should report the start of an unparseable body from a #type stream"() {
+        when:
+        JsonResponses.read(JsonResponses.ASSIGN, stream("<html>" + "x" * 2000 + "</html>"))
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message.contains("<html>" + "x" * 1018 + "...")
+        !e.message.contains("</html>")
+
+        where:
+        type         | stream
+        "markable"   | { new ByteArrayInputStream(it.bytes) }
+        "unmarkable" | { new FilterInputStream(new ByteArrayInputStream(it.bytes)) { boolean markSupported() { false } } }
+    }
+
+    def "should report the start of a body received in several packets"() {
+        given:
+        def body = "<html>" + "x" * 20000 + "</html>"
+        def trickling = new FilterInputStream(new ByteArrayInputStream(body.bytes)) {
+            boolean markSupported() { false }
+
+            int read(byte[] b, int off, int len) { super.read(b, off, Math.min(len, 100)) }
+        }
+
+        when:
+        JsonResponses.read(JsonResponses.ASSIGN, trickling)
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message.contains("from: <html>xx")
+    }
+
+    def "should not leak the body of a previous response into the next error"() {
+        given:
+        def unmarkable = { new FilterInputStream(new ByteArrayInputStream(it.bytes)) { boolean markSupported() { false } } }
+        JsonResponses.read(JsonResponses.ASSIGN, unmarkable('{"fid":"3,01637037d6"}'))
+
+        when:
+        JsonResponses.read(JsonResponses.ASSIGN, unmarkable("oops"))
+
+        then:
+        def e = thrown(WeedFSException)
+        e.message.endsWith("from: oops")
+    }
+}
@@ -0,0 +1,134 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.net.ChunkManifest
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class LargeObjectSpec extends Specification {
+
+    def client = new InMemoryClient()
+
+    def "should upload chunks in parallel and read them back in order"() {
+        given:
+        def content = new byte[10 * 1024 + 300]
+        new Random(42).nextBytes(content)
+        def writer = new LargeObjectWriter(client, AssignParams.DEFAULT, 1024, 3)
+        def reader = new LargeObjectReader(client, 2)
+
+        when:
+        def file = writer.write(new ByteArrayInputStream(content), "video.mp4", "video/mp4")
+        def manifest = reader.readManifest(file)
+        def read = reader.open(file).bytes
+
+        then:
+        manifest.size == content.length
+        manifest.mime == "video/mp4"
+        manifest.chunks.size() == 11
+        manifest.chunks.last().size == 300
+        read == content
+        client.maxConcurrentWrites.get() in 2..3
+
+        cleanup:
+        writer.close()
+        reader.close()
+    }
+
+    def "should retry a failed chunk on its own"() {
+        given:
+        def writer = new LargeObjectWriter(client, AssignParams.DEFAULT, 1024, 2)
+        client.failuresBeforeSuccess.set(1)
+
+        when:
+        def file = writer.write(new ByteArrayInputStream(new byte[4096]), "a", null)
+
+        then:
+        client.manifests[file.fid].chunks.size() == 4
+        client.writes.get() == 5
+
+        cleanup:
+        writer.close()
+    }
+
+    def "should delete uploaded chunks when a chunk cannot be uploaded"() {
+        given:
+        def writer = new LargeObjectWriter(client, AssignParams.DEFAULT, 1024, 2).setMaxAttempts(2)
+        client.failingChunk = "a-2"
+
+        when:
+        writer.write(new ByteArrayInputStream(new byte[4096]), "a", null)
+
+        then:
+        thrown(WeedFSException)
+        client.files.isEmpty()
+        client.manifests.isEmpty()
+
+        cleanup:
+        writer.close()
+    }
+
+    static class InMemoryClient extends WeedFSClientMock {
+
+        def location = new Location(url: "volume:8080", publicUrl: "volume:8080")
+        def files = new ConcurrentHashMap<String, byte[]>()
+        def manifests = new ConcurrentHashMap<String, ChunkManifest>()
+        def nextKey = new AtomicInteger()
+        def writes = new AtomicInteger()
+        def concurrentWrites = new AtomicInteger()
+        def maxConcurrentWrites = new AtomicInteger()
+        def failuresBeforeSuccess = new AtomicInteger()
+        def failingChunk
+
+        @Override
+        Assignation assign(AssignParams params) {
+            new Assignation(new WeedFSFile("3," + nextKey.incrementAndGet()), location, 1)
+        }
+
+        @Override
+        int write(WeedFSFile file, Location location, byte[] data, String fileName) {
+            writes.incrementAndGet()
+            maxConcurrentWrites.accumulateAndGet(concurrentWrites.incrementAndGet(), Math.&max)
+            try {
+                Thread.sleep(5)
+                if (failuresBeforeSuccess.getAndDecrement() > 0) {
+                    throw new WeedFSException("timeout")
+                }
+                if (fileName == failingChunk) {
+                    throw new WeedFSException("disk full")
+                }
+                files[file.fid] = data
+                data.length
+            } finally {
+                concurrentWrites.decrementAndGet()
+            }
+        }
+
+        @Override
+        int writeChunkManifest(WeedFSFile file, Location location, ChunkManifest manifest) {
+            manifests[file.fid] = manifest
+            0
+        }
+
+        @Override
+        ChunkManifest readChunkManifest(WeedFSFile file, Location location) {
+            manifests[file.fid]
+        }
+
+        @Override
+        List<Location> lookup(long volumeId) {
+            [location]
+        }
+
+        @Override
+        InputStream read(WeedFSFile file) {
+            new ByteArrayInputStream(files[file.fid])
+        }
+
+        @Override
+        void delete(WeedFSFile file, Location location) {
+            files.remove(file.fid)
+            manifests.remove(file.fid)
+        }
+    }
+}
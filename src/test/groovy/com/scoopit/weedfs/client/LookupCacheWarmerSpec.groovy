@@ -0,0 +1,70 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.scoopit.weedfs.client.status.DataCenter
+import com.scoopit.weedfs.client.status.DataNode
+import com.scoopit.weedfs.client.status.MasterStatus
+import com.scoopit.weedfs.client.status.Rack
+import com.scoopit.weedfs.client.status.Topology
+import com.scoopit.weedfs.client.status.Volume
+import com.scoopit.weedfs.client.status.VolumeStatus
+import spock.lang.Specification
+
+class LookupCacheWarmerSpec extends Specification {
+
+    def "should load volume locations of every data node"() {
+        given:
+        def client = Mock(WeedFSClient)
+        def cache = new MapLookupCache()
+        def warmer = new LookupCacheWarmer(client, cache, 2)
+        def node1 = new DataNode(PublicUrl: "node1:8080", Url: "node1:8080")
+        def node2 = new DataNode(PublicUrl: "node2:8080", Url: "node2:8080")
+        client.getMasterStatus() >> masterStatus(node1, node2)
+        client.getVolumeStatus(node1.asLocation()) >> volumeStatus(1, 2)
+        client.getVolumeStatus(node2.asLocation()) >> volumeStatus(2, 3)
+
+        when:
+        def result = warmer.warmUp()
+
+        then:
+        result.volumeCount == 3
+        result.dataNodeCount == 2
+        result.failedDataNodeCount == 0
+        cache.lookup(1L) == [node1.asLocation()]
+        cache.lookup(2L) == [node1.asLocation(), node2.asLocation()]
+        cache.lookup(3L) == [node2.asLocation()]
+
+        cleanup:
+        warmer.close()
+    }
+
+    def "should invalidate volumes which disappeared on resync"() {
+        given:
+        def client = Mock(WeedFSClient)
+        def cache = new MapLookupCache()
+        def warmer = new LookupCacheWarmer(client, cache, 2)
+        def node = new DataNode(PublicUrl: "node1:8080", Url: "node1:8080")
+        client.getMasterStatus() >> masterStatus(node)
+        client.getVolumeStatus(node.asLocation()) >>> [volumeStatus(1, 2), volumeStatus(2)]
+
+        when:
+        warmer.warmUp()
+        def result = warmer.warmUp()
+
+        then:
+        result.invalidatedVolumeCount == 1
+        cache.lookup(1L) == null
+        cache.lookup(2L) == [node.asLocation()]
+
+        cleanup:
+        warmer.close()
+    }
+
+    private static MasterStatus masterStatus(DataNode... nodes) {
+        return new MasterStatus(Topology: new Topology(DataCenters: [new DataCenter(Racks: [new Rack(DataNodes: nodes as List)])]))
+    }
+
+    private static VolumeStatus volumeStatus(int... volumeIds) {
+        return new VolumeStatus(Volumes: volumeIds.collect { new Volume(Id: it) })
+    }
+}
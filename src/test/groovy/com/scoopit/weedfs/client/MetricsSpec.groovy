@@ -0,0 +1,123 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.BoundedLookupCache
+import com.scoopit.weedfs.client.caching.MemoryBlobCache
+import com.scoopit.weedfs.client.metrics.CacheType
+import com.scoopit.weedfs.client.metrics.ErrorType
+import com.scoopit.weedfs.client.metrics.HistogramMetricsListener
+import com.scoopit.weedfs.client.metrics.Operation
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+class MetricsSpec extends Specification {
+
+    static final byte[] CONTENT = "some content".bytes
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def metrics = new HistogramMetricsListener()
+    def cache = new BoundedLookupCache(1)
+    def location
+    def client
+
+    def setup() {
+        server.createContext("/dir/assign") { exchange ->
+            def url = "localhost:" + server.address.port
+            respond(exchange, 200, """{"fid":"3,01637037d6","url":"$url","publicUrl":"$url","count":1}""".bytes)
+        }
+        server.createContext("/dir/lookup") { exchange ->
+            def url = "localhost:" + server.address.port
+            respond(exchange, 200, """{"locations":[{"url":"$url","publicUrl":"$url"}]}""".bytes)
+        }
+        server.createContext("/") { exchange ->
+            exchange.requestBody.bytes
+            if (exchange.requestURI.path.startsWith("/4,")) {
+                respond(exchange, 404, new byte[0])
+            } else if (exchange.requestMethod == "POST") {
+                respond(exchange, 201, """{"size":${CONTENT.length}}""".bytes)
+            } else if (exchange.requestMethod == "DELETE") {
+                respond(exchange, 202, new byte[0])
+            } else {
+                respond(exchange, 200, CONTENT)
+            }
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+        client = WeedFSClientBuilder.createBuilder().setMasterUrl(new URL("http://" + url)).setLookupCache(cache)
+                .setBlobCache(new MemoryBlobCache(1 << 20)).setMetricsListener(metrics).build()
+    }
+
+    def cleanup() {
+        client.close()
+        server.stop(0)
+    }
+
+    static void respond(exchange, int status, byte[] body) {
+        exchange.sendResponseHeaders(status, body.length ?: -1)
+        if (body.length) {
+            exchange.responseBody.write(body)
+        }
+        exchange.close()
+    }
+
+    def "should time every operation per volume server and count bytes"() {
+        when:
+        def a = client.assign(new AssignParams())
+        client.writeRaw(a.weedFSFile, a.location, java.nio.ByteBuffer.wrap(CONTENT), "f", null)
+        def first = client.read(a.weedFSFile).withCloseable { it.text }
+        def second = client.read(a.weedFSFile).withCloseable { it.text }
+        client.lookup(3)
+        client.delete(a.weedFSFile, a.location)
+
+        then:
+        first == "some content"
+        second == "some content"
+        [Operation.ASSIGN, Operation.LOOKUP, Operation.WRITE, Operation.READ, Operation.DELETE].every {
+            metrics.getLatency(it).count == 1
+        }
+        metrics.getLatency(Operation.READ, location).count == 1
+        metrics.getLatency(Operation.ASSIGN, location).count == 0
+        metrics.locations == [location] as Set
+        metrics.getBytesSent(location) == CONTENT.length
+        metrics.bytesReceived == CONTENT.length
+        metrics.getCacheHitCount(CacheType.BLOB) == 1
+        metrics.getCacheMissCount(CacheType.BLOB) == 1
+        metrics.getCacheHitCount(CacheType.LOOKUP) == 1
+        metrics.getCacheMissCount(CacheType.LOOKUP) == 1
+        metrics.getCacheHitRatio(CacheType.LOOKUP) == 0.5d
+        metrics.report().contains("READ")
+    }
+
+    def "should count errors by type"() {
+        given:
+        def dead = new Location(url: "localhost:1", publicUrl: "localhost:1")
+
+        when:
+        client.read(new WeedFSFile("4,01637037d6"), location)
+
+        then:
+        thrown(WeedFSFileNotFoundException)
+
+        when:
+        client.read(new WeedFSFile("3,01637037d6"), dead)
+
+        then:
+        thrown(IOException)
+        metrics.getErrorCount(Operation.READ, ErrorType.NOT_FOUND) == 1
+        metrics.getErrorCount(Operation.READ, ErrorType.NOT_FOUND, location) == 1
+        metrics.getErrorCount(Operation.READ, ErrorType.IO, dead) == 1
+        metrics.getErrorCount(Operation.READ, ErrorType.WEEDFS) == 0
+        metrics.getLatency(Operation.READ).count == 0
+    }
+
+    def "should count cache evictions"() {
+        when:
+        client.lookup(3)
+        client.lookup(5)
+        client.lookup(7)
+
+        then:
+        metrics.getCacheEvictionCount(CacheType.LOOKUP) == 2
+        metrics.getCacheMissCount(CacheType.LOOKUP) == 3
+    }
+}
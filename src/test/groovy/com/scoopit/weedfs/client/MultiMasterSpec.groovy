@@ -0,0 +1,170 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.client.config.RequestConfig
+import org.apache.http.impl.client.HttpClientBuilder
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class MultiMasterSpec extends Specification {
+
+    List<HttpServer> masters = []
+    List<URL> urls = []
+    Map<String, AtomicInteger> requests = new ConcurrentHashMap<>()
+    volatile int leader = 0
+
+    def setup() {
+        3.times { masters << master(it) }
+    }
+
+    def cleanup() {
+        masters*.stop(0)
+    }
+
+    def "should send assignations to the leader and lookups to the followers"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().setMasterUrls(urls).build()
+
+        when:
+        5.times { client.assign(new AssignParams()) }
+        30.times { client.lookup(3) }
+
+        then:
+        requests["0/dir/assign"].get() == 5
+        requests["1/dir/lookup"].get() == 15
+        requests["2/dir/lookup"].get() == 15
+        !requests["0/dir/lookup"]
+
+        cleanup:
+        client.close()
+    }
+
+    def "should follow a leader change"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().setMasterUrls(urls).build()
+        client.assign(new AssignParams())
+
+        when:
+        masters[0].stop(0)
+        leader = 2
+        long start = System.nanoTime()
+        client.assign(new AssignParams())
+        long elapsedMillis = (System.nanoTime() - start) / 1000000
+        4.times { client.assign(new AssignParams()) }
+
+        then:
+        elapsedMillis < 1000
+        requests["2/dir/assign"].get() == 5
+        requests["1/cluster/status"] || requests["2/cluster/status"]
+        client.masters.leader == urls[2]
+
+        when:
+        10.times { client.lookup(3) }
+
+        then: "the stopped master is only tried last"
+        requests["1/dir/lookup"].get() == 10
+    }
+
+    def "should find the leader when a follower answers the assignation with an error"() {
+        given:
+        leader = 1
+        def client = WeedFSClientBuilder.createBuilder().setMasterUrls(urls).build()
+
+        when:
+        client.assign(new AssignParams())
+        client.assign(new AssignParams())
+
+        then:
+        requests["0/dir/assign"].get() == 1
+        requests["1/dir/assign"].get() == 2
+
+        cleanup:
+        client.close()
+    }
+
+    def "should quickly fail over from an unreachable master"() {
+        given:
+        leader = 1
+        def client = WeedFSClientBuilder.createBuilder().setMasterConnectTimeoutMillis(200)
+                .setMasterUrls(new URL("http://10.255.255.1:9333"), urls[1]).build()
+
+        when:
+        long start = System.nanoTime()
+        def assignation = client.assign(new AssignParams())
+        long elapsedMillis = (System.nanoTime() - start) / 1000000
+
+        then:
+        assignation.weedFSFile.fid == "3,01637037d6"
+        elapsedMillis < 2000
+
+        cleanup:
+        client.close()
+    }
+
+    def "should keep the request config of a provided http client"() {
+        given:
+        def httpClient = HttpClientBuilder.create().setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(10000).setSocketTimeout(60000).build()).build()
+        def client = WeedFSClientBuilder.createBuilder().setHttpClient(httpClient).setMasterUrls(urls).build()
+
+        expect:
+        client.masterRequestConfig == null
+        client.lookup(3)
+
+        cleanup:
+        client.close()
+        httpClient.close()
+    }
+
+    def "should apply the master connect timeout to its own http client"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().setMasterConnectTimeoutMillis(200).setMasterUrls(urls).build()
+
+        expect:
+        client.masterRequestConfig.connectTimeout == 200
+        client.masterRequestConfig.socketTimeout == WeedFSClientBuilder.defaultRequestConfig().socketTimeout
+
+        cleanup:
+        client.close()
+    }
+
+    private HttpServer master(int index) {
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            def path = exchange.requestURI.path
+            requests.computeIfAbsent(index + path, { new AtomicInteger() }).incrementAndGet()
+            def status = 200
+            def body
+            switch (path) {
+                case "/cluster/status":
+                    body = """{"IsLeader":${leader == index},"Leader":"${urls[leader].authority}"}"""
+                    break
+                case "/dir/assign":
+                    if (leader == index) {
+                        body = """{"fid":"3,01637037d6","url":"localhost:8080","publicUrl":"localhost:8080","count":1}"""
+                    } else {
+                        status = 503
+                        body = "not the leader"
+                    }
+                    break
+                case "/dir/lookup":
+                    body = """{"volumeOrFileId":"3","locations":[{"url":"localhost:8080","publicUrl":"localhost:8080"}]}"""
+                    break
+                default:
+                    status = 404
+                    body = ""
+            }
+            byte[] bytes = body.bytes
+            exchange.sendResponseHeaders(status, bytes.length ?: -1)
+            if (bytes.length) {
+                exchange.responseBody.write(bytes)
+            }
+            exchange.close()
+        }
+        server.start()
+        urls << new URL("http://localhost:" + server.address.port)
+        server
+    }
+}
@@ -0,0 +1,108 @@
+package com.scoopit.weedfs.client
+
+import org.apache.http.entity.ContentType
+import org.apache.http.entity.mime.HttpMultipartMode
+import org.apache.http.entity.mime.MultipartEntityBuilder
+import org.apache.http.nio.ContentEncoder
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class MultipartAsyncEntitySpec extends Specification {
+
+    def file = File.createTempFile("multipart-async", ".bin")
+
+    def cleanup() {
+        file.delete()
+    }
+
+    def "should produce the same body asynchronously and through writeTo and getContent"() {
+        given:
+        file.bytes = ("x" * 100000).bytes
+        def entity = new MultipartAsyncEntity(file, "été.bin")
+        def out = new ByteArrayOutputStream()
+
+        when:
+        def produced = produce(entity)
+        entity.writeTo(out)
+
+        then:
+        produced.length == entity.contentLength
+        out.toByteArray() == produced
+        entity.content.bytes == produced
+        new String(produced, "UTF-8").contains('filename="été.bin"')
+    }
+
+    def "should encode file names as blocking uploads do"() {
+        given:
+        def entity = new MultipartAsyncEntity("content".bytes, name)
+        def boundary = entity.contentType.value - "multipart/form-data; boundary="
+        def blocking = new ByteArrayOutputStream()
+        MultipartEntityBuilder.create().setMode(HttpMultipartMode.RFC6532).setBoundary(boundary)
+                .addBinaryBody("file", "content".bytes, ContentType.APPLICATION_OCTET_STREAM, name).build().writeTo(blocking)
+
+        expect:
+        produce(entity) == blocking.toByteArray()
+
+        where:
+        name << ["name.bin", "été.bin", 'say "hi".bin', 'back\\slash.bin']
+    }
+
+    def "should fail if the file gets shorter than announced"() {
+        given:
+        file.bytes = ("x" * 100000).bytes
+        def entity = new MultipartAsyncEntity(file, "name.bin")
+        file.bytes = ("x" * 10).bytes
+
+        when:
+        produce(entity)
+
+        then:
+        thrown(EOFException)
+
+        when:
+        entity.writeTo(new ByteArrayOutputStream())
+
+        then:
+        thrown(EOFException)
+    }
+
+    def "should not send bytes appended to the file"() {
+        given:
+        file.bytes = "content".bytes
+        def entity = new MultipartAsyncEntity(file, "name.bin")
+        file.append("appended")
+
+        when:
+        def produced = produce(entity)
+
+        then:
+        produced.length == entity.contentLength
+        !new String(produced, "UTF-8").contains("appended")
+    }
+
+    /**
+     * Drives the entity as the I/O reactor would, with an encoder accepting at most 4 KB per call.
+     */
+    private static byte[] produce(MultipartAsyncEntity entity) {
+        def out = new ByteArrayOutputStream()
+        boolean completed = false
+        def encoder = [
+                write      : { ByteBuffer src ->
+                    int n = Math.min(src.remaining(), 4096)
+                    byte[] chunk = new byte[n]
+                    src.get(chunk)
+                    out.write(chunk)
+                    return n
+                },
+                complete   : { completed = true },
+                isCompleted: { completed }
+        ] as ContentEncoder
+        int calls = 0
+        while (!completed) {
+            entity.produceContent(encoder, null)
+            assert ++calls < 10000
+        }
+        return out.toByteArray()
+    }
+}
@@ -0,0 +1,101 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class RangeReadSpec extends Specification {
+
+    static final byte[] CONTENT = "0123456789abcdefghij".bytes
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def honourRanges = true
+    def file = new WeedFSFile("3,01637037d6")
+    def location
+    def client = WeedFSClientBuilder.createBuilder().build()
+
+    def setup() {
+        server.createContext("/") { exchange ->
+            def range = exchange.requestHeaders.getFirst("Range")
+            def matcher = range =~ /bytes=(\d*)-(\d*)/
+            if (!honourRanges || !matcher.matches()) {
+                exchange.sendResponseHeaders(200, CONTENT.length)
+                exchange.responseBody.write(CONTENT)
+            } else {
+                int total = CONTENT.length
+                int start = matcher.group(1) ? matcher.group(1).toInteger() : total - matcher.group(2).toInteger()
+                int end = matcher.group(1) && matcher.group(2) ? Math.min(matcher.group(2).toInteger(), total - 1) : total - 1
+                if (start >= total) {
+                    exchange.responseHeaders.add("Content-Range", "bytes */" + total)
+                    exchange.sendResponseHeaders(416, -1)
+                } else {
+                    start = Math.max(0, start)
+                    exchange.responseHeaders.add("Content-Range", "bytes $start-$end/$total")
+                    exchange.sendResponseHeaders(206, end - start + 1)
+                    exchange.responseBody.write(CONTENT, start, end - start + 1)
+                }
+            }
+            exchange.close()
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+    }
+
+    def cleanup() {
+        client.close()
+        server.stop(0)
+    }
+
+    @Unroll
+    def "should read #expected with honourRanges=#honour"() {
+        given:
+        honourRanges = honour
+
+        when:
+        def result = read(client, file, location)
+
+        then:
+        result.content.text == expected
+        result.offset == offset
+        result.length == expected.length()
+        result.totalLength == 20
+        result.partial == honour
+
+        where:
+        honour | read                                     || expected    | offset
+        true   | { c, f, l -> c.read(f, l, 5, 4) }        || "5678"      | 5
+        false  | { c, f, l -> c.read(f, l, 5, 4) }        || "5678"      | 5
+        true   | { c, f, l -> c.read(f, l, 18, 10) }      || "ij"        | 18
+        false  | { c, f, l -> c.read(f, l, 18, 10) }      || "ij"        | 18
+        true   | { c, f, l -> c.read(f, l, 12) }          || "cdefghij"  | 12
+        false  | { c, f, l -> c.read(f, l, 12) }          || "cdefghij"  | 12
+        true   | { c, f, l -> c.readLast(f, l, 3) }       || "hij"       | 17
+        false  | { c, f, l -> c.readLast(f, l, 3) }       || "hij"       | 17
+    }
+
+    def "should tell the file length when the range starts beyond the end"() {
+        given:
+        honourRanges = honour
+
+        when:
+        client.read(file, location, 25, 5)
+
+        then:
+        def e = thrown(WeedFSRangeNotSatisfiableException)
+        e.totalLength == 20
+
+        where:
+        honour << [true, false]
+    }
+
+    def "should keep reading after a range closed early"() {
+        when:
+        def first = client.read(file, location, 0)
+        first.content.read()
+        first.close()
+
+        then:
+        client.read(file, location, 10, 2).content.text == "ab"
+    }
+}
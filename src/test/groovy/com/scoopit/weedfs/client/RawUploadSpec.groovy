@@ -0,0 +1,71 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class RawUploadSpec extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def requests = []
+    def location
+
+    def setup() {
+        server.createContext("/") { exchange ->
+            def body = exchange.requestBody.bytes
+            requests << [headers: exchange.requestHeaders, body: body]
+            def response = /{"size":${body.length}}/.bytes
+            exchange.sendResponseHeaders(201, response.length)
+            exchange.responseBody.write(response)
+            exchange.close()
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+    }
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+    def "should upload a file as the request body"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().build()
+        def file = File.createTempFile("raw-upload", ".png")
+        file.bytes = "not really a png".bytes
+
+        when:
+        def size = client.writeRaw(new WeedFSFile("3,01637037d6"), location, file, "image/png")
+
+        then:
+        size == 16
+        requests[0].body == "not really a png".bytes
+        requests[0].headers.getFirst("Content-Type") == "image/png"
+        requests[0].headers.getFirst("Content-Disposition") == "attachment; filename=\"" + file.name + "\""
+
+        cleanup:
+        client.close()
+        file.delete()
+    }
+
+    def "should upload the remaining bytes of a direct buffer"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().build()
+        def buffer = ByteBuffer.allocateDirect(16)
+        buffer.put("skip-content".bytes).flip()
+        buffer.position(5)
+
+        when:
+        def size = client.writeRaw(new WeedFSFile("3,01637037d6"), location, buffer, "name.bin", null)
+
+        then:
+        size == 7
+        requests[0].body == "content".bytes
+        requests[0].headers.getFirst("Content-Type") == "application/octet-stream"
+        buffer.position() == 5
+
+        cleanup:
+        client.close()
+    }
+}
@@ -0,0 +1,168 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class ReplicaFailoverSpec extends Specification {
+
+    List<HttpServer> servers = []
+    Map<Location, AtomicInteger> requests = [:]
+    def cache = new MapLookupCache()
+    def selector = new ReplicaSelector()
+    // no master: a lookup would fail
+    def client = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setReplicaSelector(selector)
+            .setMasterUrl(new URL("http://localhost:1")).build()
+    def file = new WeedFSFile("3,01637037d6")
+
+    def cleanup() {
+        client.close()
+        servers*.stop(0)
+    }
+
+    def "should fail over to the next replica and demote a replica answering with server errors"() {
+        given:
+        def broken = volumeServer(500)
+        def healthy = volumeServer(200)
+        cache.setLocation(3, [broken, healthy])
+
+        when:
+        def contents = (1..20).collect { client.read(file).withCloseable { it.text } }
+
+        then:
+        contents.every { it == "content" }
+        requests[broken].get() == 1
+        requests[healthy].get() == 20
+        selector.isDemoted(broken)
+        client.lookup(3) == [healthy, broken]
+        cache.lookup(3) == [broken, healthy]
+    }
+
+    def "should not write the cached entry when demoting a replica"() {
+        given:
+        def writes = new AtomicInteger()
+        def counting = new MapLookupCache() {
+            @Override
+            void setLocation(long volumeId, List<Location> locations) {
+                writes.incrementAndGet()
+                super.setLocation(volumeId, locations)
+            }
+        }
+        def c = WeedFSClientBuilder.createBuilder().setLookupCache(counting).setReplicaSelector(selector)
+                .setMasterUrl(new URL("http://localhost:1")).build()
+        def broken = volumeServer(500)
+        def healthy = volumeServer(200)
+        counting.setLocation(3, [broken, healthy])
+
+        when:
+        20.times { c.read(file).withCloseable { it.text } }
+
+        then:
+        requests[broken].get() == 1
+        selector.isDemoted(broken)
+        c.lookup(3) == [healthy, broken]
+        writes.get() == 1
+
+        cleanup:
+        c.close()
+    }
+
+    def "should fail over from a replica which can not be connected to"() {
+        given:
+        def dead = volumeServer(200)
+        servers.remove(0).stop(0)
+        def healthy = volumeServer(200)
+        cache.setLocation(3, [dead, healthy])
+
+        when:
+        def contents = (1..5).collect { client.read(file).withCloseable { it.text } }
+
+        then:
+        contents.every { it == "content" }
+        selector.isDemoted(dead)
+        selector.stats[dead].selections == 1
+        client.lookup(3) == [healthy, dead]
+        cache.lookup(3) == [dead, healthy]
+    }
+
+    def "should invalidate the volume once all its replicas failed"() {
+        given:
+        def first = volumeServer(503)
+        def second = volumeServer(500)
+        cache.setLocation(3, [first, second])
+
+        when:
+        client.read(file)
+
+        then:
+        def e = thrown(WeedFSServerException)
+        e.status in [500, 503]
+        requests[first].get() == 1
+        requests[second].get() == 1
+        cache.lookup(3) == null
+    }
+
+    def "should not fail over nor demote when the file is not found"() {
+        given:
+        def first = volumeServer(404)
+        def second = volumeServer(404)
+        cache.setLocation(3, [first, second])
+
+        when:
+        client.read(file)
+
+        then:
+        thrown(WeedFSFileNotFoundException)
+        requests.values()*.get().sum() == 1
+        !selector.isDemoted(first)
+        !selector.isDemoted(second)
+        cache.lookup(3) == [first, second]
+    }
+
+    def "should fail over after both hedged requests failed"() {
+        given:
+        def c = WeedFSClientBuilder.createBuilder().setLookupCache(cache).setReplicaSelector(selector)
+                .setHedgingPolicy(HedgingPolicy.fixedDelay(0, java.util.concurrent.TimeUnit.MILLISECONDS, 1)).build()
+        def broken = [volumeServer(500), volumeServer(500)]
+        def healthy = volumeServer(200)
+        cache.setLocation(3, broken + healthy)
+        // replicas never measured are preferred: the primary and the hedge go to the broken ones
+        selector.recordLatency(healthy, 1000000)
+
+        when:
+        def content = c.read(file).withCloseable { it.text }
+
+        then:
+        content == "content"
+        broken.every { requests[it].get() == 1 && selector.isDemoted(it) }
+        requests[healthy].get() == 1
+        c.lookup(3).first() == healthy
+
+        cleanup:
+        c.close()
+    }
+
+    private Location volumeServer(int status) {
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        def url = "localhost:" + server.address.port
+        def location = new Location(url: url, publicUrl: url)
+        def count = new AtomicInteger()
+        requests[location] = count
+        server.createContext("/") { exchange ->
+            count.incrementAndGet()
+            byte[] body = "content".bytes
+            if (status == 200) {
+                exchange.sendResponseHeaders(200, body.length)
+                exchange.responseBody.write(body)
+            } else {
+                exchange.sendResponseHeaders(status, -1)
+            }
+            exchange.close()
+        }
+        server.start()
+        servers << server
+        location
+    }
+}
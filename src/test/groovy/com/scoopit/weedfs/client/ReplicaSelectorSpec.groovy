@@ -0,0 +1,139 @@
+package com.scoopit.weedfs.client
+
+import spock.lang.Specification
+
+class ReplicaSelectorSpec extends Specification {
+
+    def fast = new Location(url: "fast:8080", publicUrl: "fast:8080")
+    def slow = new Location(url: "slow:8080", publicUrl: "slow:8080")
+
+    def "should send most reads to the fastest replica"() {
+        given:
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 1000000)
+        selector.recordLatency(slow, 50000000)
+
+        when:
+        1000.times { selector.select([fast, slow]) }
+
+        then:
+        selector.stats[fast].selections == 1000
+        selector.stats[slow].selections == 0
+    }
+
+    def "should spread reads away from a busy replica"() {
+        given:
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 1000000)
+        selector.recordLatency(slow, 2000000)
+        5.times { selector.onRequestStart(fast) }
+
+        expect:
+        selector.select([fast, slow]) == slow
+        selector.stats[fast].inFlight == 5
+    }
+
+    def "should try unmeasured replicas first"() {
+        given:
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 1000000)
+
+        expect:
+        selector.select([fast, slow]) == slow
+        selector.stats[slow].averageLatencyMillis < 0
+    }
+
+    def "should avoid demoted replicas until they succeed again"() {
+        given:
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 1000000)
+        selector.recordLatency(slow, 50000000)
+        selector.onFailure(fast)
+
+        when:
+        100.times { selector.select([fast, slow]) }
+
+        then:
+        selector.isDemoted(fast)
+        selector.stats[fast].demoted
+        selector.stats[fast].selections == 0
+
+        when:
+        selector.onFailure(slow)
+
+        then: "every replica is demoted, the best one is used"
+        selector.select([fast, slow]) == fast
+
+        when:
+        selector.onSuccess(slow)
+
+        then:
+        !selector.isDemoted(slow)
+        selector.select([fast, slow]) == slow
+    }
+
+    def "should penalize failed requests rather than measure them"() {
+        given:
+        def selector = new ReplicaSelector()
+        selector.recordLatency(fast, 1000000)
+        selector.recordLatency(slow, 5000000)
+
+        when: "the fast replica refuses connections within a microsecond"
+        4.times {
+            selector.onRequestStart(fast)
+            selector.onRequestEnd(fast, 1000, false)
+        }
+
+        then:
+        selector.stats[fast].averageLatencyMillis == 16
+        selector.stats[fast].failures == 4
+        selector.select([fast, slow]) == slow
+
+        when: "a replica never measured fails"
+        def other = new Location(url: "other:8080", publicUrl: "other:8080")
+        selector.onRequestStart(other)
+        selector.onRequestEnd(other, 1000, false)
+
+        then:
+        selector.stats[other].averageLatencyMillis < 0
+    }
+
+    def "should order demoted replicas last"() {
+        given:
+        def selector = new ReplicaSelector()
+        def third = new Location(url: "third:8080", publicUrl: "third:8080")
+        def locations = [fast, slow, third]
+
+        expect: "nothing is copied while no replica is demoted"
+        selector.inPreferenceOrder(locations).is(locations)
+
+        when:
+        selector.onFailure(fast)
+
+        then:
+        selector.inPreferenceOrder(locations) == [slow, third, fast]
+        locations == [fast, slow, third]
+
+        when:
+        selector.onFailure(slow)
+        selector.onFailure(third)
+
+        then:
+        selector.inPreferenceOrder(locations).is(locations)
+    }
+
+    def "should end demotions after a while"() {
+        given:
+        def selector = new ReplicaSelector(ReplicaSelector.DEFAULT_ALPHA, 50, java.util.concurrent.TimeUnit.MILLISECONDS)
+        selector.onFailure(fast)
+
+        expect:
+        selector.isDemoted(fast)
+
+        when:
+        Thread.sleep(100)
+
+        then:
+        !selector.isDemoted(fast)
+    }
+}
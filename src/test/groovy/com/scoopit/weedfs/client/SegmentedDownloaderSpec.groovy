@@ -0,0 +1,166 @@
+package com.scoopit.weedfs.client
+
+import com.scoopit.weedfs.client.caching.MapLookupCache
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class SegmentedDownloaderSpec extends Specification {
+
+    static final byte[] CONTENT = new byte[1000 * 1000]
+
+    static {
+        new Random(7).nextBytes(CONTENT)
+    }
+
+    List<HttpServer> servers = []
+    Map<Location, AtomicInteger> requests = [:]
+    List<String> ranges = [].asSynchronized()
+    def failures = new AtomicInteger()
+    def ignoreRanges = false
+    def announceLength = true
+    def cache = new MapLookupCache()
+    def client = WeedFSClientBuilder.createBuilder().setLookupCache(cache).build()
+    def file = new WeedFSFile("3,01637037d6")
+
+    def setup() {
+        cache.setLocation(3, [volumeServer(), volumeServer()])
+    }
+
+    def cleanup() {
+        client.close()
+        servers*.stop(0)
+    }
+
+    def "should download segments from every replica into a file channel"() {
+        given:
+        def target = File.createTempFile("segmented", ".bin")
+        def channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)
+        def downloader = new SegmentedDownloader(client, 100 * 1000, 4)
+
+        when:
+        def length = downloader.download(file, channel, 0)
+        channel.close()
+
+        then:
+        length == CONTENT.length
+        target.bytes == CONTENT
+        requests.values()*.get().sum() == 10
+        requests.values().every { it.get() > 0 }
+
+        cleanup:
+        downloader.close()
+        target.delete()
+    }
+
+    def "should resume failed segments on another replica"() {
+        given:
+        def target = ByteBuffer.allocateDirect(CONTENT.length + 10)
+        target.position(10)
+        def downloader = new SegmentedDownloader(client, 100 * 1000, 3)
+        failures.set(3)
+
+        when:
+        downloader.download(file, target)
+        target.position(10)
+        def read = new byte[CONTENT.length]
+        target.get(read)
+
+        then:
+        read == CONTENT
+        failures.get() <= 0
+
+        cleanup:
+        downloader.close()
+    }
+
+    def "should download the whole file from servers ignoring ranges"() {
+        given:
+        ignoreRanges = true
+        announceLength = announced
+        def target = ByteBuffer.allocate(CONTENT.length)
+        def downloader = new SegmentedDownloader(client, 100 * 1000, 4)
+
+        when:
+        def length = downloader.download(file, target)
+
+        then: "the probe of the first segment is aborted, the file is read by a single request"
+        length == CONTENT.length
+        target.array() == CONTENT
+        ranges == ["bytes=0-99999", "bytes=0-"]
+
+        cleanup:
+        downloader.close()
+
+        where:
+        announced << [true, false]
+    }
+
+    def "should fail rather than return a truncated file when a server ignoring ranges cuts the transfer"() {
+        given:
+        ignoreRanges = true
+        failures.set(10)
+        def downloader = new SegmentedDownloader(client, 100 * 1000, 4)
+
+        when:
+        downloader.download(file, ByteBuffer.allocate(CONTENT.length))
+
+        then:
+        thrown(IOException)
+
+        cleanup:
+        downloader.close()
+    }
+
+    private Location volumeServer() {
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        def url = "localhost:" + server.address.port
+        def location = new Location(url: url, publicUrl: url)
+        requests[location] = new AtomicInteger()
+        server.createContext("/") { exchange ->
+            requests[location].incrementAndGet()
+            ranges << exchange.requestHeaders.getFirst("Range")
+            if (ignoreRanges) {
+                // a length of 0 sends the body chunked, without telling its length
+                exchange.sendResponseHeaders(200, announceLength ? CONTENT.length : 0)
+                try {
+                    if (failures.getAndDecrement() > 0) {
+                        exchange.responseBody.write(CONTENT, 0, CONTENT.length / 2 as int)
+                        exchange.responseBody.flush()
+                    } else {
+                        exchange.responseBody.write(CONTENT)
+                    }
+                } finally {
+                    exchange.close()
+                }
+                return
+            }
+            def matcher = exchange.requestHeaders.getFirst("Range") =~ /bytes=(\d+)-(\d+)/
+            matcher.matches()
+            int start = matcher.group(1).toInteger()
+            int end = Math.min(matcher.group(2).toInteger(), CONTENT.length - 1)
+            exchange.responseHeaders.add("Content-Range", "bytes $start-$end/$CONTENT.length")
+            exchange.sendResponseHeaders(206, end - start + 1)
+            try {
+                if (failures.getAndDecrement() > 0) {
+                    // closing before the announced length cuts the connection
+                    exchange.responseBody.write(CONTENT, start, (end - start) / 2 as int)
+                    exchange.responseBody.flush()
+                } else {
+                    exchange.responseBody.write(CONTENT, start, end - start + 1)
+                }
+            } finally {
+                exchange.close()
+            }
+        }
+        server.start()
+        servers << server
+        location
+    }
+}
@@ -0,0 +1,137 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.HttpVersion
+import org.apache.http.conn.routing.HttpRoute
+import org.apache.http.message.BasicHttpResponse
+import org.apache.http.protocol.BasicHttpContext
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.TimeUnit
+
+class WeedFSClientBuilderSpec extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def builder = WeedFSClientBuilder.createBuilder()
+    def client
+
+    def setup() {
+        server.createContext("/dir/status") { exchange ->
+            def body = '{"Topology":{"DataCenters":[{"Racks":[{"DataNodes":[' +
+                    '{"Url":"node1:8080","PublicUrl":"node1:8080"},' +
+                    '{"Url":"node2:8080","PublicUrl":"node2:8080"},' +
+                    '{"Url":"node3:8080","PublicUrl":"node3:8080"}]}]}]}}'
+            exchange.sendResponseHeaders(200, body.bytes.length)
+            exchange.responseBody.write(body.bytes)
+            exchange.close()
+        }
+        server.start()
+        builder.setMasterUrl(new URL("http://localhost:${server.address.port}"))
+    }
+
+    def cleanup() {
+        client?.close()
+        server.stop(0)
+    }
+
+    def "should configure the connection pool"() {
+        when:
+        client = builder.setMaxConnections(50)
+                .setMaxConnectionsPerRoute(7)
+                .setValidateAfterInactivity(1234)
+                .setMaxConnectionsPerVolumeServer(location("node1:8080"), 3)
+                .build()
+
+        then:
+        client.connectionManager.maxTotal == 50
+        client.connectionManager.defaultMaxPerRoute == 7
+        client.connectionManager.validateAfterInactivity == 1234
+        client.connectionManager.getMaxPerRoute(route("node1:8080")) == 3
+        client.connectionManager.getMaxPerRoute(route("node2:8080")) == 7
+    }
+
+    def "should apply the volume server limit to every data node but those set explicitly"() {
+        given:
+        client = builder.setMaxConnectionsPerRoute(20)
+                .setMaxConnectionsPerVolumeServer(10)
+                .setMaxConnectionsPerVolumeServer(location("node1:8080"), 20)
+                .setMaxConnectionsPerVolumeServer(location("node2:8080"), 5)
+                .build()
+
+        when:
+        def updated = client.refreshVolumeServerRoutes()
+
+        then:
+        updated == 1
+        client.connectionManager.getMaxPerRoute(route("node1:8080")) == 20
+        client.connectionManager.getMaxPerRoute(route("node2:8080")) == 5
+        client.connectionManager.getMaxPerRoute(route("node3:8080")) == 10
+    }
+
+    def "should not refresh volume server routes without a volume server limit"() {
+        given:
+        client = builder.build()
+
+        expect:
+        client.refreshVolumeServerRoutes() == 0
+        client.connectionManager.getMaxPerRoute(route("node3:8080")) == 20
+    }
+
+    def "should not change the builder master urls when building"() {
+        given:
+        def defaults = WeedFSClientBuilder.createBuilder()
+
+        when:
+        client = defaults.build()
+
+        then:
+        defaults.masterUrls.isEmpty()
+        client.masters.size() == 1
+    }
+
+    def "should evict idle connections"() {
+        given:
+        client = builder.setConnectionIdleTimeout(100, TimeUnit.MILLISECONDS).build()
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        client.getMasterStatus()
+
+        then:
+        client.connectionManager.totalStats.available == 1
+        conditions.eventually {
+            assert client.connectionManager.totalStats.available == 0
+        }
+    }
+
+    def "should bound the keep alive duration asked by servers"() {
+        given:
+        def strategy = new WeedFSClientBuilder.BoundedKeepAliveStrategy(30000)
+
+        expect:
+        strategy.getKeepAliveDuration(response(header), new BasicHttpContext()) == expected
+
+        where:
+        header       || expected
+        null         || 30000
+        "timeout=5"  || 5000
+        "timeout=60" || 30000
+    }
+
+    private static BasicHttpResponse response(String keepAlive) {
+        def ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK")
+        if (keepAlive != null) {
+            ret.addHeader("Keep-Alive", keepAlive)
+        }
+        return ret
+    }
+
+    private static Location location(String url) {
+        return new Location(url: url, publicUrl: url)
+    }
+
+    private static HttpRoute route(String url) {
+        return new HttpRoute(WeedFSClientImpl.toHttpHost(location(url)))
+    }
+}
@@ -0,0 +1,112 @@
+package com.scoopit.weedfs.client
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class WriteVersionsSpec extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def stored = new ConcurrentHashMap<String, Integer>()
+    def failing = [] as Set
+    def concurrentWrites = new CountDownLatch(3)
+    def location
+
+    def setup() {
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/") { exchange ->
+            def path = exchange.requestURI.path.substring(1)
+            int status = 200
+            def response = "{}"
+            if (exchange.requestMethod == "DELETE") {
+                stored.remove(path)
+                status = 202
+            } else if (path in failing) {
+                exchange.requestBody.bytes
+                response = /{"error":"disk full"}/
+                status = 500
+            } else {
+                int size = exchange.requestBody.bytes.length
+                concurrentWrites.countDown()
+                concurrentWrites.await(1, TimeUnit.SECONDS)
+                stored[path] = size
+                response = /{"size":$size}/
+            }
+            exchange.sendResponseHeaders(status, response.length())
+            exchange.responseBody.write(response.bytes)
+            exchange.close()
+        }
+        server.start()
+        def url = "localhost:" + server.address.port
+        location = new Location(url: url, publicUrl: url)
+    }
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+    def "should write every version concurrently"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().build()
+        def assignation = new Assignation(new WeedFSFile("3,01637037d6"), location, 3)
+
+        when:
+        def result = client.writeVersions(assignation, [
+                WritePayload.raw(ByteBuffer.wrap("original".bytes), "a.jpg", "image/jpeg"),
+                WritePayload.raw(ByteBuffer.wrap("big".bytes), "a.jpg", "image/jpeg"),
+                WritePayload.raw(ByteBuffer.wrap("s".bytes), "a.jpg", "image/jpeg")], false)
+
+        then:
+        result.success
+        result.versions*.size == [8, 3, 1]
+        result.versions*.file*.version == [0, 1, 2]
+        stored == ["3,01637037d6": 8, "3,01637037d6_1": 3, "3,01637037d6_2": 1]
+        concurrentWrites.count == 0
+
+        cleanup:
+        client.close()
+    }
+
+    def "should delete written versions when asked to and a version fails"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().build()
+        def assignation = new Assignation(new WeedFSFile("3,01637037d6"), location, 3)
+        failing << "3,01637037d6_2"
+
+        when:
+        def result = client.writeVersions(assignation, [
+                WritePayload.of("original".bytes, "a.jpg"),
+                WritePayload.of("big".bytes, "a.jpg"),
+                WritePayload.of("s".bytes, "a.jpg")], true)
+
+        then:
+        !result.success
+        result.cleanedUp
+        result.failures*.file*.version == [2]
+        result.failures[0].error.message == "disk full"
+        stored.isEmpty()
+
+        cleanup:
+        client.close()
+    }
+
+    def "should refuse more payloads than assigned versions"() {
+        given:
+        def client = WeedFSClientBuilder.createBuilder().build()
+
+        when:
+        client.writeVersions(new Assignation(new WeedFSFile("3,01637037d6"), location, 1),
+                [WritePayload.of("a".bytes, "a"), WritePayload.of("b".bytes, "b")], false)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        client.close()
+    }
+}
@@ -0,0 +1,77 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.Location
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class BoundedLookupCacheSpec extends Specification {
+
+    def "should never hold more than max size entries"() {
+        given:
+        def cache = new BoundedLookupCache(100, policy, 0, TimeUnit.SECONDS)
+
+        when:
+        (1L..1000L).each { cache.setLocation(it, [new Location(url: "http://volume-$it")]) }
+
+        then:
+        cache.size() == 100
+        cache.evictionCount == 900
+        (1L..1000L).count { cache.lookup(it) != null } == 100
+
+        where:
+        policy << BoundedLookupCache.EvictionPolicy.values()
+    }
+
+    def "clock policy should keep recently read entries"() {
+        given:
+        def cache = new BoundedLookupCache(4, BoundedLookupCache.EvictionPolicy.CLOCK, 0, TimeUnit.SECONDS)
+        def hot = [new Location(url: "http://hot")]
+        cache.setLocation(1L, hot)
+
+        when:
+        (2L..50L).each {
+            assert cache.lookup(1L) == hot
+            cache.setLocation(it, [new Location(url: "http://volume-$it")])
+        }
+
+        then:
+        cache.lookup(1L) == hot
+    }
+
+    def "should invalidate entries"() {
+        given:
+        def cache = new BoundedLookupCache(10)
+        (1L..5L).each { cache.setLocation(it, [new Location(url: "http://volume-$it")]) }
+
+        when:
+        cache.invalidate(3L)
+
+        then:
+        cache.lookup(3L) == null
+        [1L, 2L, 4L, 5L].every { cache.lookup(it) != null }
+
+        when:
+        cache.invalidate()
+
+        then:
+        cache.size() == 0
+        cache.lookup(1L) == null
+    }
+
+    def "should expire entries after write"() {
+        given:
+        def cache = new BoundedLookupCache(10, BoundedLookupCache.EvictionPolicy.CLOCK, 100, TimeUnit.MILLISECONDS)
+        cache.setLocation(1L, [new Location(url: "http://ya.ru")])
+
+        expect:
+        cache.lookup(1L) != null
+
+        when:
+        sleep(150)
+
+        then:
+        cache.lookup(1L) == null
+        cache.expirationCount == 1
+    }
+}
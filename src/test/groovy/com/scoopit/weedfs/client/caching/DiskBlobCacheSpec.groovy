@@ -0,0 +1,100 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.WeedFSFile
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class DiskBlobCacheSpec extends Specification {
+
+    File directory = File.createTempDir()
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "should serve what was stored"() {
+        given:
+        def cache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+
+        when:
+        cache.put(new WeedFSFile("3,01637037d6", 1), ByteBuffer.wrap("hello".bytes))
+
+        then:
+        cache.get(new WeedFSFile("3,01637037d6", 1)).text == "hello"
+        cache.get(new WeedFSFile("3,01637037d6")) == null
+        cache.hitCount == 1
+        cache.missCount == 1
+        cache.bytesServed == 5
+
+        cleanup:
+        cache.close()
+    }
+
+    def "should find blobs again after a restart, except invalidated ones"() {
+        given:
+        def cache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.wrap("one".bytes))
+        cache.put(new WeedFSFile("3,2"), ByteBuffer.wrap("two".bytes))
+        cache.invalidate(new WeedFSFile("3,2"))
+        cache.close()
+
+        when:
+        cache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+
+        then:
+        cache.size() == 1
+        cache.get(new WeedFSFile("3,1")).text == "one"
+        cache.get(new WeedFSFile("3,2")) == null
+
+        when: "new blobs are appended after the recovered ones"
+        cache.put(new WeedFSFile("3,3"), ByteBuffer.wrap("three".bytes))
+        cache.close()
+        cache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+
+        then:
+        cache.get(new WeedFSFile("3,1")).text == "one"
+        cache.get(new WeedFSFile("3,3")).text == "three"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "should evict the least recently accessed segment"() {
+        given:
+        def cache = new DiskBlobCache(directory, 3 << 20, 1 << 20)
+        def blob = ByteBuffer.allocate(200 << 10)
+
+        when: "the first segment is read while the others fill up"
+        16.times {
+            cache.put(new WeedFSFile("3," + it), blob)
+            cache.get(new WeedFSFile("3,0"))
+        }
+
+        then:
+        cache.evictionCount == 1
+        cache.evictedBlobCount == 5
+        cache.get(new WeedFSFile("3,0")) != null
+        cache.get(new WeedFSFile("3,5")) == null
+        cache.get(new WeedFSFile("3,15")) != null
+        cache.size() == 11
+
+        cleanup:
+        cache.close()
+    }
+
+    def "should not store blobs larger than a quarter of a segment"() {
+        given:
+        def cache = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+
+        when:
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.allocate(300 << 10))
+
+        then:
+        !cache.accepts(300 << 10)
+        cache.get(new WeedFSFile("3,1")) == null
+
+        cleanup:
+        cache.close()
+    }
+}
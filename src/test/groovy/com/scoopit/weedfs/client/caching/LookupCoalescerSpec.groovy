@@ -0,0 +1,72 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.Location
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class LookupCoalescerSpec extends Specification {
+
+    private executorService = Executors.newCachedThreadPool()
+
+    def "concurrent lookups of the same volume should share one master call"() {
+        given:
+        def coalescer = new LookupCoalescer()
+        def release = new CountDownLatch(1)
+        def calls = new AtomicInteger()
+        def locations = [new Location(url: "http://ya.ru")]
+        def loader = { long volumeId ->
+            calls.incrementAndGet()
+            release.await()
+            return locations
+        } as LookupLoader
+
+        when:
+        def futures = (1..10).collect {
+            executorService.submit({ coalescer.lookup(1L, loader) } as Callable)
+        }
+        while (coalescer.coalescedCount < 9) {
+            sleep(10)
+        }
+        release.countDown()
+
+        then:
+        futures.every { it.get() == locations }
+        calls.get() == 1
+        coalescer.lookupCount == 1
+        coalescer.coalescedCount == 9
+        coalescer.inFlightCount == 0
+    }
+
+    def "waiting lookups should get the error of the shared lookup"() {
+        given:
+        def coalescer = new LookupCoalescer()
+        def release = new CountDownLatch(1)
+        def loader = { long volumeId ->
+            release.await()
+            throw new IOException("master down")
+        } as LookupLoader
+
+        when:
+        def futures = (1..3).collect {
+            executorService.submit({
+                try {
+                    coalescer.lookup(1L, loader)
+                    return null
+                } catch (IOException e) {
+                    return e.message
+                }
+            } as Callable)
+        }
+        while (coalescer.coalescedCount < 2) {
+            sleep(10)
+        }
+        release.countDown()
+
+        then:
+        futures.every { it.get() == "master down" }
+    }
+}
@@ -0,0 +1,72 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.WeedFSFile
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class MemoryBlobCacheSpec extends Specification {
+
+    def "should serve read only views of the cached content"() {
+        given:
+        def cache = new MemoryBlobCache(1 << 20, 1 << 10, direct)
+        cache.put(new WeedFSFile("3,1", 2), ByteBuffer.wrap("thumbnail".bytes))
+
+        when:
+        def first = cache.getBuffer(new WeedFSFile("3,1", 2))
+        def second = cache.getBuffer(new WeedFSFile("3,1", 2))
+        first.get()
+
+        then:
+        first.readOnly
+        second.remaining() == 9
+        cache.get(new WeedFSFile("3,1", 2)).text == "thumbnail"
+        cache.get(new WeedFSFile("3,1")) == null
+        cache.hitCount == 3
+        cache.missCount == 1
+
+        where:
+        direct << [false, true]
+    }
+
+    def "should stay within its byte budget"() {
+        given:
+        def cache = new MemoryBlobCache(100 << 10, 4 << 10, false)
+
+        when:
+        1000.times { cache.put(new WeedFSFile("3," + it), ByteBuffer.allocate(1 + it % (4 << 10))) }
+
+        then:
+        cache.bytes <= 100 << 10
+        cache.evictionCount > 0
+    }
+
+    def "should keep frequently requested blobs through a scan of one hit wonders"() {
+        given:
+        def cache = new MemoryBlobCache(100 << 10, 1 << 10, false)
+        def hot = (0..<50).collect { new WeedFSFile("3,hot" + it) }
+        hot.each { cache.put(it, ByteBuffer.allocate(1 << 10)) }
+        5.times { hot.each { cache.get(it) } }
+
+        when:
+        5000.times { cache.put(new WeedFSFile("4," + it), ByteBuffer.allocate(1 << 10)) }
+
+        then:
+        hot.count { cache.getBuffer(it) != null } == 50
+        cache.rejectionCount > 0
+    }
+
+    def "should forget invalidated blobs"() {
+        given:
+        def cache = new MemoryBlobCache(1 << 20)
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.wrap("one".bytes))
+
+        when:
+        cache.invalidate(new WeedFSFile("3,1"))
+
+        then:
+        cache.get(new WeedFSFile("3,1")) == null
+        cache.bytes == 0
+        cache.size() == 0
+    }
+}
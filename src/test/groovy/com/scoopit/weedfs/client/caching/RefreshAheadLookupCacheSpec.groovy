@@ -0,0 +1,75 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.Location
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RefreshAheadLookupCacheSpec extends Specification {
+
+    def "should serve stale locations while refreshing in background"() {
+        given:
+        def cache = new RefreshAheadLookupCache(200, 10000, TimeUnit.MILLISECONDS)
+        def loads = new AtomicInteger()
+        def fresh = [new Location(url: "http://fresh")]
+        cache.setLookupLoader({ long volumeId ->
+            loads.incrementAndGet()
+            sleep(100)
+            cache.setLocation(volumeId, fresh)
+            return fresh
+        } as LookupLoader)
+        def stale = [new Location(url: "http://stale")]
+        cache.setLocation(1L, stale)
+
+        when:
+        sleep(250)
+        def served = (1..10).collect { cache.lookup(1L) }
+
+        then:
+        served.every { it == stale }
+
+        when:
+        sleep(300)
+
+        then:
+        cache.lookup(1L) == fresh
+        loads.get() >= 1
+        cache.staleHitCount >= 10
+
+        cleanup:
+        cache.close()
+    }
+
+    def "should evict entries older than max stale"() {
+        given:
+        def cache = new RefreshAheadLookupCache(100, 200, TimeUnit.MILLISECONDS)
+        cache.setLookupLoader({ long volumeId -> throw new IOException("master down") } as LookupLoader)
+        cache.setLocation(1L, [new Location(url: "http://ya.ru")])
+
+        when:
+        sleep(300)
+
+        then:
+        cache.lookup(1L) == null
+        cache.evictionCount == 1
+
+        cleanup:
+        cache.close()
+    }
+
+    def "should expire entries after refresh delay without loader"() {
+        given:
+        def cache = new RefreshAheadLookupCache(100, 1000, TimeUnit.MILLISECONDS)
+        cache.setLocation(1L, [new Location(url: "http://ya.ru")])
+
+        when:
+        sleep(150)
+
+        then:
+        cache.lookup(1L) == null
+
+        cleanup:
+        cache.close()
+    }
+}
@@ -0,0 +1,71 @@
+package com.scoopit.weedfs.client.caching
+
+import com.scoopit.weedfs.client.WeedFSFile
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class TieredBlobCacheSpec extends Specification {
+
+    File directory = File.createTempDir()
+    def memory = new MemoryBlobCache(1 << 20, 1 << 10, false)
+    def disk = new DiskBlobCache(directory, 4 << 20, 1 << 20)
+    def cache = new TieredBlobCache(memory, disk)
+
+    def cleanup() {
+        cache.close()
+        directory.deleteDir()
+    }
+
+    def "should store blobs in every tier accepting them"() {
+        when:
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.wrap("small".bytes))
+        cache.put(new WeedFSFile("3,2"), ByteBuffer.allocate(2 << 10))
+
+        then:
+        memory.get(new WeedFSFile("3,1")).text == "small"
+        disk.get(new WeedFSFile("3,1")).text == "small"
+        memory.get(new WeedFSFile("3,2")) == null
+        disk.get(new WeedFSFile("3,2")) != null
+        cache.accepts(2 << 10)
+        !cache.accepts(1 << 20)
+    }
+
+    def "should serve from the fastest tier"() {
+        given:
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.wrap("small".bytes))
+
+        when:
+        def content = cache.get(new WeedFSFile("3,1")).text
+
+        then:
+        content == "small"
+        memory.hitCount == 1
+        disk.hitCount == 0
+    }
+
+    def "should promote blobs found in a lower tier"() {
+        given:
+        disk.put(new WeedFSFile("3,1"), ByteBuffer.wrap("small".bytes))
+
+        when:
+        def content = cache.get(new WeedFSFile("3,1")).text
+
+        then:
+        content == "small"
+        memory.get(new WeedFSFile("3,1")).text == "small"
+    }
+
+    def "should invalidate every tier"() {
+        given:
+        cache.put(new WeedFSFile("3,1"), ByteBuffer.wrap("small".bytes))
+
+        when:
+        cache.invalidate(new WeedFSFile("3,1"))
+
+        then:
+        cache.get(new WeedFSFile("3,1")) == null
+        memory.get(new WeedFSFile("3,1")) == null
+        disk.get(new WeedFSFile("3,1")) == null
+    }
+}
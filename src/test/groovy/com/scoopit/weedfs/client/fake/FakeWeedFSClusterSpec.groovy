@@ -0,0 +1,183 @@
+package com.scoopit.weedfs.client.fake
+
+import com.scoopit.weedfs.client.AssignParams
+import com.scoopit.weedfs.client.ReplicationStrategy
+import com.scoopit.weedfs.client.WeedFSClientBuilder
+import com.scoopit.weedfs.client.WeedFSException
+import com.scoopit.weedfs.client.WeedFSFileNotFoundException
+import com.scoopit.weedfs.client.WeedFSServerException
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+class FakeWeedFSClusterSpec extends Specification {
+
+    def cluster = FakeWeedFSCluster.createBuilder().setVolumeServers(3).setVolumes(6)
+            .setReplication(ReplicationStrategy.OnceOnSameRack).build()
+    def client = WeedFSClientBuilder.createBuilder().setMasterUrl(cluster.masterUrl).build()
+
+    def cleanup() {
+        client.close()
+        cluster.close()
+    }
+
+    def "should store multipart and raw uploads on every replica"() {
+        when:
+        def a = client.assign(new AssignParams())
+        def size = client.write(a.weedFSFile, a.location, "some content".bytes, "file.txt")
+        def b = client.assign(new AssignParams())
+        client.writeRaw(b.weedFSFile, b.location, ByteBuffer.wrap("raw content".bytes), "raw.txt", "text/plain")
+
+        then:
+        size == 12
+        client.read(a.weedFSFile).withCloseable { it.text } == "some content"
+        client.read(b.weedFSFile).withCloseable { it.text } == "raw content"
+        cluster.getReplicas(a.weedFSFile.volumeId).every { new String(it.getContent(a.weedFSFile.fid)) == "some content" }
+        cluster.volumeServers.sum { it.fileCount } == 4
+
+        when:
+        client.delete(a.weedFSFile, a.location)
+        client.read(a.weedFSFile, a.location)
+
+        then:
+        thrown(WeedFSFileNotFoundException)
+        cluster.volumeServers.sum { it.fileCount } == 2
+    }
+
+    def "should spread volumes over the servers and answer lookups and status"() {
+        expect:
+        cluster.volumeIds == [1L, 2L, 3L, 4L, 5L, 6L]
+        cluster.volumeServers.every { it.volumeIds.size() == 4 }
+        client.lookup(2) == cluster.getReplicas(2)*.location
+        client.masterStatus.Topology.dataNodes*.asLocation() == cluster.volumeServers*.location
+        client.masterStatus.Topology.layouts[0].replicationStrategy == ReplicationStrategy.OnceOnSameRack
+        client.getVolumeStatus(cluster.getVolumeServer(0).location).Volumes*.Id as Set == [1, 3, 4, 6] as Set
+
+        when:
+        client.lookup(7)
+
+        then:
+        thrown(WeedFSException)
+    }
+
+    def "should serve byte ranges"() {
+        given:
+        def a = client.assign(new AssignParams())
+        client.write(a.weedFSFile, a.location, "0123456789".bytes, "digits")
+
+        expect:
+        client.read(a.weedFSFile, a.location, 2, 3).withCloseable { it.content.text } == "234"
+        client.readLast(a.weedFSFile, a.location, 4).withCloseable { it.content.text } == "6789"
+        client.read(a.weedFSFile, a.location, 8).withCloseable { [it.offset, it.totalLength, it.content.text] } == [8, 10, "89"]
+    }
+
+    def "should delete in batches"() {
+        given:
+        def files = (1..10).collect {
+            def a = client.assign(new AssignParams())
+            client.write(a.weedFSFile, a.location, "content $it".bytes, "f")
+            a.weedFSFile
+        }
+
+        when:
+        def results = client.deleteAll(files)
+
+        then:
+        results.values().every { it.success }
+        cluster.volumeServers.every { it.fileCount == 0 }
+    }
+
+    def "should inject server errors and let reads fail over to another replica"() {
+        given:
+        def a = client.assign(new AssignParams())
+        client.write(a.weedFSFile, a.location, "content".bytes, "f")
+        def broken = cluster.getVolumeServer(a.location)
+        broken.faults.setErrorRate(1)
+
+        when:
+        client.read(a.weedFSFile, a.location)
+
+        then:
+        thrown(WeedFSServerException)
+
+        expect:
+        client.read(a.weedFSFile).withCloseable { it.text } == "content"
+    }
+
+    def "should inject latency, timeouts and bandwidth limits"() {
+        given:
+        def a = client.assign(new AssignParams())
+        client.write(a.weedFSFile, a.location, new byte[32 * 1024], "f")
+        def server = cluster.getVolumeServer(a.location)
+
+        when:
+        server.faults.setLatency(LatencyDistribution.fixed(100, TimeUnit.MILLISECONDS))
+        def start = System.nanoTime()
+        client.read(a.weedFSFile, a.location).close()
+
+        then:
+        System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100)
+
+        when:
+        server.faults.reset()
+        server.faults.setBandwidth(64 * 1024)
+        start = System.nanoTime()
+        def length = client.read(a.weedFSFile, a.location).withCloseable { it.bytes.length }
+
+        then:
+        length == 32 * 1024
+        System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400)
+
+        when:
+        server.faults.reset()
+        server.faults.setTimeoutRate(1).setTimeout(50, TimeUnit.MILLISECONDS)
+        client.read(a.weedFSFile, a.location)
+
+        then:
+        thrown(IOException)
+    }
+
+    def "should draw the faults of a request from the seed and its number only"() {
+        given:
+        def faults = { new Faults(42).setErrorRate(0.5) }
+        def sequential = faults().with { f -> (0..<100).collect { f.nextFails(f.nextRequest()) } }
+
+        when: "requests draw their faults in another order than they arrived"
+        def f = faults()
+        def generators = (0..<100).collect { f.nextRequest() }
+        def interleaved = new Boolean[100]
+        (0..<100).reverse().each { interleaved[it] = f.nextFails(generators[it]) }
+
+        then:
+        interleaved as List == sequential
+        sequential.count { it } in 30..70
+    }
+
+    def "should draw latencies from the configured distributions"() {
+        given:
+        def random = new Random(1)
+
+        expect:
+        LatencyDistribution.fixed(5, TimeUnit.MILLISECONDS).nextNanos(random) == 5000000
+        (1..1000).collect { LatencyDistribution.uniform(1, 2, TimeUnit.MILLISECONDS).nextNanos(random) }.every {
+            it >= 1000000 && it <= 2000000
+        }
+        Math.abs((1..10000).sum { LatencyDistribution.exponential(1, TimeUnit.MILLISECONDS).nextNanos(random) } / 10000 - 1000000) < 100000
+        LatencyDistribution.NONE.withSlowRequests(1, LatencyDistribution.fixed(1, TimeUnit.SECONDS)).nextNanos(random) == 1000000000
+    }
+
+    def "should parse byte ranges like a volume server"() {
+        expect:
+        FakeVolumeServer.parseRange(range, 10) == expected
+
+        where:
+        range           | expected
+        "bytes=2-4"     | [2, 4] as long[]
+        "bytes=8-"      | [8, 9] as long[]
+        "bytes=-3"      | [7, 9] as long[]
+        "bytes=5-50"    | [5, 9] as long[]
+        "bytes=10-"     | null
+        "bytes=0-1,3-4" | null
+    }
+}
@@ -0,0 +1,66 @@
+package com.scoopit.weedfs.client.metrics
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class LatencyHistogramSpec extends Specification {
+
+    @Unroll
+    def "should give percentiles within the precision for #percentile"() {
+        given:
+        def histogram = new LatencyHistogram()
+        (1..100000).each { histogram.record(it * 1000L) }
+
+        when:
+        def value = histogram.getValueAtPercentile(percentile)
+        def expected = percentile * 1000 * 1000
+
+        then:
+        Math.abs(value - expected) <= expected / 32
+
+        where:
+        percentile << [1, 50, 90, 99, 99.9]
+    }
+
+    def "should keep small values exact and track count, mean and max"() {
+        given:
+        def histogram = new LatencyHistogram()
+
+        when:
+        [3, 7, 7, 20, -5].each { histogram.record(it) }
+
+        then:
+        histogram.count == 5
+        histogram.max == 20
+        histogram.mean == 37 / 5
+        histogram.getValueAtPercentile(0) == 0
+        histogram.getValueAtPercentile(60) == 7
+        histogram.getValueAtPercentile(100) == 20
+    }
+
+    def "should map every value to a bucket covering it"() {
+        given:
+        def histogram = new LatencyHistogram(3)
+
+        expect:
+        [0L, 7L, 8L, 15L, 16L, 1000L, 123456789L, Long.MAX_VALUE].every { v ->
+            int index = histogram.indexOf(v)
+            long mid = histogram.valueOf(index)
+            index < (64 - 3) * 8 && Math.abs((double) mid - v) <= v / 8d
+        }
+    }
+
+    def "should reset"() {
+        given:
+        def histogram = new LatencyHistogram()
+        histogram.record(1000)
+
+        when:
+        histogram.reset()
+
+        then:
+        histogram.count == 0
+        histogram.max == 0
+        histogram.getValueAtPercentile(50) == 0
+    }
+}
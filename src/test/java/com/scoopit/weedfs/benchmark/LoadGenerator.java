@@ -0,0 +1,463 @@
+package com.scoopit.weedfs.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scoopit.weedfs.client.AssignParams;
+import com.scoopit.weedfs.client.Assignation;
+import com.scoopit.weedfs.client.Location;
+import com.scoopit.weedfs.client.WeedFSClient;
+import com.scoopit.weedfs.client.WeedFSClientBuilder;
+import com.scoopit.weedfs.client.WeedFSFile;
+import com.scoopit.weedfs.client.fake.FakeWeedFSCluster;
+import com.scoopit.weedfs.client.metrics.LatencyHistogram;
+
+/**
+ * Open loop load generator: requests are started at a fixed (or Poisson) rate whatever the latency of the previous ones,
+ * and every latency is measured from the time the request was scheduled to start, not from the time a worker picked it
+ * up. A cluster that stalls therefore shows up in the percentiles instead of silently lowering the request rate
+ * (coordinated omission). Service times, measured from the actual start, are reported next to them.
+ * <p>
+ * One client is shared by all the workers. Reads pick files among the last <code>keys</code> written, with a Zipf skew;
+ * deletes pick them uniformly. Each interval and the whole run are printed to stdout as JSON lines, latencies in
+ * milliseconds.
+ * <p>
+ * Usage: <code>LoadGenerator [name=value]...</code>, for instance
+ * <code>LoadGenerator master=http://localhost:9333 rate=500 duration=60 mix=read:80,write:15,delete:5 size=lognormal:16384:1</code>
+ * <ul>
+ * <li><code>master</code>: master url, or <code>fake</code> to run against an in-process {@link FakeWeedFSCluster}</li>
+ * <li><code>rate</code>: requests per second, <code>arrivals</code>: <code>fixed</code> or <code>poisson</code></li>
+ * <li><code>duration</code> and <code>interval</code>: in seconds</li>
+ * <li><code>mix</code>: relative weights of read, write and delete</li>
+ * <li><code>size</code>: <code>fixed:bytes</code>, <code>uniform:min:max</code> or <code>lognormal:median:sigma</code>, capped
+ * to <code>maxSize</code></li>
+ * <li><code>keys</code>: files kept for reads, <code>preload</code>: files written before the run, <code>skew</code>: Zipf
+ * exponent of reads, 0 for uniform</li>
+ * <li><code>workers</code>: maximum concurrent requests, <code>verify</code>: check the MD5 of what is read</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    enum Op {
+        READ, WRITE, DELETE
+    }
+
+    private static final ObjectMapper json = new ObjectMapper();
+
+    private final Map<String, String> config = new LinkedHashMap<>();
+
+    private WeedFSClient client;
+
+    private AtomicReferenceArray<StoredFile> files;
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private double[] zipf;
+
+    private String[] size;
+
+    private boolean verify;
+
+    private byte[] payload;
+
+    private final AtomicReference<Stats> interval = new AtomicReference<>(new Stats());
+
+    private final Stats total = new Stats();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger reportedErrors = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        // read once by the JDK http server of the fake cluster, before any server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        new LoadGenerator(args).run();
+    }
+
+    LoadGenerator(String[] args) {
+        config.put("master", "http://localhost:9333");
+        config.put("rate", "100");
+        config.put("arrivals", "fixed");
+        config.put("duration", "60");
+        config.put("interval", "1");
+        config.put("mix", "read:80,write:15,delete:5");
+        config.put("size", "lognormal:16384:1");
+        config.put("maxSize", Integer.toString(4 << 20));
+        config.put("keys", "10000");
+        config.put("preload", "1000");
+        config.put("skew", "0.99");
+        config.put("workers", "256");
+        config.put("verify", "true");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !config.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected one of " + config.keySet());
+            }
+            config.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+    }
+
+    void run() throws Exception {
+        double rate = Double.parseDouble(config.get("rate"));
+        boolean poisson = config.get("arrivals").equals("poisson");
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(config.get("duration")));
+        long intervalMillis = (long) (Double.parseDouble(config.get("interval")) * 1000);
+        Op[] mix = mix(config.get("mix"));
+        int keys = Integer.parseInt(config.get("keys"));
+        int workers = Integer.parseInt(config.get("workers"));
+
+        files = new AtomicReferenceArray<>(keys);
+        zipf = zipf(keys, Double.parseDouble(config.get("skew")));
+        size = config.get("size").split(":");
+        verify = Boolean.parseBoolean(config.get("verify"));
+        payload = new byte[Integer.parseInt(config.get("maxSize"))];
+        new Random().nextBytes(payload);
+
+        FakeWeedFSCluster cluster = config.get("master").equals("fake") ? FakeWeedFSCluster.createBuilder().build() : null;
+        URL masterUrl = cluster != null ? cluster.getMasterUrl() : new URL(config.get("master"));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, daemon("load-worker"));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(daemon("load-reporter"));
+        try {
+            client = WeedFSClientBuilder.createBuilder().setMasterUrl(masterUrl).setMaxConnections(workers)
+                    .setMaxConnectionsPerRoute(workers).build();
+            print("config", config);
+
+            int preload = Math.min(keys, Integer.parseInt(config.get("preload")));
+            for (int i = 0; i < preload; i++) {
+                write();
+            }
+
+            interval.set(new Stats());
+            long start = System.nanoTime();
+            reporter.scheduleAtFixedRate(() -> report(start), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+            // the schedule only depends on the rate: requests are submitted on time even while earlier ones are still running
+            double periodNanos = 1e9 / rate;
+            double next = 0;
+            Random random = new Random();
+            while (next < durationNanos) {
+                long intended = start + (long) next;
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                Op op = mix[random.nextInt(mix.length)];
+                inFlight.incrementAndGet();
+                executor.execute(() -> execute(op, intended));
+                next += poisson ? -periodNanos * Math.log(1 - random.nextDouble()) : periodNanos;
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            reporter.shutdownNow();
+            report(start);
+            Map<String, Object> summary = total.toJson(System.nanoTime() - start);
+            summary.put("elapsed", (System.nanoTime() - start) / 1e9);
+            print("summary", summary);
+        } finally {
+            executor.shutdownNow();
+            reporter.shutdownNow();
+            if (client != null) {
+                client.close();
+            }
+            if (cluster != null) {
+                cluster.close();
+            }
+        }
+    }
+
+    private void execute(Op op, long intendedNanos) {
+        long startNanos = System.nanoTime();
+        long bytes = 0;
+        Exception error = null;
+        try {
+            switch (op) {
+            case READ:
+                bytes = read();
+                break;
+            case WRITE:
+                bytes = write();
+                break;
+            case DELETE:
+                delete();
+                break;
+            }
+        } catch (Exception e) {
+            error = e;
+            if (reportedErrors.incrementAndGet() <= 10) {
+                System.err.println(op + " failed: " + e);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        long end = System.nanoTime();
+        for (Stats stats : new Stats[] { interval.get(), total }) {
+            stats.record(op, end - intendedNanos, end - startNanos, bytes, error);
+        }
+    }
+
+    private long read() throws IOException, NoSuchAlgorithmException {
+        StoredFile stored = pick(true);
+        if (stored == null) {
+            return 0;
+        }
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        long ret = 0;
+        try (InputStream in = client.read(stored.file)) {
+            byte[] buf = new byte[64 << 10];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md5.update(buf, 0, n);
+                ret += n;
+            }
+        }
+        if (verify && !Arrays.equals(md5.digest(), stored.md5)) {
+            // a concurrent delete or overwrite of the slot is not an error
+            if (files.get(stored.slot) == stored) {
+                throw new IOException("Wrong checksum for " + stored.file.fid);
+            }
+        }
+        return ret;
+    }
+
+    private long write() throws IOException, NoSuchAlgorithmException {
+        int size = nextSize();
+        int offset = ThreadLocalRandom.current().nextInt(payload.length - size + 1);
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(payload, offset, size);
+
+        Assignation a = client.assign(new AssignParams());
+        client.writeRaw(a.weedFSFile, a.location, ByteBuffer.wrap(payload, offset, size), "load", null);
+
+        int slot = (int) (writes.getAndIncrement() % files.length());
+        files.set(slot, new StoredFile(a.weedFSFile, a.location, slot, md5.digest()));
+        return size;
+    }
+
+    private void delete() throws IOException {
+        StoredFile stored = pick(false);
+        if (stored != null && files.compareAndSet(stored.slot, stored, null)) {
+            client.delete(stored.file, stored.location);
+        }
+    }
+
+    /**
+     * @return a stored file, <code>null</code> if none could be found
+     */
+    private StoredFile pick(boolean skewed) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int written = (int) Math.min(writes.get(), files.length());
+        if (written == 0) {
+            return null;
+        }
+        for (int attempt = 0; attempt < 10; attempt++) {
+            int slot;
+            if (skewed) {
+                int rank = Arrays.binarySearch(zipf, random.nextDouble());
+                slot = (rank < 0 ? -rank - 1 : rank) % written;
+            } else {
+                slot = random.nextInt(written);
+            }
+            StoredFile ret = files.get(slot);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    private int nextSize() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double ret;
+        switch (size[0]) {
+        case "fixed":
+            ret = Double.parseDouble(size[1]);
+            break;
+        case "uniform":
+            ret = random.nextDouble(Double.parseDouble(size[1]), Double.parseDouble(size[2]));
+            break;
+        case "lognormal":
+            ret = Double.parseDouble(size[1]) * Math.exp(Double.parseDouble(size[2]) * random.nextGaussian());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown size distribution " + config.get("size"));
+        }
+        return (int) Math.max(1, Math.min(payload.length, ret));
+    }
+
+    /**
+     * @return the cumulative distribution of a Zipf law over <code>n</code> ranks
+     */
+    static double[] zipf(int n, double exponent) {
+        double[] ret = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            ret[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            ret[i] /= sum;
+        }
+        return ret;
+    }
+
+    /**
+     * @return one element per unit of weight, so that a uniform pick follows the mix
+     */
+    static Op[] mix(String mix) {
+        Map<Op, Integer> weights = new EnumMap<>(Op.class);
+        int sum = 0;
+        for (String part : mix.split(",")) {
+            String[] weight = part.split(":");
+            int w = Integer.parseInt(weight[1]);
+            weights.put(Op.valueOf(weight[0].trim().toUpperCase()), w);
+            sum += w;
+        }
+        Op[] ret = new Op[sum];
+        int i = 0;
+        for (Map.Entry<Op, Integer> e : weights.entrySet()) {
+            for (int w = 0; w < e.getValue(); w++) {
+                ret[i++] = e.getKey();
+            }
+        }
+        return ret;
+    }
+
+    private void report(long startNanos) {
+        Stats stats = interval.getAndSet(new Stats());
+        Map<String, Object> line = stats.toJson(System.nanoTime() - stats.startNanos);
+        line.put("elapsed", (System.nanoTime() - startNanos) / 1e9);
+        line.put("inFlight", inFlight.get());
+        print("interval", line);
+    }
+
+    private static void print(String type, Map<String, ?> values) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("type", type);
+        line.put("time", System.currentTimeMillis());
+        line.putAll(values);
+        try {
+            System.out.println(json.writeValueAsString(line));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger threads = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static final class StoredFile {
+
+        final WeedFSFile file;
+
+        final Location location;
+
+        final int slot;
+
+        final byte[] md5;
+
+        StoredFile(WeedFSFile file, Location location, int slot, byte[] md5) {
+            this.file = file;
+            this.location = location;
+            this.slot = slot;
+            this.md5 = md5;
+        }
+    }
+
+    private static final class Stats {
+
+        final long startNanos = System.nanoTime();
+
+        final Map<Op, OpStats> ops = new EnumMap<>(Op.class);
+
+        Stats() {
+            for (Op op : Op.values()) {
+                ops.put(op, new OpStats());
+            }
+        }
+
+        void record(Op op, long latencyNanos, long serviceNanos, long bytes, Exception error) {
+            OpStats stats = ops.get(op);
+            if (error != null) {
+                stats.errors.increment();
+            } else {
+                stats.latency.record(latencyNanos);
+                stats.service.record(serviceNanos);
+                stats.bytes.add(bytes);
+            }
+        }
+
+        Map<String, Object> toJson(long elapsedNanos) {
+            Map<String, Object> ret = new LinkedHashMap<>();
+            double seconds = elapsedNanos / 1e9;
+            long count = 0;
+            for (Map.Entry<Op, OpStats> e : ops.entrySet()) {
+                OpStats stats = e.getValue();
+                count += stats.latency.getCount();
+                Map<String, Object> op = new LinkedHashMap<>();
+                op.put("count", stats.latency.getCount());
+                op.put("errors", stats.errors.sum());
+                op.put("throughput", round(stats.latency.getCount() / seconds));
+                op.put("mbPerSecond", round(stats.bytes.sum() / seconds / (1 << 20)));
+                op.put("p50", millis(stats.latency.getValueAtPercentile(50)));
+                op.put("p99", millis(stats.latency.getValueAtPercentile(99)));
+                op.put("p999", millis(stats.latency.getValueAtPercentile(99.9)));
+                op.put("max", millis(stats.latency.getMax()));
+                op.put("serviceP50", millis(stats.service.getValueAtPercentile(50)));
+                op.put("serviceP99", millis(stats.service.getValueAtPercentile(99)));
+                ret.put(e.getKey().name().toLowerCase(), op);
+            }
+            ret.put("throughput", round(count / seconds));
+            return ret;
+        }
+
+        private static double millis(long nanos) {
+            return round(nanos / 1e6);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+    }
+
+    private static final class OpStats {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        final LatencyHistogram service = new LatencyHistogram();
+
+        final LongAdder errors = new LongAdder();
+
+        final LongAdder bytes = new LongAdder();
+    }
+}
@@ -0,0 +1,77 @@
+package com.scoopit.weedfs.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.scoopit.weedfs.client.Location;
+import com.scoopit.weedfs.client.caching.BoundedLookupCache;
+import com.scoopit.weedfs.client.caching.LookupCache;
+import com.scoopit.weedfs.client.caching.MapLookupCache;
+import com.scoopit.weedfs.client.caching.TimeBasedLookupCache;
+
+/**
+ * Measures lookup cache hit throughput from 1 thread up to the number of cores.
+ * <p>
+ * Usage: <code>LookupCacheBenchmark [seconds per run] [volume count]</code>
+ */
+public class LookupCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int volumes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        run("MapLookupCache", new MapLookupCache(), seconds, volumes);
+        run("TimeBasedLookupCache", new TimeBasedLookupCache(3600), seconds, volumes);
+        run("BoundedLookupCache", new BoundedLookupCache(volumes), seconds, volumes);
+    }
+
+    static void run(String name, LookupCache cache, int seconds, int volumes) throws Exception {
+        for (long volumeId = 1; volumeId <= volumes; volumeId++) {
+            Location location = new Location();
+            location.publicUrl = location.url = "volume-" + volumeId + ":8080";
+            cache.setLocation(volumeId, Collections.singletonList(location));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double opsPerSecond = measure(cache, threads, seconds, volumes);
+            System.out.printf("%s threads=%d ops/s=%.0f ops/s/thread=%.0f%n", name, threads, opsPerSecond, opsPerSecond / threads);
+        }
+    }
+
+    private static double measure(final LookupCache cache, int threads, int seconds, final int volumes) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder ops = new LongAdder();
+        final CountDownLatch started = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                started.countDown();
+                long n = 0;
+                while (running.get()) {
+                    if (cache.lookup(random.nextInt(volumes) + 1) == null) {
+                        throw new IllegalStateException("Unexpected cache miss");
+                    }
+                    n++;
+                }
+                ops.add(n);
+            });
+            workers.add(t);
+            t.start();
+        }
+        started.await();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread t : workers) {
+            t.join();
+        }
+        return ops.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
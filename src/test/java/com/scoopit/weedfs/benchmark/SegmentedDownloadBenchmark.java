@@ -0,0 +1,80 @@
+package com.scoopit.weedfs.benchmark;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import com.scoopit.weedfs.client.AssignParams;
+import com.scoopit.weedfs.client.Assignation;
+import com.scoopit.weedfs.client.ReplicationStrategy;
+import com.scoopit.weedfs.client.SegmentedDownloader;
+import com.scoopit.weedfs.client.WeedFSClient;
+import com.scoopit.weedfs.client.WeedFSClientBuilder;
+
+/**
+ * Compares the throughput of a single stream {@link WeedFSClient#read(com.scoopit.weedfs.client.WeedFSFile)} with
+ * {@link SegmentedDownloader}, both writing to a local file. Needs a running weed-fs cluster; the uploaded file is deleted
+ * afterwards.
+ * <p>
+ * Usage: <code>SegmentedDownloadBenchmark [master url] [file size in MB] [replication]</code>
+ */
+public class SegmentedDownloadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        URL masterUrl = new URL(args.length > 0 ? args[0] : "http://localhost:9333");
+        long size = (args.length > 1 ? Long.parseLong(args[1]) : 512) << 20;
+        ReplicationStrategy replication = args.length > 2 ? ReplicationStrategy.valueOf(args[2]) : ReplicationStrategy.None;
+
+        File source = File.createTempFile("weedfs-download-benchmark", ".bin");
+        source.deleteOnExit();
+        File target = File.createTempFile("weedfs-download-benchmark", ".out");
+        target.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            byte[] buf = new byte[1 << 20];
+            Random random = new Random();
+            for (long written = 0; written < size; written += buf.length) {
+                random.nextBytes(buf);
+                raf.write(buf, 0, (int) Math.min(buf.length, size - written));
+            }
+        }
+
+        try (WeedFSClient client = WeedFSClientBuilder.createBuilder().setMasterUrl(masterUrl).setMaxConnectionsPerRoute(64).build()) {
+            Assignation a = client.assign(new AssignParams(replication));
+            client.writeRaw(a.weedFSFile, a.location, source, null);
+
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                try (InputStream in = client.read(a.weedFSFile); OutputStream out = Files.newOutputStream(target.toPath())) {
+                    byte[] buf = new byte[64 << 10];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                    }
+                }
+                report("single stream", size, System.nanoTime() - start);
+
+                for (int parallelism : new int[] { 2, 4, 8, 16 }) {
+                    try (SegmentedDownloader downloader = new SegmentedDownloader(client, 8 << 20, parallelism);
+                            FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                        start = System.nanoTime();
+                        downloader.download(a.weedFSFile, channel, 0);
+                        report("segmented x" + parallelism, size, System.nanoTime() - start);
+                    }
+                }
+            }
+
+            client.delete(a.weedFSFile, a.location);
+        }
+    }
+
+    private static void report(String name, long size, long elapsedNanos) {
+        System.out.printf("%-16s MB/s=%.1f%n", name, size / (double) (1 << 20) / (elapsedNanos / 1e9));
+    }
+}
@@ -0,0 +1,105 @@
+package com.scoopit.weedfs.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.scoopit.weedfs.client.AssignParams;
+import com.scoopit.weedfs.client.Assignation;
+import com.scoopit.weedfs.client.WeedFSClient;
+import com.scoopit.weedfs.client.WeedFSClientBuilder;
+
+/**
+ * Compares multipart and raw uploads of 4KB, 1MB and 100MB objects: throughput and client CPU time per GB uploaded. Needs a
+ * running weed-fs cluster; uploaded files are deleted afterwards.
+ * <p>
+ * Usage: <code>UploadModeBenchmark [master url] [MB uploaded per run]</code>
+ */
+public class UploadModeBenchmark {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    enum Mode {
+        MULTIPART_FILE, RAW_FILE, MULTIPART_BYTES, RAW_DIRECT_BUFFER
+    }
+
+    public static void main(String[] args) throws Exception {
+        URL masterUrl = new URL(args.length > 0 ? args[0] : "http://localhost:9333");
+        long bytesPerRun = (args.length > 1 ? Long.parseLong(args[1]) : 512) << 20;
+
+        try (WeedFSClient client = WeedFSClientBuilder.createBuilder().setMasterUrl(masterUrl).build()) {
+            for (int size : new int[] { 4 << 10, 1 << 20, 100 << 20 }) {
+                File file = randomFile(size);
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                ByteBuffer direct = ByteBuffer.allocateDirect(size);
+                direct.put(bytes).flip();
+                int iterations = (int) Math.max(3, bytesPerRun / size);
+
+                for (Mode mode : Mode.values()) {
+                    // warm up
+                    run(client, mode, file, bytes, direct, Math.min(iterations, 20));
+                    long[] result = run(client, mode, file, bytes, direct, iterations);
+                    double seconds = result[0] / 1e9;
+                    double gigabytes = (double) size * iterations / (1 << 30);
+                    System.out.printf("%-18s size=%-9d n=%-6d MB/s=%-8.1f cpu s/GB=%.3f%n", mode, size, iterations,
+                            size * (double) iterations / (1 << 20) / seconds, result[1] / 1e9 / gigabytes);
+                }
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return elapsed and CPU nanoseconds spent uploading, assignations and deletions excluded
+     */
+    private static long[] run(WeedFSClient client, Mode mode, File file, byte[] bytes, ByteBuffer direct, int iterations)
+            throws IOException {
+        long elapsed = 0;
+        long cpu = 0;
+        for (int i = 0; i < iterations; i++) {
+            Assignation a = client.assign(new AssignParams());
+
+            long start = System.nanoTime();
+            long startCpu = threads.getCurrentThreadCpuTime();
+            switch (mode) {
+            case MULTIPART_FILE:
+                client.write(a.weedFSFile, a.location, file);
+                break;
+            case RAW_FILE:
+                client.writeRaw(a.weedFSFile, a.location, file, null);
+                break;
+            case MULTIPART_BYTES:
+                client.write(a.weedFSFile, a.location, bytes, file.getName());
+                break;
+            case RAW_DIRECT_BUFFER:
+                client.writeRaw(a.weedFSFile, a.location, direct, file.getName(), null);
+                break;
+            }
+            cpu += threads.getCurrentThreadCpuTime() - startCpu;
+            elapsed += System.nanoTime() - start;
+
+            client.delete(a.weedFSFile, a.location);
+        }
+        return new long[] { elapsed, cpu };
+    }
+
+    private static File randomFile(int size) throws IOException {
+        File f = File.createTempFile("weedfs-upload-benchmark", ".bin");
+        f.deleteOnExit();
+        byte[] buf = new byte[64 << 10];
+        Random random = new Random();
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            for (int written = 0; written < size; written += buf.length) {
+                random.nextBytes(buf);
+                fos.write(buf, 0, Math.min(buf.length, size - written));
+            }
+        }
+        return f;
+    }
+}
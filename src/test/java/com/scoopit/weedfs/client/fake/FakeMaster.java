@@ -0,0 +1,163 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.scoopit.weedfs.client.Location;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Master of a {@link FakeWeedFSCluster}: <code>/dir/assign</code>, <code>/dir/lookup</code>, <code>/dir/status</code> and
+ * <code>/cluster/status</code>. Assignments go round robin over the volumes, whatever replication is asked for.
+ */
+public class FakeMaster extends FakeServer {
+
+    static final String VERSION = "fake";
+
+    private final FakeWeedFSCluster cluster;
+
+    private final Random random;
+
+    private final AtomicLong nextKey = new AtomicLong();
+
+    private final AtomicLong nextVolume = new AtomicLong();
+
+    FakeMaster(FakeWeedFSCluster cluster, String host, Random random, Executor executor) throws IOException {
+        super(host, random, executor);
+        this.cluster = cluster;
+        this.random = random;
+    }
+
+    @Override
+    void serve(HttpExchange exchange) throws IOException, InterruptedException {
+        switch (exchange.getRequestURI().getPath()) {
+        case "/dir/assign":
+            assign(exchange);
+            break;
+        case "/dir/lookup":
+            lookup(exchange);
+            break;
+        case "/dir/status":
+            status(exchange);
+            break;
+        case "/cluster/status":
+            clusterStatus(exchange);
+            break;
+        default:
+            respondError(exchange, 404, "Not found: " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private void assign(HttpExchange exchange) throws IOException, InterruptedException {
+        List<Long> volumes = cluster.getVolumeIds();
+        long volumeId = volumes.get((int) (nextVolume.getAndIncrement() % volumes.size()));
+        Location location = cluster.getReplicas(volumeId).get(0).getLocation();
+        String count = parameter(exchange, "count");
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("fid", volumeId + "," + Long.toHexString(nextKey.incrementAndGet()) + String.format("%08x", random.nextInt()));
+        ret.put("url", location.url);
+        ret.put("publicUrl", location.publicUrl);
+        ret.put("count", count != null ? Integer.parseInt(count) : 1);
+        respondJson(exchange, 200, ret);
+    }
+
+    private void lookup(HttpExchange exchange) throws IOException, InterruptedException {
+        String volumeOrFileId = parameter(exchange, "volumeId");
+        long volumeId;
+        try {
+            int comma = volumeOrFileId.indexOf(',');
+            volumeId = Long.parseLong(comma < 0 ? volumeOrFileId : volumeOrFileId.substring(0, comma));
+        } catch (RuntimeException e) {
+            respondError(exchange, 400, "Unknown volume id " + volumeOrFileId);
+            return;
+        }
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("volumeOrFileId", volumeOrFileId);
+        List<FakeVolumeServer> replicas = cluster.getReplicas(volumeId);
+        if (replicas.isEmpty()) {
+            ret.put("error", "volume id " + volumeId + " not found");
+            respondJson(exchange, 404, ret);
+            return;
+        }
+        List<Location> locations = new ArrayList<>(replicas.size());
+        for (FakeVolumeServer replica : replicas) {
+            locations.add(replica.getLocation());
+        }
+        ret.put("locations", locations);
+        respondJson(exchange, 200, ret);
+    }
+
+    private void status(HttpExchange exchange) throws IOException, InterruptedException {
+        List<Map<String, Object>> dataNodes = new ArrayList<>();
+        for (FakeVolumeServer server : cluster.getVolumeServers()) {
+            Map<String, Object> node = node(server.getVolumeIds().size());
+            node.put("PublicUrl", server.getLocation().publicUrl);
+            node.put("Url", server.getLocation().url);
+            node.put("Volumes", server.getVolumeIds().size());
+            dataNodes.add(node);
+        }
+        int volumeCount = cluster.getVolumeIds().size() * cluster.getCopies();
+
+        Map<String, Object> rack = node(volumeCount);
+        rack.put("DataNodes", dataNodes);
+        Map<String, Object> dataCenter = node(volumeCount);
+        dataCenter.put("Racks", Collections.singletonList(rack));
+
+        Map<String, Object> layout = new LinkedHashMap<>();
+        layout.put("collection", "");
+        layout.put("replication", cluster.getReplication());
+        layout.put("writables", cluster.getVolumeIds());
+
+        Map<String, Object> topology = node(volumeCount);
+        topology.put("DataCenters", Collections.singletonList(dataCenter));
+        topology.put("layouts", Collections.singletonList(layout));
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("Topology", topology);
+        ret.put("Version", VERSION);
+        respondJson(exchange, 200, ret);
+    }
+
+    private static Map<String, Object> node(int volumes) {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("Free", 0);
+        ret.put("Max", volumes);
+        return ret;
+    }
+
+    private void clusterStatus(HttpExchange exchange) throws IOException, InterruptedException {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("IsLeader", true);
+        ret.put("Leader", getLocation().url);
+        ret.put("Peers", Collections.emptyList());
+        respondJson(exchange, 200, ret);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scoopit.weedfs.client.Location;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * One HTTP endpoint of a {@link FakeWeedFSCluster}, applying its {@link Faults} to every request.
+ */
+public abstract class FakeServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FakeServer.class);
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int MAX_CHUNK_SIZE = 8192;
+
+    private static final int MIN_CHUNK_SIZE = 512;
+
+    private final HttpServer server;
+
+    private final Faults faults;
+
+    private final Location location;
+
+    private final LongAdder requests = new LongAdder();
+
+    FakeServer(String host, Random random, Executor executor) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        faults = new Faults(random.nextLong());
+        location = new Location();
+        location.url = location.publicUrl = host + ":" + server.getAddress().getPort();
+    }
+
+    void start() {
+        server.start();
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public Faults getFaults() {
+        return faults;
+    }
+
+    /**
+     * @return the number of requests received, including the ones that failed or timed out
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    abstract void serve(HttpExchange exchange) throws IOException, InterruptedException;
+
+    private void handle(HttpExchange exchange) {
+        requests.increment();
+        try {
+            Random random = faults.nextRequest();
+            sleepNanos(faults.nextLatencyNanos(random));
+            if (faults.nextTimesOut(random)) {
+                // closing the exchange without a response drops the connection
+                sleepNanos(faults.getTimeoutNanos());
+                return;
+            }
+            if (faults.nextFails(random)) {
+                readBody(exchange);
+                respondError(exchange, faults.getErrorStatus(), "Injected failure");
+                return;
+            }
+            serve(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("Unable to answer {} {} on {}", exchange.getRequestMethod(), exchange.getRequestURI(), location, e);
+        } catch (RuntimeException e) {
+            log.warn("Error handling {} {} on {}", exchange.getRequestMethod(), exchange.getRequestURI(), location, e);
+            try {
+                respondError(exchange, 500, e.toString());
+            } catch (IOException | InterruptedException ignored) {
+                // headers were already sent
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    byte[] readBody(HttpExchange exchange) throws IOException, InterruptedException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytesPerSecond = faults.getBytesPerSecond();
+        byte[] buf = new byte[chunkSize(bytesPerSecond)];
+        long start = System.nanoTime();
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            total += n;
+            throttle(start, total, bytesPerSecond);
+        }
+        return out.toByteArray();
+    }
+
+    void respond(HttpExchange exchange, int status, byte[] body) throws IOException, InterruptedException {
+        respond(exchange, status, body, 0, body.length);
+    }
+
+    void respond(HttpExchange exchange, int status, byte[] body, int offset, int length) throws IOException, InterruptedException {
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length == 0) {
+            return;
+        }
+        long bytesPerSecond = faults.getBytesPerSecond();
+        int chunkSize = chunkSize(bytesPerSecond);
+        long start = System.nanoTime();
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int written = 0; written < length;) {
+                int n = Math.min(chunkSize, length - written);
+                out.write(body, offset + written, n);
+                written += n;
+                throttle(start, written, bytesPerSecond);
+            }
+        }
+    }
+
+    void respondJson(HttpExchange exchange, int status, Object body) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        respond(exchange, status, MAPPER.writeValueAsBytes(body));
+    }
+
+    void respondError(HttpExchange exchange, int status, String error) throws IOException, InterruptedException {
+        respondJson(exchange, status, Collections.singletonMap("error", error));
+    }
+
+    private static int chunkSize(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return MAX_CHUNK_SIZE;
+        }
+        // about 20 writes per second, so the throttling stays smooth
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, bytesPerSecond / 20));
+    }
+
+    private static void throttle(long startNanos, long bytes, long bytesPerSecond) throws InterruptedException {
+        if (bytesPerSecond > 0) {
+            sleepNanos(startNanos + (long) (bytes * 1e9 / bytesPerSecond) - System.nanoTime());
+        }
+    }
+
+    static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    static Map<String, List<String>> parseParameters(String encoded) {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return ret;
+        }
+        try {
+            for (String pair : encoded.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                ret.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return ret;
+    }
+
+    static String parameter(HttpExchange exchange, String name) {
+        List<String> values = parseParameters(exchange.getRequestURI().getRawQuery()).get(name);
+        return values == null ? null : values.get(0);
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Volume server of a {@link FakeWeedFSCluster}, keeping files in memory.
+ * <p>
+ * Serves uploads (multipart or raw), reads with single byte ranges, deletes, the <code>/delete</code> batch endpoint and
+ * <code>/status</code>. Writes and deletes are applied synchronously to every replica of the volume, like a volume server
+ * replicating before it answers.
+ */
+public class FakeVolumeServer extends FakeServer {
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final FakeWeedFSCluster cluster;
+
+    private final Set<Long> volumeIds = new CopyOnWriteArraySet<>();
+
+    private final ConcurrentMap<String, Blob> blobs = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, LongAdder> deletes = new ConcurrentHashMap<>();
+
+    FakeVolumeServer(FakeWeedFSCluster cluster, String host, Random random, Executor executor) throws IOException {
+        super(host, random, executor);
+        this.cluster = cluster;
+    }
+
+    void addVolume(long volumeId) {
+        volumeIds.add(volumeId);
+    }
+
+    public Set<Long> getVolumeIds() {
+        return Collections.unmodifiableSet(volumeIds);
+    }
+
+    /**
+     * @return the number of files stored on this server
+     */
+    public int getFileCount() {
+        return blobs.size();
+    }
+
+    /**
+     * @return the content of a file stored on this server, <code>null</code> if there is none
+     */
+    public byte[] getContent(String fid) {
+        Blob blob = blobs.get(fid);
+        return blob == null ? null : blob.content;
+    }
+
+    /**
+     * Removes every file from this server only, as if it had lost its disks.
+     */
+    public void clear() {
+        blobs.clear();
+    }
+
+    void store(String fid, Blob blob) {
+        blobs.put(fid, blob);
+    }
+
+    Blob remove(String fid) {
+        Blob ret = blobs.remove(fid);
+        if (ret != null) {
+            deletes.computeIfAbsent(volumeId(fid), v -> new LongAdder()).increment();
+        }
+        return ret;
+    }
+
+    @Override
+    void serve(HttpExchange exchange) throws IOException, InterruptedException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/status")) {
+            status(exchange);
+            return;
+        }
+        if (path.equals("/delete")) {
+            deleteBatch(exchange);
+            return;
+        }
+
+        String fid = path.substring(1);
+        long volumeId = volumeId(fid);
+        if (volumeId < 0) {
+            readBody(exchange);
+            respondError(exchange, 400, "Invalid fid " + fid);
+            return;
+        }
+        if (!volumeIds.contains(volumeId)) {
+            readBody(exchange);
+            respondError(exchange, 404, "volume " + volumeId + " not found on " + getLocation().url);
+            return;
+        }
+        switch (exchange.getRequestMethod()) {
+        case "GET":
+        case "HEAD":
+            read(exchange, fid);
+            break;
+        case "POST":
+        case "PUT":
+            write(exchange, fid, volumeId);
+            break;
+        case "DELETE":
+            delete(exchange, fid, volumeId);
+            break;
+        default:
+            respondError(exchange, 405, "Unsupported method " + exchange.getRequestMethod());
+        }
+    }
+
+    private static long volumeId(String fid) {
+        int comma = fid.indexOf(',');
+        if (comma <= 0 || comma == fid.length() - 1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fid.substring(0, comma));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void write(HttpExchange exchange, String fid, long volumeId) throws IOException, InterruptedException {
+        byte[] body = readBody(exchange);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        Blob blob = contentType != null && contentType.startsWith("multipart/form-data") ? Blob.fromMultipart(body, contentType)
+                : new Blob(body, filename(exchange.getRequestHeaders().getFirst("Content-Disposition")), contentType);
+        if (blob == null) {
+            respondError(exchange, 400, "Invalid multipart upload");
+            return;
+        }
+        for (FakeVolumeServer replica : cluster.getReplicas(volumeId)) {
+            replica.store(fid, blob);
+        }
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("name", blob.name);
+        ret.put("size", blob.content.length);
+        ret.put("eTag", blob.eTag);
+        respondJson(exchange, 201, ret);
+    }
+
+    private void read(HttpExchange exchange, String fid) throws IOException, InterruptedException {
+        Blob blob = blobs.get(fid);
+        if (blob == null) {
+            respond(exchange, 404, new byte[0]);
+            return;
+        }
+        int length = blob.content.length;
+        exchange.getResponseHeaders().set("Content-Type", blob.mimeType);
+        exchange.getResponseHeaders().set("ETag", "\"" + blob.eTag + "\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            respondContent(exchange, 200, blob.content, 0, length);
+            return;
+        }
+        long[] bounds = parseRange(range, length);
+        if (bounds == null) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+            respond(exchange, 416, new byte[0]);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+        respondContent(exchange, 206, blob.content, (int) bounds[0], (int) (bounds[1] - bounds[0] + 1));
+    }
+
+    private void respondContent(HttpExchange exchange, int status, byte[] content, int offset, int length) throws IOException,
+            InterruptedException {
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            respond(exchange, status, content, offset, length);
+        }
+    }
+
+    /**
+     * @return the first and last byte of a single range, <code>null</code> if it cannot be satisfied
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            return first < length && first <= last ? new long[] { first, last } : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void delete(HttpExchange exchange, String fid, long volumeId) throws IOException, InterruptedException {
+        Blob deleted = deleteReplicas(fid, volumeId);
+        respondJson(exchange, deleted != null ? 202 : 404, Collections.singletonMap("size", deleted != null ? deleted.content.length : 0));
+    }
+
+    private Blob deleteReplicas(String fid, long volumeId) {
+        Blob ret = null;
+        for (FakeVolumeServer replica : cluster.getReplicas(volumeId)) {
+            Blob removed = replica.remove(fid);
+            if (replica == this) {
+                ret = removed;
+            }
+        }
+        return ret;
+    }
+
+    private void deleteBatch(HttpExchange exchange) throws IOException, InterruptedException {
+        Map<String, List<String>> params = parseParameters(exchange.getRequestURI().getRawQuery());
+        parseParameters(new String(readBody(exchange), StandardCharsets.UTF_8)).forEach(
+                (name, values) -> params.computeIfAbsent(name, k -> new ArrayList<>()).addAll(values));
+
+        List<Map<String, Object>> ret = new ArrayList<>();
+        for (String fid : params.getOrDefault("fid", Collections.<String> emptyList())) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("fid", fid);
+            long volumeId = volumeId(fid);
+            if (volumeId < 0) {
+                result.put("status", 400);
+                result.put("error", "Invalid fid " + fid);
+            } else if (!volumeIds.contains(volumeId)) {
+                result.put("status", 404);
+                result.put("error", "volume " + volumeId + " not found on " + getLocation().url);
+            } else {
+                Blob deleted = deleteReplicas(fid, volumeId);
+                result.put("status", deleted != null ? 202 : 404);
+                result.put("size", deleted != null ? deleted.content.length : 0);
+            }
+            ret.add(result);
+        }
+        respondJson(exchange, 202, ret);
+    }
+
+    private void status(HttpExchange exchange) throws IOException, InterruptedException {
+        Map<Long, long[]> usage = new LinkedHashMap<>();
+        for (Long volumeId : volumeIds) {
+            usage.put(volumeId, new long[2]);
+        }
+        for (Map.Entry<String, Blob> e : blobs.entrySet()) {
+            long[] u = usage.get(volumeId(e.getKey()));
+            if (u != null) {
+                u[0]++;
+                u[1] += e.getValue().content.length;
+            }
+        }
+
+        List<Map<String, Object>> volumes = new ArrayList<>();
+        for (Map.Entry<Long, long[]> e : usage.entrySet()) {
+            Map<String, Object> volume = new LinkedHashMap<>();
+            volume.put("Id", e.getKey());
+            volume.put("Size", e.getValue()[1]);
+            volume.put("RepType", cluster.getReplication());
+            volume.put("Collection", "");
+            volume.put("Version", "3");
+            volume.put("FileCount", e.getValue()[0]);
+            LongAdder deleted = deletes.get(e.getKey());
+            volume.put("DeleteCount", deleted != null ? deleted.sum() : 0);
+            volume.put("DeletedByteCount", 0);
+            volume.put("ReadOnly", false);
+            volumes.add(volume);
+        }
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("Version", FakeMaster.VERSION);
+        ret.put("Volumes", volumes);
+        respondJson(exchange, 200, ret);
+    }
+
+    private static String filename(String contentDisposition) {
+        if (contentDisposition == null) {
+            return null;
+        }
+        int start = contentDisposition.indexOf("filename=");
+        if (start < 0) {
+            return null;
+        }
+        String ret = contentDisposition.substring(start + "filename=".length()).trim();
+        int end = ret.indexOf(';');
+        if (end >= 0) {
+            ret = ret.substring(0, end).trim();
+        }
+        if (ret.length() >= 2 && ret.startsWith("\"") && ret.endsWith("\"")) {
+            ret = ret.substring(1, ret.length() - 1);
+        }
+        return ret;
+    }
+
+    static final class Blob {
+
+        final byte[] content;
+
+        final String name;
+
+        final String mimeType;
+
+        final String eTag;
+
+        Blob(byte[] content, String name, String mimeType) {
+            this.content = content;
+            this.name = name != null ? name : "";
+            this.mimeType = mimeType != null ? mimeType : "application/octet-stream";
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            this.eTag = String.format("%08x", crc.getValue());
+        }
+
+        /**
+         * Content, name and type of the first part of a <code>multipart/form-data</code> body.
+         */
+        static Blob fromMultipart(byte[] body, String contentType) {
+            int b = contentType.indexOf("boundary=");
+            if (b < 0) {
+                return null;
+            }
+            String boundary = contentType.substring(b + "boundary=".length());
+            int end = boundary.indexOf(';');
+            if (end >= 0) {
+                boundary = boundary.substring(0, end);
+            }
+            boundary = boundary.trim().replace("\"", "");
+            byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+
+            int start = indexOf(body, delimiter, 0);
+            int headersEnd = start < 0 ? -1 : indexOf(body, HEADERS_END, start);
+            if (headersEnd < 0) {
+                return null;
+            }
+            byte[] closing = concat(CRLF, delimiter);
+            int contentEnd = indexOf(body, closing, headersEnd + HEADERS_END.length);
+            if (contentEnd < 0) {
+                return null;
+            }
+
+            String name = null;
+            String mimeType = null;
+            String headers = new String(body, start + delimiter.length, headersEnd - start - delimiter.length, StandardCharsets.UTF_8);
+            for (String header : headers.split("\r\n")) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String headerName = header.substring(0, colon).trim();
+                if (headerName.equalsIgnoreCase("Content-Disposition")) {
+                    name = filename(header.substring(colon + 1));
+                } else if (headerName.equalsIgnoreCase("Content-Type")) {
+                    mimeType = header.substring(colon + 1).trim();
+                }
+            }
+            return new Blob(Arrays.copyOfRange(body, headersEnd + HEADERS_END.length, contentEnd), name, mimeType);
+        }
+
+        private static byte[] concat(byte[] a, byte[] b) {
+            byte[] ret = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, ret, a.length, b.length);
+            return ret;
+        }
+
+        private static int indexOf(byte[] data, byte[] pattern, int from) {
+            outer: for (int i = from; i <= data.length - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+}
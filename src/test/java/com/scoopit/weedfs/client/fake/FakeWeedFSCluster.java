@@ -0,0 +1,270 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.scoopit.weedfs.client.Location;
+import com.scoopit.weedfs.client.ReplicationStrategy;
+
+/**
+ * An in-process weed-fs cluster, one master and several volume servers keeping files in memory, for tests and benchmarks
+ * that need real HTTP exchanges without a running cluster.
+ * <p>
+ * Every server has its own {@link Faults}, so latency, errors, timeouts and bandwidth limits can be injected on the master
+ * or on some volume servers only, and changed while the cluster runs. Given the same seed, the n-th request received by a
+ * server gets the same faults on each run. Under concurrent load, which request is the n-th one still depends on thread
+ * scheduling: only sequential requests get the same faults run after run.
+ * <p>
+ * The cluster lives in the test sources, it is not part of the client jar. The JDK http server it runs on writes headers
+ * and bodies separately, so small responses wait for delayed acks unless the JVM runs with
+ * <code>-Dsun.net.httpserver.nodelay=true</code>, as the test and benchmark harnesses do.
+ *
+ * <pre>
+ * try (FakeWeedFSCluster cluster = FakeWeedFSCluster.createBuilder().setVolumeServers(3)
+ *         .setReplication(ReplicationStrategy.OnceOnSameRack).build()) {
+ *     cluster.getVolumeServer(0).getFaults().setLatency(LatencyDistribution.fixed(50, TimeUnit.MILLISECONDS));
+ *     WeedFSClient client = WeedFSClientBuilder.createBuilder().setMasterUrl(cluster.getMasterUrl()).build();
+ *     ...
+ * }
+ * </pre>
+ */
+public class FakeWeedFSCluster implements Closeable {
+
+    private final ExecutorService executor;
+
+    private final FakeMaster master;
+
+    private final List<FakeVolumeServer> volumeServers;
+
+    private final Map<Long, List<FakeVolumeServer>> replicas = new LinkedHashMap<>();
+
+    private final List<Long> volumeIds;
+
+    private final String replication;
+
+    private final int copies;
+
+    private FakeWeedFSCluster(Builder builder) throws IOException {
+        replication = builder.replication.getParameterValue();
+        copies = copies(replication);
+        if (copies > builder.volumeServers) {
+            throw new IllegalArgumentException("Replication " + replication + " needs " + copies + " volume servers, only "
+                    + builder.volumeServers + " configured");
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "fake-weedfs-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = Executors.newCachedThreadPool(threadFactory);
+
+        Random seeds = new Random(builder.seed);
+        List<FakeVolumeServer> servers = new ArrayList<>();
+        try {
+            master = new FakeMaster(this, builder.host, new Random(seeds.nextLong()), executor);
+            for (int i = 0; i < builder.volumeServers; i++) {
+                servers.add(new FakeVolumeServer(this, builder.host, new Random(seeds.nextLong()), executor));
+            }
+        } catch (IOException e) {
+            for (FakeVolumeServer server : servers) {
+                server.close();
+            }
+            executor.shutdownNow();
+            throw e;
+        }
+        volumeServers = Collections.unmodifiableList(servers);
+
+        List<Long> ids = new ArrayList<>();
+        for (int v = 0; v < builder.volumes; v++) {
+            long volumeId = v + 1;
+            List<FakeVolumeServer> volumeReplicas = new ArrayList<>(copies);
+            for (int c = 0; c < copies; c++) {
+                FakeVolumeServer server = servers.get((v + c) % servers.size());
+                server.addVolume(volumeId);
+                volumeReplicas.add(server);
+            }
+            replicas.put(volumeId, Collections.unmodifiableList(volumeReplicas));
+            ids.add(volumeId);
+        }
+        volumeIds = Collections.unmodifiableList(ids);
+
+        for (FakeVolumeServer server : servers) {
+            server.start();
+        }
+        master.start();
+    }
+
+    private static int copies(String replication) {
+        int ret = 1;
+        for (char c : replication.toCharArray()) {
+            ret += c - '0';
+        }
+        return ret;
+    }
+
+    public static Builder createBuilder() {
+        return new Builder();
+    }
+
+    public URL getMasterUrl() {
+        try {
+            return new URL("http://" + master.getLocation().url);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public FakeMaster getMaster() {
+        return master;
+    }
+
+    public List<FakeVolumeServer> getVolumeServers() {
+        return volumeServers;
+    }
+
+    public FakeVolumeServer getVolumeServer(int index) {
+        return volumeServers.get(index);
+    }
+
+    /**
+     * @return the volume server at this location, <code>null</code> if it is not part of this cluster
+     */
+    public FakeVolumeServer getVolumeServer(Location location) {
+        for (FakeVolumeServer server : volumeServers) {
+            if (server.getLocation().equals(location)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    public List<Long> getVolumeIds() {
+        return volumeIds;
+    }
+
+    /**
+     * @return the volume servers holding a volume, in the order the master lists them
+     */
+    public List<FakeVolumeServer> getReplicas(long volumeId) {
+        List<FakeVolumeServer> ret = replicas.get(volumeId);
+        return ret != null ? ret : Collections.<FakeVolumeServer> emptyList();
+    }
+
+    public String getReplication() {
+        return replication;
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * Removes the faults of every server.
+     */
+    public void resetFaults() {
+        master.getFaults().reset();
+        for (FakeVolumeServer server : volumeServers) {
+            server.getFaults().reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        master.close();
+        for (FakeVolumeServer server : volumeServers) {
+            server.close();
+        }
+        executor.shutdownNow();
+    }
+
+    public static class Builder {
+
+        private String host = "localhost";
+
+        private int volumeServers = 3;
+
+        private int volumes = 8;
+
+        private ReplicationStrategy replication = ReplicationStrategy.None;
+
+        private long seed = 1;
+
+        private Builder() {
+        }
+
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setVolumeServers(int volumeServers) {
+            if (volumeServers < 1) {
+                throw new IllegalArgumentException("At least one volume server is needed");
+            }
+            this.volumeServers = volumeServers;
+            return this;
+        }
+
+        public Builder setVolumes(int volumes) {
+            if (volumes < 1) {
+                throw new IllegalArgumentException("At least one volume is needed");
+            }
+            this.volumes = volumes;
+            return this;
+        }
+
+        /**
+         * Every volume is placed on as many volume servers as the strategy needs copies. Racks and data centers are not
+         * simulated.
+         */
+        public Builder setReplication(ReplicationStrategy replication) {
+            this.replication = replication;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Starts the cluster, on ephemeral ports.
+         */
+        public FakeWeedFSCluster build() throws IOException {
+            return new FakeWeedFSCluster(this);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Faults injected by a fake server, changeable while the cluster is running.
+ * <p>
+ * Each request first waits for a latency drawn from {@link #setLatency(LatencyDistribution)}, then may time out or fail
+ * according to {@link #setTimeoutRate(double)} and {@link #setErrorRate(double)}. A timed out request is held for
+ * {@link #setTimeout(long, TimeUnit)} and its connection closed without any response. Request and response bodies are
+ * throttled to {@link #setBandwidth(long)}.
+ * <p>
+ * The faults of a request are drawn from a generator of its own, seeded from the seed of the server and the number of the
+ * request: the n-th request gets the same faults on each run, even if several requests draw their faults at the same
+ * time.
+ */
+public class Faults {
+
+    public static final int DEFAULT_ERROR_STATUS = 500;
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final long seed;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private volatile LatencyDistribution latency = LatencyDistribution.NONE;
+
+    private volatile double errorRate;
+
+    private volatile int errorStatus = DEFAULT_ERROR_STATUS;
+
+    private volatile double timeoutRate;
+
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+
+    private volatile long bytesPerSecond;
+
+    Faults(long seed) {
+        this.seed = seed;
+    }
+
+    public Faults setLatency(LatencyDistribution latency) {
+        this.latency = latency == null ? LatencyDistribution.NONE : latency;
+        return this;
+    }
+
+    /**
+     * @param errorRate
+     *            fraction of the requests answered with the error status
+     */
+    public Faults setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public Faults setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * @param timeoutRate
+     *            fraction of the requests that never get a response
+     */
+    public Faults setTimeoutRate(double timeoutRate) {
+        this.timeoutRate = timeoutRate;
+        return this;
+    }
+
+    public Faults setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond
+     *            bandwidth of each request and response body, 0 for no limit
+     */
+    public Faults setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Removes every fault.
+     */
+    public void reset() {
+        latency = LatencyDistribution.NONE;
+        errorRate = 0;
+        errorStatus = DEFAULT_ERROR_STATUS;
+        timeoutRate = 0;
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+        bytesPerSecond = 0;
+    }
+
+    /**
+     * @return the generator of the faults of the next request
+     */
+    Random nextRequest() {
+        // SplitMix64 of the request number, as nearby seeds give close first values with java.util.Random
+        long z = seed + requests.getAndIncrement() * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    long nextLatencyNanos(Random random) {
+        return Math.max(0, latency.nextNanos(random));
+    }
+
+    boolean nextTimesOut(Random random) {
+        double rate = timeoutRate;
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    boolean nextFails(Random random) {
+        double rate = errorRate;
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
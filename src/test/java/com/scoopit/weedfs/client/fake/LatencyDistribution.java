@@ -0,0 +1,69 @@
+/*
+ * (C) Copyright 2013 Scoop IT SAS (http://scoop.it/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Philippe GASSMANN
+ *     Jean-Baptiste BELLET
+ */
+package com.scoopit.weedfs.client.fake;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency added by a fake server before it handles a request.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    LatencyDistribution NONE = random -> 0;
+
+    /**
+     * @return the next latency, in nanoseconds
+     */
+    long nextNanos(Random random);
+
+    static LatencyDistribution fixed(long latency, TimeUnit unit) {
+        long nanos = unit.toNanos(latency);
+        return random -> nanos;
+    }
+
+    static LatencyDistribution uniform(long min, long max, TimeUnit unit) {
+        long minNanos = unit.toNanos(min);
+        long range = unit.toNanos(max) - minNanos;
+        return random -> minNanos + (long) (random.nextDouble() * range);
+    }
+
+    static LatencyDistribution exponential(long mean, TimeUnit unit) {
+        long meanNanos = unit.toNanos(mean);
+        return random -> (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * Log-normal latencies, the usual shape of service times: most requests close to the median and a long tail whose
+     * weight grows with sigma.
+     */
+    static LatencyDistribution logNormal(long median, double sigma, TimeUnit unit) {
+        long medianNanos = unit.toNanos(median);
+        return random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    /**
+     * Latency from this distribution, and from <code>slow</code> for a fraction of the requests.
+     */
+    default LatencyDistribution withSlowRequests(double probability, LatencyDistribution slow) {
+        return random -> random.nextDouble() < probability ? slow.nextNanos(random) : nextNanos(random);
+    }
+}